@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.benchmark;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import pt.ua.dicoogle.classdb.QueryProvider;
+import pt.ua.dicoogle.classdb.database.lucene.LuceneDatabase;
+import pt.ua.dicoogle.classdb.database.struct.DatabaseItem;
+import pt.ua.dicoogle.classdb.database.struct.QueryParametersBuilder;
+import pt.ua.dicoogle.sdk.datastructs.SearchResult;
+
+/** Cost of converting database results into Dicoogle search results in the query provider.
+ *
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class QueryProviderBenchmark {
+
+    @Param({"100000", "1000000"})
+    public long size;
+
+    @Param({"false", "true"})
+    public boolean onlyBest;
+
+    private LuceneDatabase db;
+    private ExposedQueryProvider provider;
+    private Map<String, Object> options;
+
+    /** Exposes the per-item conversion of the query provider. */
+    static class ExposedQueryProvider extends QueryProvider {
+        SearchResult convert(DatabaseItem item) {
+            return this.toSearchResult(item);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.db = new LuceneDatabase(SyntheticData.index(this.size));
+        this.provider = new ExposedQueryProvider();
+        this.provider.setDatabase(this.db);
+        this.options = new HashMap<>();
+        this.options.put("onlybest", this.onlyBest);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        this.db.close();
+    }
+
+    /** The query provider, as used by Dicoogle. */
+    @Benchmark
+    public void query(Blackhole bh) {
+        this.provider.query("liver:true", this.options).forEach(bh::consume);
+    }
+
+    /** Per-item conversion of a regular search, for reference. */
+    @Benchmark
+    public void searchAndConvert(Blackhole bh) throws IOException {
+        this.db.search("liver:true", new QueryParametersBuilder().setOnlyBest(this.onlyBest).build())
+                .map(this.provider::convert)
+                .forEach(bh::consume);
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.benchmark;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import pt.ua.dicoogle.classdb.database.DatabaseReader;
+import pt.ua.dicoogle.classdb.database.lucene.IndexConfig;
+import pt.ua.dicoogle.classdb.database.lucene.IndexConfigBuilder;
+import pt.ua.dicoogle.classdb.database.lucene.LuceneDatabase;
+import pt.ua.dicoogle.classdb.database.struct.Aggregation;
+import pt.ua.dicoogle.classdb.database.struct.Facet;
+import pt.ua.dicoogle.classdb.database.struct.QueryParameters;
+import pt.ua.dicoogle.classdb.database.struct.QueryParametersBuilder;
+
+/** Latency of searching a synthetic Lucene database, materialising the results in different ways.
+ * Larger indexes can be benchmarked with, for instance, {@code -p size=10000000,50000000}.
+ *
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SearchBenchmark {
+
+    /** Number of predictions in the index. */
+    @Param({"100000", "1000000"})
+    public long size;
+
+    @Param({"simple", "boolean", "freetext"})
+    public String queryType;
+
+    @Param({"false", "true"})
+    public boolean onlyBest;
+
+    /** The index directory implementation. */
+    @Param({"auto"})
+    public String directory;
+
+    private LuceneDatabase db;
+    private DatabaseReader reader;
+    private String query;
+    private QueryParameters params;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.db = new LuceneDatabase(SyntheticData.index(this.size), new IndexConfigBuilder()
+                .setDirectoryType(IndexConfig.DirectoryType.fromName(this.directory))
+                .build());
+        this.reader = this.db.createReader();
+        switch (this.queryType) {
+            case "simple":
+                this.query = "liver:true";
+                break;
+            case "boolean":
+                this.query = "liver:true AND classifier:convnet";
+                break;
+            case "freetext":
+                this.query = "convnet liver";
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown query type " + this.queryType);
+        }
+        this.params = new QueryParametersBuilder()
+                .setOnlyBest(this.onlyBest)
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        this.db.close();
+    }
+
+    @Benchmark
+    public void search(Blackhole bh) throws IOException {
+        this.reader.search(this.query, this.params).forEach(bh::consume);
+    }
+
+    @Benchmark
+    public void searchBatches(Blackhole bh) throws IOException {
+        this.reader.searchBatches(this.query, this.params, 1024).forEach(b -> {
+            for (int i = 0; i < b.size(); i++) {
+                bh.consume(b.uriString(i));
+                bh.consume(b.score(i));
+            }
+        });
+    }
+
+    @Benchmark
+    public long countBySearch() throws IOException {
+        return this.reader.search(this.query, this.params).count();
+    }
+
+    @Benchmark
+    public long count() throws IOException {
+        return this.reader.count(this.query, this.params);
+    }
+
+    @Benchmark
+    public boolean exists() throws IOException {
+        return this.reader.exists(this.query, this.params);
+    }
+
+    @Benchmark
+    public Aggregation aggregate() throws IOException {
+        return this.reader.aggregate(this.query, this.params, Arrays.asList(Facet.CRITERION, Facet.PREDICTION), 10);
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.benchmark;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import pt.ua.dicoogle.classdb.database.struct.DatabaseItem;
+import pt.ua.dicoogle.classdb.database.util.StreamUtil;
+
+/** Comparison of the grouping operators in {@link StreamUtil}, over predictions ordered by descending score
+ * (as in a search) or by key.
+ *
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class StreamUtilBenchmark {
+
+    /** Number of predictions. */
+    @Param({"10000", "1000000"})
+    public int size;
+
+    /** A small serializable prediction, so that all variants (including spilling) can be compared. */
+    static final class Prediction implements Serializable {
+        final String key;
+        final String predictedClass;
+        final double score;
+
+        Prediction(DatabaseItem item) {
+            this.key = item.item() + "|" + item.criterion();
+            this.predictedClass = item.predictedClass();
+            this.score = item.score();
+        }
+    }
+
+    private static final Comparator<Prediction> BEST_FIRST = Comparator.comparingDouble((Prediction p) -> p.score).reversed();
+
+    private List<Prediction> byScore;
+    private List<Prediction> byKey;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<Prediction> l = new ArrayList<>(this.size);
+        for (long i = 0; i < this.size; i++) {
+            l.add(new Prediction(SyntheticData.item(i)));
+        }
+        this.byKey = new ArrayList<>(l);
+        this.byKey.sort(Comparator.comparing((Prediction p) -> p.key));
+        this.byScore = l;
+        this.byScore.sort(BEST_FIRST);
+    }
+
+    @Benchmark
+    public void orderedGroupBy(Blackhole bh) {
+        StreamUtil.orderedGroupBy(this.byScore.stream(), p -> p.key).forEach(bh::consume);
+    }
+
+    @Benchmark
+    public void firstOf(Blackhole bh) {
+        StreamUtil.firstOf(this.byScore.stream(), p -> p.key).forEach(bh::consume);
+    }
+
+    @Benchmark
+    public void firstOfStreaming(Blackhole bh) {
+        StreamUtil.firstOfStreaming(this.byScore.stream(), p -> p.key).forEach(bh::consume);
+    }
+
+    @Benchmark
+    public void firstOfSorted(Blackhole bh) {
+        StreamUtil.firstOfSorted(this.byKey.stream(), p -> p.key).forEach(bh::consume);
+    }
+
+    @Benchmark
+    public void bestOf(Blackhole bh) {
+        StreamUtil.bestOf(this.byScore.stream(), p -> p.key, BEST_FIRST).forEach(bh::consume);
+    }
+
+    @Benchmark
+    public void bestOfStreaming(Blackhole bh) {
+        StreamUtil.bestOfStreaming(this.byScore.stream(), p -> p.key, BEST_FIRST).forEach(bh::consume);
+    }
+
+    @Benchmark
+    public void bestOfSorted(Blackhole bh) {
+        StreamUtil.bestOfSorted(this.byKey.stream(), p -> p.key, BEST_FIRST).forEach(bh::consume);
+    }
+
+    @Benchmark
+    public void bestOfExternal(Blackhole bh) {
+        StreamUtil.bestOfExternal(this.byScore.stream(), p -> p.key, BEST_FIRST, 100000).forEach(bh::consume);
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.benchmark;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import pt.ua.dicoogle.classdb.database.DatabaseWriter;
+import pt.ua.dicoogle.classdb.database.lucene.LuceneDatabase;
+import pt.ua.dicoogle.classdb.database.struct.DatabaseItem;
+import pt.ua.dicoogle.classdb.database.struct.DatabaseItemImpl;
+
+/** Deterministic synthetic classification data for the benchmarks.
+ *
+ * Predictions come in pairs (true and false) for each item and criterion, with complementary scores.
+ * Each item is classified by one of a few classifiers for all criteria.
+ *
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public final class SyntheticData {
+    private SyntheticData() {}
+
+    public static final String[] CLASSIFIERS = {"convnet", "svm", "forest", "knn"};
+    public static final String[] CRITERIA = {"liver", "aorta", "pancreas", "kidney", "spleen"};
+
+    /** Obtain the i-th synthetic prediction.
+     *
+     * @param i the prediction index
+     * @return a database item
+     */
+    public static DatabaseItem item(long i) {
+        long pair = i / 2;
+        long itemId = pair / CRITERIA.length;
+        String criterion = CRITERIA[(int) (pair % CRITERIA.length)];
+        String classifier = CLASSIFIERS[(int) (itemId % CLASSIFIERS.length)];
+        double p = score(pair);
+        String uri = "file:/dataset/" + (itemId / 1000) + "/" + itemId + ".dcm";
+        if (i % 2 == 0) {
+            return new DatabaseItemImpl(uri, classifier, criterion, "true", p);
+        }
+        return new DatabaseItemImpl(uri, classifier, criterion, "false", 1 - p);
+    }
+
+    /** A uniformly distributed pseudo-random score in [0, 1[, based on the given seed. */
+    static double score(long seed) {
+        long z = seed + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+        return (z >>> 11) * 0x1.0p-53;
+    }
+
+    /** Obtain the directory of a synthetic index with the given number of predictions,
+     * building it if it does not exist yet. Indexes are kept in "target" so that
+     * they can be reused across benchmark runs and forks.
+     *
+     * @param size the number of predictions
+     * @return the index directory
+     * @throws IOException
+     */
+    public static synchronized Path index(long size) throws IOException {
+        Path dir = Paths.get("target", "jmh-index-" + size);
+        Path marker = dir.resolve("complete");
+        if (Files.exists(marker)) {
+            return dir;
+        }
+        if (Files.exists(dir)) {
+            delete(dir);
+        }
+        Files.createDirectories(dir);
+        try (LuceneDatabase db = new LuceneDatabase(dir);
+             DatabaseWriter writer = db.createWriter()) {
+            for (long i = 0; i < size; i++) {
+                writer.add(item(i));
+            }
+        }
+        Files.createFile(marker);
+        return dir;
+    }
+
+    public static void delete(Path dir) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path d, IOException e) throws IOException {
+                if (e != null) {
+                    throw e;
+                }
+                Files.delete(d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pt.ua.dicoogle.classdb.database.DatabaseWriter;
+import pt.ua.dicoogle.classdb.database.lucene.IndexConfig;
+import pt.ua.dicoogle.classdb.database.lucene.IndexConfigBuilder;
+import pt.ua.dicoogle.classdb.database.lucene.LuceneDatabase;
+
+/** Throughput of adding predictions to a Lucene database.
+ *
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class WriterBenchmark {
+
+    @Param({"16"})
+    public double ramBufferMB;
+
+    @Param({"tiered"})
+    public String mergePolicy;
+
+    @Param({"-1"})
+    public int mergeThreads;
+
+    @Param({"auto"})
+    public String directory;
+
+    private Path dir;
+    private LuceneDatabase db;
+    private DatabaseWriter writer;
+    private long counter;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.dir = Files.createTempDirectory("class-db-jmh");
+        IndexConfig config = new IndexConfigBuilder()
+                .setDirectoryType(IndexConfig.DirectoryType.fromName(this.directory))
+                .setRamBufferMB(this.ramBufferMB)
+                .setMergePolicy(IndexConfig.MergePolicyType.fromName(this.mergePolicy))
+                .setMergeThreads(this.mergeThreads)
+                .build();
+        this.db = new LuceneDatabase(this.dir, config);
+        this.writer = this.db.createWriter();
+        this.counter = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        this.writer.close();
+        this.db.close();
+        SyntheticData.delete(this.dir);
+    }
+
+    @Benchmark
+    public DatabaseWriter add() throws IOException {
+        return this.writer.add(SyntheticData.item(this.counter++));
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/** A log of the classification endpoints skipped while indexing because their classifier was
+ * unavailable, kept in a file next to the index. Each line holds the item's URI and the endpoint,
+ * separated by a tab. The items can then be classified again once the classifier is back.
+ *
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public class CatchUpLog {
+
+    /** The items logged up to some point in time. */
+    public static class Snapshot {
+        private final List<URI> items;
+        private final long length;
+
+        Snapshot(List<URI> items, long length) {
+            this.items = items;
+            this.length = length;
+        }
+
+        /** @return the distinct items with skipped endpoints */
+        public List<URI> getItems() {
+            return this.items;
+        }
+    }
+
+    private final Path file;
+
+    public CatchUpLog(Path file) {
+        this.file = file;
+    }
+
+    public Path getFile() {
+        return this.file;
+    }
+
+    /** Record that an endpoint was skipped for an item.
+     *
+     * @param item the item's URI
+     * @param classifierName the endpoint's classifier
+     * @param criterion the endpoint's criterion
+     * @throws IOException on failure to write the log
+     */
+    public synchronized void record(URI item, String classifierName, String criterion) throws IOException {
+        try (Writer out = Files.newBufferedWriter(this.file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            out.write(item + "\t" + classifierName + "/" + criterion + "\n");
+        }
+    }
+
+    /** Read the items logged so far.
+     *
+     * @return a snapshot of the logged items
+     * @throws IOException on failure to read the log
+     */
+    public synchronized Snapshot snapshot() throws IOException {
+        Set<URI> items = new LinkedHashSet<>();
+        long length = 0;
+        try (BufferedReader in = Files.newBufferedReader(this.file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                length += line.getBytes(StandardCharsets.UTF_8).length + 1;
+                int sep = line.indexOf('\t');
+                if (sep > 0) {
+                    items.add(URI.create(line.substring(0, sep)));
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return new Snapshot(Collections.emptyList(), 0);
+        }
+        return new Snapshot(new ArrayList<>(items), length);
+    }
+
+    /** Remove the entries of a snapshot from the log, keeping those recorded since.
+     *
+     * @param snapshot a snapshot of this log
+     * @throws IOException on failure to rewrite the log
+     */
+    public synchronized void discard(Snapshot snapshot) throws IOException {
+        if (snapshot.length == 0) {
+            return;
+        }
+        Path tmp = this.file.resolveSibling(this.file.getFileName() + ".tmp");
+        try (FileChannel in = FileChannel.open(this.file, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = snapshot.length;
+            long size = in.size();
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+            out.force(true);
+        }
+        Files.move(tmp, this.file, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
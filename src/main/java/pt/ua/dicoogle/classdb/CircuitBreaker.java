@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/** A circuit breaker for calls to a classifier. After a number of consecutive failures, the circuit
+ * opens and calls are rejected right away for a while, so that a failing classifier does not hold
+ * back the others. Once that time has passed, a single trial call is let through: the circuit closes
+ * again if it succeeds, or stays open for another while if it fails.
+ *
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private final LongSupplier clock;
+
+    private State state = State.CLOSED;
+    private int failures = 0;
+    private long openedAt = 0;
+
+    /**
+     * @param failureThreshold the number of consecutive failures which open the circuit, or 0 to never open it
+     * @param openMs for how long the circuit stays open before a trial call, in milliseconds
+     */
+    public CircuitBreaker(int failureThreshold, long openMs) {
+        this(failureThreshold, openMs, System::nanoTime);
+    }
+
+    CircuitBreaker(int failureThreshold, long openMs, LongSupplier clock) {
+        if (failureThreshold < 0) {
+            throw new IllegalArgumentException("Failure threshold must not be negative");
+        }
+        this.failureThreshold = failureThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMs);
+        this.clock = clock;
+    }
+
+    /** Check whether a call may go through. A caller granted a call must report its outcome
+     * with {@link #onSuccess()}, {@link #onFailure()} or {@link #onAbort()}.
+     *
+     * @return whether the call may go through
+     */
+    public synchronized boolean allowRequest() {
+        switch (this.state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (this.clock.getAsLong() - this.openedAt >= this.openNanos) {
+                    this.state = State.HALF_OPEN;
+                    return true;
+                }
+                return false;
+            default:
+                // a trial call is already in flight
+                return false;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        this.state = State.CLOSED;
+        this.failures = 0;
+    }
+
+    public synchronized void onFailure() {
+        this.failures++;
+        if (this.state == State.HALF_OPEN
+                || (this.failureThreshold > 0 && this.failures >= this.failureThreshold)) {
+            this.state = State.OPEN;
+            this.openedAt = this.clock.getAsLong();
+        }
+    }
+
+    /** Report a call which ended without an outcome, such as one whose caller was interrupted.
+     * Should it be the trial call, another call may go through in its place.
+     */
+    public synchronized void onAbort() {
+        if (this.state == State.HALF_OPEN) {
+            this.state = State.OPEN;
+        }
+    }
+
+    public synchronized State getState() {
+        return this.state;
+    }
+}
@@ -20,10 +20,16 @@ package pt.ua.dicoogle.classdb;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import org.apache.commons.configuration.HierarchicalConfiguration;
 import org.restlet.resource.ServerResource;
@@ -31,7 +37,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import net.xeoh.plugins.base.annotations.PluginImplementation;
-import pt.ua.dicoogle.classdb.database.Database;
+import pt.ua.dicoogle.classdb.database.PendingDatabase;
+import pt.ua.dicoogle.classdb.database.SlowQueryLog;
+import pt.ua.dicoogle.classdb.database.lucene.IndexConfig;
+import pt.ua.dicoogle.classdb.database.lucene.IndexConfigBuilder;
 import pt.ua.dicoogle.classdb.database.lucene.LuceneDatabase;
 import pt.ua.dicoogle.classdb.ws.WebServletPlugin;
 import pt.ua.dicoogle.sdk.GraphicalInterface;
@@ -52,10 +61,16 @@ public class ClassificationDatabaseSet implements PluginSet {
 
     private static final Logger logger = LoggerFactory.getLogger(ClassificationDatabaseSet.class);
 
+    /** Default minimum duration of a slow query, in milliseconds. */
+    private static final long DEFAULT_SLOW_QUERY_THRESHOLD = 1000;
+    /** Number of slow queries kept for inspection. */
+    private static final int SLOW_QUERY_LOG_SIZE = 100;
+
     private final ClassificationIndexer indexer;
     private final QueryProvider query;
     private final WebServletPlugin ws;
-    private Database db;
+    private final SlowQueryLog slowQueries;
+    private PendingDatabase db;
 
     private ConfigurationHolder settings;
 
@@ -66,14 +81,56 @@ public class ClassificationDatabaseSet implements PluginSet {
         this.indexer = new ClassificationIndexer();
         this.query = new QueryProvider();
         this.ws = new WebServletPlugin();
-        logger.info("Classification Database is ready");
+
+        // classifiers are shared between the indexer and the web services
+        ClassifierInvoker invoker = new ClassifierInvoker();
+        this.indexer.setClassifierInvoker(invoker);
+        this.ws.setClassifierInvoker(invoker);
+        this.ws.setIndexer(this.indexer);
+
+        this.slowQueries = new SlowQueryLog(DEFAULT_SLOW_QUERY_THRESHOLD, SLOW_QUERY_LOG_SIZE);
+        this.ws.setSlowQueryLog(this.slowQueries);
     }
 
-    private void initDatabase(Path dir) throws IOException {
-        this.db = new LuceneDatabase(dir);
-        this.query.setDatabase(this.db);
-        this.indexer.setDatabase(this.db);
-        this.ws.setDatabase(this.db);
+    /** Open and warm up the database in the background. Queries and indexing tasks wait for it
+     * for a bounded time, and the web services report that it is not ready until then.
+     */
+    private void initDatabase(Path dir, IndexConfig config, List<String> warmUpQueries, boolean warmUpDocValues) {
+        PendingDatabase pending = new PendingDatabase();
+        this.db = pending;
+        this.query.setDatabase(pending);
+        this.indexer.setDatabase(pending);
+        pending.whenReady(this.ws::setDatabase);
+
+        Thread startup = new Thread(() -> {
+            long start = System.currentTimeMillis();
+            LuceneDatabase db = null;
+            try {
+                logger.info("Opening classification index at {} with {}", dir, config);
+                db = new LuceneDatabase(dir, config);
+                db.setSlowQueryLog(this.slowQueries);
+                try {
+                    db.warmUp(warmUpQueries, warmUpDocValues);
+                } catch (IOException | RuntimeException e) {
+                    // warming up is only an optimization, the index is usable without it
+                    logger.warn("Failed to warm up classification index", e);
+                }
+                pending.complete(db);
+                logger.info("Classification Database is ready ({} ms)", System.currentTimeMillis() - start);
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Failed to initialize classification database", e);
+                if (db != null) {
+                    try {
+                        db.close();
+                    } catch (IOException ex) {
+                        logger.warn("Failed to close class-db index", ex);
+                    }
+                }
+                pending.fail(e);
+            }
+        }, "class-db-startup");
+        startup.setDaemon(true);
+        startup.start();
     }
 
     @Override
@@ -108,11 +165,17 @@ public class ClassificationDatabaseSet implements PluginSet {
 
     @Override
     public void shutdown() {
-        try {
-            this.db.close();
-        } catch (IOException e) {
-            logger.warn("Failed to close class-db index", e);
+        if (this.db == null) {
+            return;
         }
+        // a database still opening is closed as soon as it is ready
+        this.db.whenReady(db -> {
+            try {
+                db.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close class-db index", e);
+            }
+        });
     }
 
     @Override
@@ -132,13 +195,92 @@ public class ClassificationDatabaseSet implements PluginSet {
         } catch (NoSuchElementException e) {
             indexPath = "class-db";
         }
+        try {
+            this.slowQueries.setThreshold(conf.getLong("slow-query-threshold"));
+        } catch (RuntimeException e) {
+            this.slowQueries.setThreshold(DEFAULT_SLOW_QUERY_THRESHOLD);
+        }
         if (this.db == null) {
+            IndexConfig indexConfig = parseIndexConfig(conf);
+            List<String> warmUpQueries = conf.getList("warm-up.query", Collections.emptyList()).stream()
+                    .map(Object::toString)
+                    .collect(Collectors.toList());
+            boolean warmUpDocValues;
             try {
-                this.initDatabase(new File(indexPath).toPath());
-            } catch (IOException e) {
-                logger.warn("Failed to initialize classification database", e);
+                warmUpDocValues = conf.getBoolean("warm-up.doc-values");
+            } catch (RuntimeException e) {
+                warmUpDocValues = true;
             }
+            Path indexDir = new File(indexPath).toPath();
+            IndexJournal journal = new IndexJournal(indexDir.resolveSibling(indexDir.getFileName() + ".journal"));
+            if (Files.notExists(indexDir)) {
+                // the files of interrupted tasks were indexed into an index which is gone
+                try {
+                    journal.clear();
+                } catch (IOException e) {
+                    logger.warn("Failed to clear indexing journal {}", journal.getFile(), e);
+                }
+            }
+            this.indexer.setJournal(journal);
+            this.indexer.setCatchUpLog(new CatchUpLog(indexDir.resolveSibling(indexDir.getFileName() + ".skipped")));
+            this.initDatabase(indexDir, indexConfig, warmUpQueries, warmUpDocValues);
+        }
+    }
+
+    /** Read and validate the index settings in the plugin configuration.
+     * Each setting is validated against the ones accepted before it, and an invalid
+     * setting is reported in the log and replaced by its own default, so that a typo
+     * in one of them does not discard the others.
+     *
+     * @param conf the plugin configuration
+     * @return the index settings, with defaults for the missing and invalid ones
+     */
+    static IndexConfig parseIndexConfig(HierarchicalConfiguration conf) {
+        List<Consumer<IndexConfigBuilder>> accepted = new ArrayList<>();
+        indexSetting(conf, accepted, "directory",
+                v -> b -> b.setDirectoryType(IndexConfig.DirectoryType.fromName(v)));
+        indexSetting(conf, accepted, "merge-policy",
+                v -> b -> b.setMergePolicy(IndexConfig.MergePolicyType.fromName(v)));
+        // the flush triggers depend on each other, the document count disables the RAM buffer by default
+        indexSetting(conf, accepted, "max-buffered-docs",
+                v -> b -> b.setMaxBufferedDocs(Integer.parseInt(v)));
+        indexSetting(conf, accepted, "ram-buffer-mb",
+                v -> b -> b.setRamBufferMB(Double.parseDouble(v)));
+        indexSetting(conf, accepted, "segments-per-tier",
+                v -> b -> b.setSegmentsPerTier(Double.parseDouble(v)));
+        indexSetting(conf, accepted, "max-merge-at-once",
+                v -> b -> b.setMaxMergeAtOnce(Integer.parseInt(v)));
+        indexSetting(conf, accepted, "max-merged-segment-mb",
+                v -> b -> b.setMaxMergedSegmentMB(Double.parseDouble(v)));
+        indexSetting(conf, accepted, "merge-factor",
+                v -> b -> b.setMergeFactor(Integer.parseInt(v)));
+        indexSetting(conf, accepted, "merge-threads",
+                v -> b -> b.setMergeThreads(Integer.parseInt(v)));
+        return buildIndexConfig(accepted);
+    }
+
+    private static void indexSetting(HierarchicalConfiguration conf, List<Consumer<IndexConfigBuilder>> accepted,
+            String name, Function<String, Consumer<IndexConfigBuilder>> setting) {
+        String value = conf.getString("index." + name, null);
+        if (value == null) {
+            return;
         }
+        try {
+            Consumer<IndexConfigBuilder> apply = setting.apply(value.trim());
+            List<Consumer<IndexConfigBuilder>> candidate = new ArrayList<>(accepted);
+            candidate.add(apply);
+            buildIndexConfig(candidate);
+            accepted.add(apply);
+        } catch (IllegalArgumentException e) {
+            logger.error("Invalid index setting `{}` = \"{}\", using its default instead: {}",
+                    name, value, e.getMessage());
+        }
+    }
+
+    private static IndexConfig buildIndexConfig(List<Consumer<IndexConfigBuilder>> settings) {
+        IndexConfigBuilder builder = new IndexConfigBuilder();
+        settings.forEach(s -> s.accept(builder));
+        return builder.build();
     }
 
     @Override
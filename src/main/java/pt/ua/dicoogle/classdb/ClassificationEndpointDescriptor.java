@@ -30,18 +30,25 @@ public class ClassificationEndpointDescriptor {
     private final String criterion;
     private final Collection<String> depends;
     private final boolean binary;
+    private final String modelVersion;
 
     public ClassificationEndpointDescriptor(String classifierName, String criterion, Collection<String> dependencies) {
         this(classifierName, criterion, dependencies, false);
     }
 
     public ClassificationEndpointDescriptor(String classifierName, String criterion, Collection<String> dependencies, boolean binary) {
+        this(classifierName, criterion, dependencies, binary, null);
+    }
+
+    public ClassificationEndpointDescriptor(String classifierName, String criterion, Collection<String> dependencies,
+                                            boolean binary, String modelVersion) {
         Objects.requireNonNull(classifierName);
         Objects.requireNonNull(criterion);
         this.classifierName = classifierName;
         this.criterion = criterion;
         this.depends = dependencies;
         this.binary = binary;
+        this.modelVersion = modelVersion;
     }
 
     public String getClassifierName() {
@@ -56,6 +63,11 @@ public class ClassificationEndpointDescriptor {
         return binary;
     }
 
+    /** @return the version of the classifier model, or null if the classifier is not versioned */
+    public String getModelVersion() {
+        return modelVersion;
+    }
+
     public Collection<String> getDependencies() {
         return this.depends;
     }
@@ -72,12 +84,13 @@ public class ClassificationEndpointDescriptor {
         return binary == that.binary &&
                 Objects.equals(classifierName, that.classifierName) &&
                 Objects.equals(criterion, that.criterion) &&
-                Objects.equals(depends, that.depends);
+                Objects.equals(depends, that.depends) &&
+                Objects.equals(modelVersion, that.modelVersion);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(classifierName, criterion, depends, binary);
+        return Objects.hash(classifierName, criterion, depends, binary, modelVersion);
     }
 
     @Override
@@ -87,6 +100,7 @@ public class ClassificationEndpointDescriptor {
                 ", criterion='" + criterion + '\'' +
                 ", depends=" + depends +
                 ", binary=" + binary +
+                ", modelVersion=" + modelVersion +
                 '}';
     }
 }
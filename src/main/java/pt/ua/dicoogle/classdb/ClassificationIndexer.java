@@ -24,12 +24,16 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
-import java.util.stream.StreamSupport;
 
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.HierarchicalConfiguration;
@@ -38,9 +42,17 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import pt.ua.dicoogle.classdb.database.Database;
+import pt.ua.dicoogle.classdb.database.DatabaseReader;
 import pt.ua.dicoogle.classdb.database.DatabaseWriter;
+import pt.ua.dicoogle.classdb.database.PendingDatabase;
 import pt.ua.dicoogle.classdb.database.struct.DatabaseItem;
 import pt.ua.dicoogle.classdb.database.util.LazyDictionary;
+import pt.ua.dicoogle.classdb.database.util.Pipeline;
+import pt.ua.dicoogle.classdb.events.ClassifyEvent;
+import pt.ua.dicoogle.classdb.events.FlightEvents;
+import pt.ua.dicoogle.classdb.metrics.Counter;
+import pt.ua.dicoogle.classdb.metrics.Histogram;
+import pt.ua.dicoogle.classdb.metrics.Metrics;
 import pt.ua.dicoogle.classification.api.ClassifierDescriptor;
 import pt.ua.dicoogle.classification.api.PredictionIdentifier;
 import pt.ua.dicoogle.sdk.IndexerInterface;
@@ -64,57 +76,621 @@ public class ClassificationIndexer implements IndexerInterface, PlatformCommunic
 
     private static final Logger logger = LoggerFactory.getLogger(ClassificationIndexer.class);
 
+    /** Default time (in seconds) before looking up an unknown classifier again. */
+    private static final long DEFAULT_UNKNOWN_CLASSIFIER_TTL = 60;
+    /** Default time (in milliseconds) that indexing tasks wait for the database to open. */
+    private static final long DEFAULT_READY_TIMEOUT = 600_000;
+    /** Default maximum duration of a classifier call, in milliseconds. */
+    private static final long DEFAULT_CLASSIFIER_TIMEOUT = 300_000;
+    /** Default capacity of the queues between the stages of indexing tasks, in groups of files. */
+    private static final int DEFAULT_PIPELINE_QUEUE_SIZE = 16;
+    /** Default time to wait for more files to fill a batch, in milliseconds. */
+    private static final long DEFAULT_BATCH_WAIT = 1000;
+    /** Time between progress reports of indexing tasks, in milliseconds. */
+    private static final long PROGRESS_REPORT_INTERVAL_MS = 60_000;
+    /** Default number of files between checkpoints of bulk indexing tasks. */
+    private static final int DEFAULT_CHECKPOINT_INTERVAL = 1000;
+    /** Default number of items reclassified at the same time. */
+    private static final int DEFAULT_RECLASSIFY_THREADS = 1;
+
+    private static final Histogram FILE_LATENCY = Metrics.getDefault().histogram("classdb_index_file_seconds",
+            "Time to classify and index a file with all classification endpoints");
+    private static final Counter SKIPPED_ENDPOINTS = Metrics.getDefault().counter("classdb_index_skipped_endpoints_total",
+            "Number of classification endpoints skipped while indexing because their classifier was unavailable");
+
     private static DicooglePlatformInterface platform = null;
     private boolean enabled = true;
     private boolean estimateProgress = false;
+    private boolean incremental = false;
+    private int reclassifyThreads = DEFAULT_RECLASSIFY_THREADS;
+    private double reclassifyRate = 0;
+    private ReclassificationJob reclassification = null;
+    private volatile IndexJournal journal = null;
+    private volatile CatchUpLog catchUpLog = null;
+    private int classifyThreads = 1;
+    private int buildThreads = 1;
+    private int writeThreads = 1;
+    private int pipelineQueueSize = DEFAULT_PIPELINE_QUEUE_SIZE;
+    /** the batch size of each batched classifier, by classifier name */
+    private Map<String, Integer> batchSizes = Collections.emptyMap();
+    /** the number of files classified together, enough for the largest batch */
+    private int groupSize = 1;
+    /** for how long to wait for more files before classifying a group, in milliseconds */
+    private long groupWait = 0;
+    private int checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
     private ConfigurationHolder settings = null;
-    private Database db = null;
+    private volatile PendingDatabase db = new PendingDatabase();
+    private volatile long readyTimeout = DEFAULT_READY_TIMEOUT;
     private ClassifierDescriptor dec;
     private List<ClassificationEndpointDescriptor> classifierEndpoints = null;
-    private LazyDictionary<String, QueryInterface> classifiers = new LazyDictionary<>(name -> {
-        if (platform == null) {
-            throw new IllegalStateException("Dicoogle platform not ready!");
-        }
-        return platform.getQueryProviderByName(name, true);
-    });
+    private ClassifierInvoker invoker = new ClassifierInvoker();
+    private volatile LazyDictionary<String, QueryInterface> classifiers = createClassifierDictionary(DEFAULT_UNKNOWN_CLASSIFIER_TTL);
 
     public void setDatabase(Database db) {
+        this.db = PendingDatabase.of(db);
+    }
+
+    /** Use a database which may still be opening. Indexing tasks wait for it to be ready.
+     */
+    public void setDatabase(PendingDatabase db) {
         this.db = db;
     }
 
-    private IndexReport classifyAndIndex(StorageInputStream storage, DatabaseWriter writer) throws IOException {
-        final URI uri = storage.getURI();
-        logger.info("Classifying and indexing {} ...", uri);
+    /** Wait for the database to be ready, up to the configured timeout.
+     * @return the database, or null if it is not ready
+     */
+    private Database awaitDatabase() {
+        Database db = this.db.await(this.readyTimeout);
+        if (db == null) {
+            logger.warn("Indexer is not ready: classification database is not available");
+        }
+        return db;
+    }
 
-        final Map<URI, SearchResult> dict = new HashMap<>();
-        return this.classifierEndpoints.stream().sequential()
-                // flatten all predictions
-                .flatMap(p -> {
-                    final QueryInterface qint = this.classifiers.get(p.getClassifierName());
-                    if (qint == null) {
-                        logger.warn("No such classifier {}, providing no predictions");
-                        return Stream.empty();
-                    }
-                    Collection<SearchResult> res = new ArrayList<>();
-                    for (SearchResult rs: qint.query(p.getCriterion(), uri, dict)) {
-                        res.add(rs);
-                        URI predUri = rs.getURI();
-                        dict.put(predUri, rs);
-                    }
-                    return res.stream();
-                })
-                // ignore invalid output
-                .filter(sr -> sr.getScore() >= 0 && sr.getScore() <= 1)
-                .<IndexReport>map(res -> {
-                    final DatabaseItem dbItem = this.fromSearchResult(uri, res);
+    /** Forget all resolved classifiers, so that they are looked up again in the platform.
+     * This should be called when classifier providers are redeployed, and is done whenever
+     * a reclassification starts.
+     */
+    public void refreshClassifiers() {
+        this.classifiers.clear();
+    }
+
+    /** Obtain a classifier by name, resolving it in the platform only on first use.
+     *
+     * @param name the classifier's name
+     * @return the classifier, or null if there is no such classifier
+     */
+    public QueryInterface getClassifier(String name) {
+        return this.classifiers.get(name);
+    }
+
+    private static LazyDictionary<String, QueryInterface> createClassifierDictionary(long unknownTtl) {
+        return new LazyDictionary<>(name -> {
+            if (platform == null) {
+                throw new IllegalStateException("Dicoogle platform not ready!");
+            }
+            return platform.getQueryProviderByName(name, true);
+        }, unknownTtl, TimeUnit.SECONDS);
+    }
+
+    public void setClassifierInvoker(ClassifierInvoker invoker) {
+        this.invoker = invoker;
+    }
+
+    /** Define the classification endpoints directly, instead of through the plugin's configuration.
+     *
+     * @param endpoints the classification endpoints, in any order
+     * @throws IllegalArgumentException if the endpoints have cyclic dependencies
+     */
+    public void setClassificationEndpoints(List<ClassificationEndpointDescriptor> endpoints) {
+        List<ClassificationEndpointDescriptor> sorted = sortByDependencies(new ArrayList<>(endpoints));
+        if (sorted == null) {
+            throw new IllegalArgumentException("Cyclic dependency detected");
+        }
+        this.classifierEndpoints = sorted;
+    }
+
+    /** Define where bulk indexing tasks record their checkpoints, so that they can be resumed.
+     *
+     * @param journal the indexing journal, or null to disable checkpoints
+     */
+    public void setJournal(IndexJournal journal) {
+        this.journal = journal;
+    }
+
+    /** @param checkpointInterval the number of files between checkpoints of a bulk indexing task, 0 to disable them */
+    public void setCheckpointInterval(int checkpointInterval) {
+        this.checkpointInterval = Math.max(0, checkpointInterval);
+    }
+
+    /** Define where the endpoints skipped because their classifier was unavailable are recorded.
+     *
+     * @param catchUpLog the log of skipped endpoints, or null to only report them in the logs
+     */
+    public void setCatchUpLog(CatchUpLog catchUpLog) {
+        this.catchUpLog = catchUpLog;
+    }
+
+    /** Define which classifiers are given several files per call. The files of an indexing task are then
+     * classified in groups, as many as the largest batch, and a group is classified without waiting for
+     * more files once its first file has waited for the given time.
+     *
+     * @param batchSizes the maximum number of files per call of each batched classifier, by classifier name
+     * @param batchWait the maximum time to wait for more files, in milliseconds
+     */
+    public void setBatchSizes(Map<String, Integer> batchSizes, long batchWait) {
+        int groupSize = 1;
+        for (int batchSize : batchSizes.values()) {
+            groupSize = Math.max(groupSize, batchSize);
+        }
+        this.batchSizes = new HashMap<>(batchSizes);
+        this.groupSize = groupSize;
+        this.groupWait = groupSize > 1 ? Math.max(0, batchWait) : 0;
+    }
+
+    /** Define the parallelism of the indexing pipeline. Files are read by the indexing task's thread,
+     * then classified, turned into index documents and written by separate threads, connected by
+     * queues of bounded capacity.
+     *
+     * @param classifyThreads the number of file groups classified at the same time
+     * @param buildThreads the number of file groups whose documents are built at the same time
+     * @param writeThreads the number of file groups written to the index at the same time
+     * @param queueSize the capacity of the queue before each stage, in groups of files
+     */
+    public void setPipeline(int classifyThreads, int buildThreads, int writeThreads, int queueSize) {
+        if (classifyThreads < 1 || buildThreads < 1 || writeThreads < 1 || queueSize < 1) {
+            throw new IllegalArgumentException("Pipeline stages need at least one thread and a queue");
+        }
+        this.classifyThreads = classifyThreads;
+        this.buildThreads = buildThreads;
+        this.writeThreads = writeThreads;
+        this.pipelineQueueSize = queueSize;
+    }
+
+    /** Enable or disable incremental indexing, in which endpoints that already classified an item
+     * with the current model version are not invoked again.
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /** Start classifying again, in the background, all items holding predictions by a classifier model
+     * other than the configured one. Only outdated endpoints and the endpoints depending on them are invoked.
+     *
+     * @return the new reclassification job
+     * @throws IllegalStateException if the indexer is not ready or a reclassification is still in progress
+     */
+    public synchronized ReclassificationJob startReclassification() {
+        return this.startJob(null);
+    }
+
+    /** Start classifying again, in the background, the items for which endpoints were skipped because their
+     * classifier was unavailable. Only the endpoints without up to date predictions are invoked.
+     * The skipped endpoints are removed from the catch-up log once the job is done.
+     *
+     * @return the new catch-up job
+     * @throws IllegalStateException if the indexer is not ready or a reclassification is still in progress
+     */
+    public synchronized ReclassificationJob startCatchUp() {
+        CatchUpLog log = this.catchUpLog;
+        if (log == null) {
+            throw new IllegalStateException("Skipped endpoints are not being recorded");
+        }
+        return this.startJob(log);
+    }
+
+    private ReclassificationJob startJob(CatchUpLog log) {
+        Database db = this.db.getNow();
+        if (db == null || this.classifierEndpoints == null || platform == null) {
+            throw new IllegalStateException("Indexer is not ready");
+        }
+        if (this.reclassification != null && this.reclassification.isActive()) {
+            throw new IllegalStateException("Reclassification already in progress");
+        }
+        // new models are usually deployed by redeploying their classifiers
+        this.refreshClassifiers();
+        Map<String, String> modelVersions = new HashMap<>();
+        for (ClassificationEndpointDescriptor p : this.classifierEndpoints) {
+            if (p.getModelVersion() != null) {
+                modelVersions.put(p.getClassifierName(), p.getModelVersion());
+            }
+        }
+        ReclassificationJob job;
+        Runnable task;
+        if (log == null) {
+            job = new ReclassificationJob(db, modelVersions, this::classifyAndIndex,
+                    this.reclassifyThreads, this.reclassifyRate);
+            task = job;
+        } else {
+            CatchUpLog.Snapshot snapshot;
+            try {
+                snapshot = log.snapshot();
+            } catch (IOException ex) {
+                throw new IllegalStateException("Could not read the skipped endpoints", ex);
+            }
+            job = new ReclassificationJob(db, modelVersions, existing -> snapshot.getItems().stream(),
+                    this::classifyAndIndex, this.reclassifyThreads, this.reclassifyRate);
+            task = () -> {
+                job.run();
+                if (job.getState() == ReclassificationJob.State.DONE) {
+                    // endpoints skipped again during the catch-up were recorded anew
                     try {
-                        writer.add(dbItem);
-                        return new IndexReport2(1, 0);
-                    } catch (IOException|RuntimeException e) {
-                        logger.warn("Could not add item {}", dbItem, e);
-                        return new IndexReport2(0, 1);
+                        log.discard(snapshot);
+                    } catch (IOException ex) {
+                        logger.warn("Failed to update the log of skipped endpoints", ex);
                     }
-                }).reduce(new IndexReport2(0,0), ClassificationIndexer::merged);
+                }
+            };
+        }
+        Thread t = new Thread(task, "class-db-reclassification");
+        t.setDaemon(true);
+        t.start();
+        this.reclassification = job;
+        return job;
+    }
+
+    /** @return the last reclassification job, or null if none was started */
+    public synchronized ReclassificationJob getReclassification() {
+        return this.reclassification;
+    }
+
+    /** Open a reader of the existing predictions, if indexing is incremental.
+     * @return the reader, or null if all endpoints should be invoked
+     */
+    private DatabaseReader existingPredictions(Database db) throws IOException {
+        return this.incremental ? db.createReader() : null;
+    }
+
+    /** Classify a group of files with all endpoints and index the predictions. */
+    private IndexReport classifyAndIndex(List<StorageInputStream> files, DatabaseReader existing,
+                                         DatabaseWriter writer, IndexProfile profile) {
+        List<URI> uris = new ArrayList<>(files.size());
+        for (StorageInputStream f : files) {
+            uris.add(f.getURI());
+            logger.info("Classifying and indexing {} ...", f.getURI());
+        }
+        long t = System.nanoTime();
+        IndexReport r = this.classifyAndIndex(uris, existing, writer, profile);
+        // files of a group are done at the same time, so each takes its share of the group's time
+        long perFile = (System.nanoTime() - t) / uris.size();
+        for (int i = 0; i < uris.size(); i++) {
+            FILE_LATENCY.observe(perFile);
+            profile.fileDone(perFile);
+        }
+        return r;
+    }
+
+    /** Classify an item with all endpoints and index the predictions.
+     *
+     * @param uri the item to classify
+     * @param existing the existing predictions, for skipping the endpoints that are up to date,
+     *                 or null to invoke all endpoints
+     * @param writer the database writer
+     * @param profile the indexing profile
+     * @return the outcome of indexing the predictions
+     */
+    private IndexReport classifyAndIndex(URI uri, DatabaseReader existing, DatabaseWriter writer, IndexProfile profile) {
+        return this.classifyAndIndex(Collections.singletonList(uri), existing, writer, profile);
+    }
+
+    /** The classification of one item of a group, as the endpoints go by. */
+    private static final class ItemState {
+        final URI uri;
+        /** predictions made so far, for the endpoints depending on them */
+        final Map<URI, SearchResult> dict = new HashMap<>();
+        /** criteria classified again in this pass, whose dependents must be classified again as well */
+        final Set<String> classified = new HashSet<>();
+        /** criteria skipped because their classifier was unavailable, along with their dependents */
+        final Set<String> skipped = new HashSet<>();
+        final List<DatabaseItem> predictions = new ArrayList<>();
+        /** endpoints which answered, whose previous predictions are replaced by the new ones */
+        final List<ClassificationEndpointDescriptor> answered = new ArrayList<>();
+        boolean failed = false;
+
+        ItemState(URI uri) {
+            this.uri = uri;
+        }
+    }
+
+    /** A group of files going through the indexing pipeline. */
+    private static final class FileGroup {
+        final List<StorageInputStream> files;
+        final long start = System.nanoTime();
+        /** time spent in the stages of the pipeline, the rest being spent in queues */
+        long workNanos = 0;
+        List<ItemState> items = Collections.emptyList();
+        final List<DatabaseItem> predictions = new ArrayList<>();
+        final List<DatabaseWriter.Prepared> prepared = new ArrayList<>();
+
+        FileGroup(List<StorageInputStream> files) {
+            this.files = files;
+        }
+
+        List<URI> uris() {
+            List<URI> uris = new ArrayList<>(this.files.size());
+            for (StorageInputStream f : this.files) {
+                uris.add(f.getURI());
+            }
+            return uris;
+        }
+
+        void worked(long since) {
+            this.workNanos += System.nanoTime() - since;
+        }
+    }
+
+    /** Classify a group of items with all endpoints and index the predictions. The endpoints are
+     * invoked in dependency order, as for a single item, and classifiers with a batch size receive
+     * the items of the group which need them in as few calls as possible.
+     *
+     * @param uris the items to classify
+     * @param existing the existing predictions, for skipping the endpoints that are up to date,
+     *                 or null to invoke all endpoints
+     * @param writer the database writer
+     * @param profile the indexing profile
+     * @return the outcome of indexing the predictions
+     */
+    private IndexReport classifyAndIndex(List<URI> uris, DatabaseReader existing, DatabaseWriter writer,
+                                         IndexProfile profile) {
+        IndexReport r = new IndexReport2(0, 0);
+        for (ItemState item : this.classify(uris, existing, profile)) {
+            if (item.failed) {
+                r = merged(r, new IndexReport2(0, 1));
+            }
+            try {
+                removeReplaced(item, writer);
+            } catch (IOException|RuntimeException e) {
+                logger.warn("Could not remove the previous predictions of {}", item.uri, e);
+                r = merged(r, new IndexReport2(0, 1));
+            }
+            for (DatabaseItem dbItem : item.predictions) {
+                try {
+                    writer.add(dbItem);
+                    r = merged(r, new IndexReport2(1, 0));
+                } catch (IOException|RuntimeException e) {
+                    logger.warn("Could not add item {}", dbItem, e);
+                    r = merged(r, new IndexReport2(0, 1));
+                }
+            }
+        }
+        return r;
+    }
+
+    /** Classify a group of items with all endpoints, without indexing the predictions.
+     *
+     * @see #classifyAndIndex(List, DatabaseReader, DatabaseWriter, IndexProfile)
+     */
+    private List<ItemState> classify(List<URI> uris, DatabaseReader existing, IndexProfile profile) {
+        List<ItemState> items = new ArrayList<>(uris.size());
+        for (URI uri : uris) {
+            items.add(new ItemState(uri));
+        }
+        for (ClassificationEndpointDescriptor p : this.classifierEndpoints) {
+            final IndexProfile.EndpointStats stats = profile.endpoint(p);
+            List<ItemState> pending = new ArrayList<>(items.size());
+            for (ItemState item : items) {
+                if (!item.failed && this.needsCall(item, p, existing, stats)) {
+                    pending.add(item);
+                }
+            }
+            if (pending.isEmpty()) {
+                continue;
+            }
+            final QueryInterface qint = this.classifiers.get(p.getClassifierName());
+            if (qint == null) {
+                logger.warn("No such classifier {}, providing no predictions", p.getClassifierName());
+                for (ItemState item : pending) {
+                    this.skip(item, p, stats);
+                }
+                continue;
+            }
+            for (ItemState item : pending) {
+                item.classified.add(p.getCriterion());
+            }
+            int batchSize = this.batchSizes.getOrDefault(p.getClassifierName(), 1);
+            for (int i = 0; i < pending.size(); i += batchSize) {
+                List<ItemState> batch = pending.subList(i, Math.min(pending.size(), i + batchSize));
+                if (batch.size() == 1) {
+                    this.classify(batch.get(0), p, qint, stats);
+                } else {
+                    this.classifyBatch(batch, p, qint, stats);
+                }
+            }
+        }
+
+        return items;
+    }
+
+    /** Check whether an endpoint must be invoked for an item, skipping it otherwise. */
+    private boolean needsCall(ItemState item, ClassificationEndpointDescriptor p, DatabaseReader existing,
+                              IndexProfile.EndpointStats stats) {
+        if (existing != null && p.getDependencies().stream().noneMatch(item.classified::contains)) {
+            List<SearchResult> stored = this.upToDatePredictions(existing, item.uri, p);
+            if (stored != null) {
+                // dependents may still need these predictions
+                for (SearchResult rs : stored) {
+                    item.dict.put(rs.getURI(), rs);
+                }
+                stats.skipped();
+                return false;
+            }
+        }
+        if (p.getDependencies().stream().anyMatch(item.skipped::contains)) {
+            this.skip(item, p, stats);
+            return false;
+        }
+        return true;
+    }
+
+    /** Invoke an endpoint on a single item. */
+    private void classify(ItemState item, ClassificationEndpointDescriptor p, QueryInterface qint,
+                          IndexProfile.EndpointStats stats) {
+        // endpoints without dependencies may share the outcome of identical concurrent requests
+        List<SearchResult> res;
+        ClassifyEvent event = FlightEvents.classify();
+        long t = System.nanoTime();
+        try {
+            res = p.getDependencies().isEmpty()
+                    ? this.invoker.classify(p.getClassifierName(), qint, p.getCriterion(), item.uri)
+                    : this.invoker.classify(p.getClassifierName(), qint, p.getCriterion(), item.uri, item.dict);
+        } catch (ClassifierUnavailableException e) {
+            // keep going with the other classifiers, and catch up on this one later
+            logger.debug("Skipping {} on {}: {}", p.getCriterion(), item.uri, e.getMessage());
+            if (event != null) {
+                event.finish(p.getClassifierName(), p.getCriterion(), item.uri, 0, true);
+            }
+            this.skip(item, p, stats);
+            return;
+        } catch (RuntimeException e) {
+            stats.failed(System.nanoTime() - t);
+            if (event != null) {
+                event.finish(p.getClassifierName(), p.getCriterion(), item.uri, 0, true);
+            }
+            logger.warn("Failed to index {}", item.uri, e);
+            item.failed = true;
+            return;
+        }
+        stats.succeeded(System.nanoTime() - t);
+        if (event != null) {
+            event.finish(p.getClassifierName(), p.getCriterion(), item.uri, res.size(), false);
+        }
+        this.accept(item, p, res);
+    }
+
+    /** Invoke an endpoint on several items in a single call. Should the call fail, the items are
+     * classified one by one, so that one bad item does not fail the others. */
+    private void classifyBatch(List<ItemState> batch, ClassificationEndpointDescriptor p, QueryInterface qint,
+                               IndexProfile.EndpointStats stats) {
+        List<URI> uris = new ArrayList<>(batch.size());
+        Map<URI, Map<URI, SearchResult>> dependencies = p.getDependencies().isEmpty() ? null : new HashMap<>();
+        for (ItemState item : batch) {
+            uris.add(item.uri);
+            if (dependencies != null) {
+                dependencies.put(item.uri, item.dict);
+            }
+        }
+        Map<URI, List<SearchResult>> res;
+        long t = System.nanoTime();
+        try {
+            res = this.invoker.classifyBatch(p.getClassifierName(), qint, p.getCriterion(), uris, dependencies);
+        } catch (ClassifierUnavailableException e) {
+            logger.debug("Skipping {} on a batch of {} items: {}", p.getCriterion(), batch.size(), e.getMessage());
+            for (ItemState item : batch) {
+                this.skip(item, p, stats);
+            }
+            return;
+        } catch (RuntimeException e) {
+            stats.failed(System.nanoTime() - t);
+            logger.warn("Batch of {} items failed on {}/{}, classifying them one by one", batch.size(),
+                    p.getClassifierName(), p.getCriterion(), e);
+            for (ItemState item : batch) {
+                this.classify(item, p, qint, stats);
+            }
+            return;
+        }
+        stats.succeeded(System.nanoTime() - t);
+        for (ItemState item : batch) {
+            this.accept(item, p, res.getOrDefault(item.uri, Collections.emptyList()));
+        }
+    }
+
+    /** Take in the outcome of an endpoint on an item. */
+    private void accept(ItemState item, ClassificationEndpointDescriptor p, List<SearchResult> res) {
+        item.answered.add(p);
+        for (SearchResult rs : res) {
+            item.dict.put(rs.getURI(), rs);
+            // ignore invalid output
+            if (rs.getScore() >= 0 && rs.getScore() <= 1) {
+                item.predictions.add(this.fromSearchResult(item.uri, rs, p.getModelVersion()));
+            }
+        }
+    }
+
+    /** Remove the previous predictions of the endpoints which answered on an item, so that classes
+     * no longer predicted by a new model do not linger. Must come before writing the new predictions. */
+    private static void removeReplaced(ItemState item, DatabaseWriter writer) throws IOException {
+        for (ClassificationEndpointDescriptor p : item.answered) {
+            writer.removePredictions(item.uri, p.getClassifierName(), p.getCriterion());
+        }
+    }
+
+    /** Skip an endpoint whose classifier is unavailable, recording it for catching up later. */
+    private void skip(ItemState item, ClassificationEndpointDescriptor p, IndexProfile.EndpointStats stats) {
+        item.skipped.add(p.getCriterion());
+        stats.skipped();
+        SKIPPED_ENDPOINTS.inc();
+        CatchUpLog log = this.catchUpLog;
+        if (log == null) {
+            logger.warn("Skipped {}/{} on {}", p.getClassifierName(), p.getCriterion(), item.uri);
+            return;
+        }
+        try {
+            log.record(item.uri, p.getClassifierName(), p.getCriterion());
+        } catch (IOException ex) {
+            logger.warn("Failed to record skipped endpoint {}/{} on {}", p.getClassifierName(), p.getCriterion(),
+                    item.uri, ex);
+        }
+    }
+
+    /** Identify a bulk indexing task by the location of its files and the configured endpoints, so that
+     * a task only resumes from the checkpoint of another over the same files, classified the same way.
+     *
+     * @param first the URI of the task's first file
+     * @return the task's identifier in the journal
+     */
+    private String taskId(URI first) {
+        URI root = first.isOpaque() ? first : first.resolve(".");
+        return root + "#" + Integer.toHexString(this.classifierEndpoints.hashCode());
+    }
+
+    /** Skip the files which were indexed before a checkpoint, in the same pass as the rest of the task.
+     *
+     * @param first the first file, already taken from the iterator
+     * @param it the iterator over the other files, left after the checkpoint
+     * @return whether the files skipped match the checkpoint
+     */
+    private static boolean skipTo(StorageInputStream first, Iterator<StorageInputStream> it,
+                                  IndexJournal.Checkpoint checkpoint) {
+        if (checkpoint.getPosition() < 1) {
+            return false;
+        }
+        URI last = first.getURI();
+        for (long i = 1; i < checkpoint.getPosition(); i++) {
+            if (!it.hasNext()) {
+                return false;
+            }
+            last = it.next().getURI();
+        }
+        return checkpoint.getLastItem().equals(last.toString());
+    }
+
+    /** Put back a file taken from an iterator. */
+    private static Iterator<StorageInputStream> prepend(StorageInputStream first, Iterator<StorageInputStream> rest) {
+        return new Iterator<StorageInputStream>() {
+            private boolean taken = false;
+
+            @Override
+            public boolean hasNext() {
+                return !this.taken || rest.hasNext();
+            }
+
+            @Override
+            public StorageInputStream next() {
+                if (!this.taken) {
+                    this.taken = true;
+                    return first;
+                }
+                return rest.next();
+            }
+        };
+    }
+
+    private static void checkpoint(IndexJournal journal, String task, long position, URI lastItem) {
+        try {
+            journal.checkpoint(task, position, lastItem);
+        } catch (IOException ex) {
+            logger.warn("Failed to record checkpoint of indexing task {}", task, ex);
+        }
     }
 
     private static IndexReport merged(IndexReport r1, IndexReport r2) {
@@ -134,12 +710,17 @@ public class ClassificationIndexer implements IndexerInterface, PlatformCommunic
                     logger.warn("Indexer is not ready!");
                     return new Report();
                 }
-                Objects.requireNonNull(ClassificationIndexer.this.db);
+                Database db = ClassificationIndexer.this.awaitDatabase();
+                if (db == null) {
+                    return new Report();
+                }
                 final long currTime = System.currentTimeMillis();
 
+                IndexProfile profile = new IndexProfile();
                 IndexReport r;
-                try (DatabaseWriter writer = ClassificationIndexer.this.db.createWriter()) {
-                    r = ClassificationIndexer.this.classifyAndIndex(file, writer);
+                try (DatabaseWriter writer = profile.profiled(db.createWriter())) {
+                    r = ClassificationIndexer.this.classifyAndIndex(Collections.singletonList(file),
+                            ClassificationIndexer.this.existingPredictions(db), writer, profile);
                 } catch (Exception e) {
                     logger.warn("Failed to index {}", file.getURI(), e);
                     r = new IndexReport2(0, 1);
@@ -147,7 +728,7 @@ public class ClassificationIndexer implements IndexerInterface, PlatformCommunic
 
                 progress = 1.0f;
 
-                return new IndexReport2(r.getNIndexed(), r.getNErrors(), System.currentTimeMillis() - currTime);
+                return new ProfiledIndexReport(r.getNIndexed(), r.getNErrors(), System.currentTimeMillis() - currTime, profile);
             }
 
             @Override
@@ -161,7 +742,8 @@ public class ClassificationIndexer implements IndexerInterface, PlatformCommunic
     @Override
     public Task<Report> index(final Iterable<StorageInputStream> files, Object... args) {
         return new Task<>(new ProgressCallable<Report>() {
-            private float progress = 0.0f;
+            private volatile ProgressEstimator estimator = null;
+            private volatile boolean finished = false;
 
             @Override
             public Report call() throws Exception {
@@ -169,55 +751,227 @@ public class ClassificationIndexer implements IndexerInterface, PlatformCommunic
                     logger.warn("Indexer is not ready!");
                     return new Report();
                 }
-                Objects.requireNonNull(ClassificationIndexer.this.db);
+                Database db = ClassificationIndexer.this.awaitDatabase();
+                if (db == null) {
+                    return new Report();
+                }
                 final long currTime = System.currentTimeMillis();
 
-                Iterable<StorageInputStream> allFiles;
-                float part = 0;
-
+                final ProgressEstimator estimator = new ProgressEstimator();
                 if (ClassificationIndexer.this.estimateProgress) {
-                    allFiles = StreamSupport.stream(files.spliterator(), false)
-                            .collect(Collectors.toList());
-                    part = 1.f / ((List)allFiles).size();
-                } else {
-                    allFiles = files;
-                    this.progress = -1;
+                    estimator.setTotal(knownSize(files));
+                    this.estimator = estimator;
+                }
+                return this.indexFiles(db, estimator, currTime);
+            }
+
+            private Report indexFiles(Database db, ProgressEstimator estimator, long currTime) throws Exception {
+                final Iterable<StorageInputStream> allFiles = files;
+                // resume from the last checkpoint of the same task, if any
+                final IndexJournal journal = ClassificationIndexer.this.journal;
+                final int checkpointInterval = ClassificationIndexer.this.checkpointInterval;
+                Iterator<StorageInputStream> it = allFiles.iterator();
+                String task = null;
+                long position = 0;
+                if (journal != null && checkpointInterval > 0 && it.hasNext()) {
+                    StorageInputStream first = it.next();
+                    task = ClassificationIndexer.this.taskId(first.getURI());
+                    IndexJournal.Checkpoint checkpoint = journal.get(task);
+                    if (checkpoint == null) {
+                        it = prepend(first, it);
+                    } else if (skipTo(first, it, checkpoint)) {
+                        logger.info("Resuming indexing task {} after file {}", task, checkpoint);
+                        position = checkpoint.getPosition();
+                        estimator.skip(position);
+                    } else {
+                        // only then are the files iterated through again
+                        logger.warn("Files of indexing task {} changed since checkpoint {}, starting over",
+                                task, checkpoint);
+                        it = allFiles.iterator();
+                    }
                 }
-                IndexReport r = new IndexReport2();
-                try (DatabaseWriter writer = ClassificationIndexer.this.db.createWriter()) {
-                    for (StorageInputStream f : allFiles) {
-                        try {
-                            r = merged(r, ClassificationIndexer.this.classifyAndIndex(f, writer));
-                            if (ClassificationIndexer.this.estimateProgress) {
-                                progress += part;
+
+                IndexProfile profile = new IndexProfile();
+                LongAdder nIndexed = new LongAdder();
+                LongAdder nErrors = new LongAdder();
+                // once a group failed, the journal must not get past it
+                AtomicBoolean groupFailed = new AtomicBoolean();
+                DatabaseReader existing = ClassificationIndexer.this.existingPredictions(db);
+                AtomicReference<DatabaseWriter> writer = new AtomicReference<>(profile.profiled(db.createWriter()));
+                // read -> classify -> build documents -> write, each stage on its own threads
+                Pipeline<FileGroup> pipeline = Pipeline
+                        .<FileGroup>builder("class-db-index", ClassificationIndexer.this.pipelineQueueSize)
+                        .stage("classify", ClassificationIndexer.this.classifyThreads, g -> {
+                            long t = System.nanoTime();
+                            try {
+                                g.items = ClassificationIndexer.this.classify(g.uris(), existing, profile);
+                            } catch (RuntimeException ex) {
+                                logger.warn("Failed to index {} files from {}", g.files.size(),
+                                        g.files.get(0).getURI(), ex);
+                                nErrors.add(g.files.size());
+                                groupFailed.set(true);
+                            }
+                            g.worked(t);
+                            return g;
+                        })
+                        .stage("build", ClassificationIndexer.this.buildThreads, g -> {
+                            long t = System.nanoTime();
+                            for (ItemState item : g.items) {
+                                if (item.failed) {
+                                    nErrors.increment();
+                                }
+                                for (DatabaseItem dbItem : item.predictions) {
+                                    try {
+                                        g.prepared.add(writer.get().prepare(dbItem));
+                                        g.predictions.add(dbItem);
+                                    } catch (IOException|RuntimeException e) {
+                                        logger.warn("Could not add item {}", dbItem, e);
+                                        nErrors.increment();
+                                    }
+                                }
+                            }
+                            g.worked(t);
+                            return g;
+                        })
+                        .sink("write", ClassificationIndexer.this.writeThreads, g -> {
+                            long t = System.nanoTime();
+                            for (ItemState item : g.items) {
+                                try {
+                                    removeReplaced(item, writer.get());
+                                } catch (IOException|RuntimeException e) {
+                                    logger.warn("Could not remove the previous predictions of {}", item.uri, e);
+                                    nErrors.increment();
+                                }
+                            }
+                            for (int i = 0; i < g.prepared.size(); i++) {
+                                try {
+                                    g.prepared.get(i).write();
+                                    nIndexed.increment();
+                                } catch (IOException|RuntimeException e) {
+                                    logger.warn("Could not add item {}", g.predictions.get(i), e);
+                                    nErrors.increment();
+                                }
+                            }
+                            g.worked(t);
+                            // files of a group are done at the same time, so each takes its share of the group's time
+                            long perFile = (System.nanoTime() - g.start) / g.files.size();
+                            long queuedPerFile = Math.max(0, perFile - g.workNanos / g.files.size());
+                            for (int i = 0; i < g.files.size(); i++) {
+                                FILE_LATENCY.observe(perFile);
+                                profile.fileDone(perFile, queuedPerFile);
+                                estimator.advance();
+                            }
+                        });
+                // files are classified in groups, so that batched classifiers get several files per call
+                final int groupSize = ClassificationIndexer.this.groupSize;
+                final long groupWaitNanos = TimeUnit.MILLISECONDS.toNanos(ClassificationIndexer.this.groupWait);
+                List<StorageInputStream> group = new ArrayList<>(groupSize);
+                long groupStart = 0;
+                long lastCheckpoint = position;
+                long lastReport = System.currentTimeMillis();
+                try {
+                    while (it.hasNext()) {
+                        StorageInputStream f = it.next();
+                        if (group.isEmpty()) {
+                            groupStart = System.nanoTime();
+                        }
+                        group.add(f);
+                        if (group.size() < groupSize && it.hasNext()
+                                && System.nanoTime() - groupStart < groupWaitNanos) {
+                            continue;
+                        }
+                        for (StorageInputStream file : group) {
+                            logger.info("Classifying and indexing {} ...", file.getURI());
+                        }
+                        // waits while the pipeline is full
+                        pipeline.submit(new FileGroup(group));
+                        position += group.size();
+                        group = new ArrayList<>(groupSize);
+                        if (System.currentTimeMillis() - lastReport >= PROGRESS_REPORT_INTERVAL_MS) {
+                            lastReport = System.currentTimeMillis();
+                            logger.info("Indexing progress: {}; pipeline: {}", estimator, pipeline);
+                        }
+                        if (task != null && position - lastCheckpoint >= checkpointInterval) {
+                            // write everything read so far and commit, so that the journal never gets ahead of the index
+                            pipeline.drain();
+                            writer.get().close();
+                            writer.set(profile.profiled(db.createWriter()));
+                            if (!db.defersCommits() && !groupFailed.get()) {
+                                checkpoint(journal, task, position, f.getURI());
                             }
-                        } catch (RuntimeException ex) {
-                            logger.warn("Failed to index {}", f.getURI(), ex);
+                            lastCheckpoint = position;
                         }
                     }
+                    if (estimator.getTotal() < 0) {
+                        // all files were read, only those in the pipeline are left
+                        estimator.setTotal(position);
+                    }
+                    pipeline.drain();
+                } finally {
+                    pipeline.close();
+                    profile.pipelineDone(pipeline.stats());
+                    writer.get().close();
+                }
+                if (task != null && groupFailed.get()) {
+                    logger.warn("Indexing task {} had failed files, resuming it will index them again", task);
+                } else if (task != null) {
+                    try {
+                        journal.finish(task);
+                    } catch (IOException ex) {
+                        logger.warn("Failed to update indexing journal", ex);
+                    }
                 }
 
-                progress = 1.0f;
+                this.finished = true;
 
-                return new IndexReport2(r.getNIndexed(), r.getNErrors(), System.currentTimeMillis() - currTime);
+                logger.info("Indexing task finished: {}, profile:\n{}", estimator, profile);
+                return new ProfiledIndexReport(nIndexed.intValue(), nErrors.intValue(), System.currentTimeMillis() - currTime,
+                        profile);
             }
 
             @Override
             public float getProgress() {
-                return progress;
+                if (this.finished) {
+                    return 1.0f;
+                }
+                ProgressEstimator estimator = this.estimator;
+                return estimator != null ? estimator.getProgress() : -1;
             }
         });
 
     }
 
+    /** Obtain the number of files of an indexing task, if the files tell it without being iterated.
+     * This is the case of collections and of iterables with a sized spliterator of their own. Other
+     * iterables, such as lazy walks through a storage, are not counted ahead: they may not be iterated
+     * through twice, or not from two threads at once, and doing so would double the reads. Their progress
+     * is then indeterminate until all files were read, and they are counted as indexing goes.
+     *
+     * @return the number of files, or -1 if unknown
+     */
+    private static long knownSize(Iterable<StorageInputStream> files) {
+        if (files instanceof Collection) {
+            return ((Collection<?>) files).size();
+        }
+        try {
+            // the default spliterator would start iterating through the files
+            if (files.getClass().getMethod("spliterator").getDeclaringClass() == Iterable.class) {
+                return -1;
+            }
+        } catch (NoSuchMethodException ex) {
+            return -1;
+        }
+        return files.spliterator().getExactSizeIfKnown();
+    }
+
     @Override
     public boolean unindex(URI uri) {
-        if (ClassificationIndexer.this.db == null) {
-            logger.warn("Indexer is not ready!");
+        Database db = this.awaitDatabase();
+        if (db == null) {
             return false;
         }
         try {
-            return this.db.remove(uri);
+            return db.remove(uri);
         } catch (IOException e) {
             logger.warn("Failed to unindex \"{}\"", e);
             return false;
@@ -265,6 +1019,69 @@ public class ClassificationIndexer implements IndexerInterface, PlatformCommunic
             conf.setProperty("estimate-progress", false);
         }
 
+        try {
+            this.checkpointInterval = conf.getInt("checkpoint-interval");
+        } catch (RuntimeException ex) {
+            this.checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+        }
+        this.setPipeline(
+                Math.max(1, conf.getInt("pipeline.classify-threads", 1)),
+                Math.max(1, conf.getInt("pipeline.build-threads", 1)),
+                Math.max(1, conf.getInt("pipeline.write-threads", 1)),
+                Math.max(1, conf.getInt("pipeline.queue-size", DEFAULT_PIPELINE_QUEUE_SIZE)));
+        try {
+            this.reclassifyThreads = Math.max(1, conf.getInt("reclassify.threads"));
+        } catch (RuntimeException ex) {
+            this.reclassifyThreads = DEFAULT_RECLASSIFY_THREADS;
+        }
+        try {
+            this.reclassifyRate = conf.getDouble("reclassify.rate");
+        } catch (RuntimeException ex) {
+            this.reclassifyRate = 0;
+        }
+
+        try {
+            this.incremental = conf.getBoolean("incremental");
+        } catch (RuntimeException ex) {
+            this.incremental = false;
+            conf.setProperty("incremental", false);
+        }
+
+        long classifierTimeout;
+        try {
+            classifierTimeout = conf.getLong("classifier-timeout");
+        } catch (RuntimeException ex) {
+            classifierTimeout = DEFAULT_CLASSIFIER_TIMEOUT;
+        }
+        int circuitFailures;
+        try {
+            circuitFailures = conf.getInt("circuit-breaker.failures");
+        } catch (RuntimeException ex) {
+            circuitFailures = ClassifierInvoker.DEFAULT_CIRCUIT_FAILURES;
+        }
+        long circuitOpenTime;
+        try {
+            circuitOpenTime = conf.getLong("circuit-breaker.open-time");
+        } catch (RuntimeException ex) {
+            circuitOpenTime = ClassifierInvoker.DEFAULT_CIRCUIT_OPEN_MS;
+        }
+
+        long unknownClassifierTtl;
+        try {
+            unknownClassifierTtl = conf.getLong("unknown-classifier-ttl");
+        } catch (RuntimeException ex) {
+            unknownClassifierTtl = DEFAULT_UNKNOWN_CLASSIFIER_TTL;
+            conf.setProperty("unknown-classifier-ttl", DEFAULT_UNKNOWN_CLASSIFIER_TTL);
+        }
+        try {
+            this.readyTimeout = conf.getLong("ready-timeout");
+        } catch (RuntimeException ex) {
+            this.readyTimeout = DEFAULT_READY_TIMEOUT;
+        }
+
+        // also drops all previously resolved classifiers
+        this.classifiers = createClassifierDictionary(unknownClassifierTtl);
+
         try {
             conf.configurationAt("classifiers");
         } catch (RuntimeException ex) {
@@ -273,9 +1090,32 @@ public class ClassificationIndexer implements IndexerInterface, PlatformCommunic
 
         Collection<HierarchicalConfiguration> cClassifiers = conf.configurationsAt("classifiers(0).classifier");
 
+        Map<String, ClassifierInvoker.CallPolicy> policies = new HashMap<>();
+        Map<String, Integer> batchSizes = new HashMap<>();
+        long batchWait = Long.MAX_VALUE;
+        for (HierarchicalConfiguration elem : cClassifiers) {
+            int batchSize = elem.getInt("[@batch-size]", 1);
+            if (batchSize > 1) {
+                batchSizes.put(elem.getString("[@name]"), batchSize);
+                batchWait = Math.min(batchWait, elem.getLong("[@batch-wait]", DEFAULT_BATCH_WAIT));
+            }
+            long timeout = elem.getLong("[@timeout]", classifierTimeout);
+            long hedgeAfter = elem.getLong("[@hedge-after]", 0);
+            try {
+                policies.put(elem.getString("[@name]"), new ClassifierInvoker.CallPolicy(timeout, hedgeAfter));
+            } catch (IllegalArgumentException ex) {
+                logger.warn("Invalid call policy of classifier {}, using the default", elem.getString("[@name]"));
+            }
+        }
+        this.setBatchSizes(batchSizes, batchWait);
+        this.invoker.configure(new ClassifierInvoker.CallPolicy(Math.max(0, classifierTimeout), 0), policies,
+                Math.max(0, circuitFailures), circuitOpenTime);
+
         List<ClassificationEndpointDescriptor> descriptors = cClassifiers.stream()
                 .flatMap(elem -> {
                     String classifierName = elem.getString("[@name]");
+                    String version = elem.getString("[@version]", null);
+                    final String modelVersion = version == null || version.isEmpty() ? null : version;
                     logger.debug("registering classifier {} for indexation", classifierName);
                     return elem.configurationsAt("criterion").stream()
                             .map(c -> {
@@ -284,7 +1124,8 @@ public class ClassificationIndexer implements IndexerInterface, PlatformCommunic
                                 List<String> depends = c.getList("[@depends]", Collections.emptyList()).stream()
                                         .map(o -> o.toString())
                                         .collect(Collectors.toList());
-                                return new ClassificationEndpointDescriptor(classifierName, criterion, depends, binary);
+                                return new ClassificationEndpointDescriptor(classifierName, criterion, depends, binary,
+                                        modelVersion);
                             });
                     }
                 ).collect(Collectors.toList());
@@ -323,10 +1164,37 @@ public class ClassificationIndexer implements IndexerInterface, PlatformCommunic
     }
 
     protected DatabaseItem fromSearchResult(URI uri, SearchResult result) {
+        return this.fromSearchResult(uri, result, null);
+    }
+
+    protected DatabaseItem fromSearchResult(URI uri, SearchResult result, String modelVersion) {
         assert uri != null;
         assert result != null;
         PredictionIdentifier pred = PredictionIdentifier.decompose(result.getURI());
-        return DatabaseItem.of(uri, pred, result.getScore());
+        return DatabaseItem.of(uri, pred, result.getScore(), modelVersion);
+    }
+
+    /** Obtain the stored predictions of an item by an endpoint, if they were made by the endpoint's
+     * current model version. The predictions are only retrieved if other endpoints depend on them.
+     *
+     * @return the stored predictions, or null if the endpoint has to classify the item
+     */
+    private List<SearchResult> upToDatePredictions(DatabaseReader existing, URI uri, ClassificationEndpointDescriptor p) {
+        try {
+            if (!existing.isClassified(uri, p.getClassifierName(), p.getCriterion(), p.getModelVersion())) {
+                return null;
+            }
+            if (this.classifierEndpoints.stream().noneMatch(d -> d.dependsOn(p.getCriterion()))) {
+                return Collections.emptyList();
+            }
+            return existing.predictionsOf(uri, p.getClassifierName(), p.getCriterion())
+                    .map(item -> new SearchResult(item.predictionIdentifier().toURI(), item.score(), new HashMap<>()))
+                    .collect(Collectors.toList());
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Failed to look up the predictions of {} by {}/{}", uri, p.getClassifierName(),
+                    p.getCriterion(), e);
+            return null;
+        }
     }
 
     public static List<ClassificationEndpointDescriptor> sortByDependencies(List<ClassificationEndpointDescriptor> descriptors) {
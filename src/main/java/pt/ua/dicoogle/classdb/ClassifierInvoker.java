@@ -0,0 +1,396 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import pt.ua.dicoogle.classdb.database.util.SingleFlight;
+import pt.ua.dicoogle.classdb.metrics.Histogram;
+import pt.ua.dicoogle.classdb.metrics.Metrics;
+import pt.ua.dicoogle.sdk.QueryInterface;
+import pt.ua.dicoogle.sdk.datastructs.SearchResult;
+
+/** Invokes classifiers (query providers compliant with the Dicoogle Classification API) on behalf
+ * of the indexer and the web services. Identical classification requests in flight at the
+ * same time are coalesced into a single classifier invocation.
+ *
+ * <p>Each classifier has a {@link CallPolicy}: calls which take longer than its timeout are abandoned,
+ * and calls to idempotent classifiers may be hedged, by issuing a second identical call once the first
+ * one is slower than usual and taking whichever finishes first. Calls with a timeout or hedging run on
+ * a separate pool of threads, which are interrupted once their outcome is no longer needed.
+ * Each classifier also has a {@link CircuitBreaker}, which rejects calls for a while after a number of
+ * consecutive failures. Both timeouts and rejected calls fail with {@link ClassifierUnavailableException}.
+ *
+ * <p>Classifiers which accept batches are called with a list of item URIs in place of a single item,
+ * followed by the predictions each item depends on, by item URI, when the criterion has dependencies.
+ * Every result must then name the item it belongs to in its {@value #ITEM_FIELD} extra field.
+ *
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public class ClassifierInvoker {
+    private static final Logger logger = LoggerFactory.getLogger(ClassifierInvoker.class);
+
+    /** The extra field of batch classification results identifying the item classified. */
+    public static final String ITEM_FIELD = "item";
+
+    /** Default number of consecutive failures which open the circuit of a classifier. */
+    public static final int DEFAULT_CIRCUIT_FAILURES = 5;
+    /** Default time for which the circuit of a classifier stays open, in milliseconds. */
+    public static final long DEFAULT_CIRCUIT_OPEN_MS = 30_000;
+
+    /** How calls to a classifier are bounded in time. */
+    public static class CallPolicy {
+        /** No timeout and no hedging: calls run in the calling thread. */
+        public static final CallPolicy UNBOUNDED = new CallPolicy(0, 0);
+
+        private final long timeoutMs;
+        private final long hedgeAfterMs;
+
+        /**
+         * @param timeoutMs the maximum duration of a call, in milliseconds, or 0 for no limit
+         * @param hedgeAfterMs the time after which a second call is made if the first one did not finish,
+         *                     in milliseconds, or 0 to never hedge. Only suitable for idempotent classifiers.
+         */
+        public CallPolicy(long timeoutMs, long hedgeAfterMs) {
+            if (timeoutMs < 0 || hedgeAfterMs < 0) {
+                throw new IllegalArgumentException("Call timeouts must not be negative");
+            }
+            this.timeoutMs = timeoutMs;
+            this.hedgeAfterMs = hedgeAfterMs;
+        }
+
+        public long getTimeoutMs() {
+            return this.timeoutMs;
+        }
+
+        public long getHedgeAfterMs() {
+            return this.hedgeAfterMs;
+        }
+
+        /** @return whether calls under this policy are hedged */
+        public boolean isHedged() {
+            return this.hedgeAfterMs > 0 && (this.timeoutMs == 0 || this.hedgeAfterMs < this.timeoutMs);
+        }
+
+        @Override
+        public String toString() {
+            return "CallPolicy{timeout=" + this.timeoutMs + "ms, hedgeAfter=" + this.hedgeAfterMs + "ms}";
+        }
+    }
+
+    private final SingleFlight<List<String>, List<SearchResult>> inFlight = new SingleFlight<>();
+    private final ConcurrentMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private final ExecutorService calls;
+
+    private volatile CallPolicy defaultPolicy = CallPolicy.UNBOUNDED;
+    private volatile Map<String, CallPolicy> policies = Collections.emptyMap();
+    private volatile int circuitFailures = DEFAULT_CIRCUIT_FAILURES;
+    private volatile long circuitOpenMs = DEFAULT_CIRCUIT_OPEN_MS;
+
+    public ClassifierInvoker() {
+        AtomicInteger threadCount = new AtomicInteger();
+        this.calls = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "class-db-classifier-call-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** Define how calls to classifiers are bounded. This also closes all circuits.
+     *
+     * @param defaultPolicy the policy of classifiers without a specific one
+     * @param policies the policy of specific classifiers, by classifier name
+     * @param circuitFailures the number of consecutive failures which open a circuit, or 0 to never open it
+     * @param circuitOpenMs for how long a circuit stays open, in milliseconds
+     */
+    public void configure(CallPolicy defaultPolicy, Map<String, CallPolicy> policies, int circuitFailures,
+                          long circuitOpenMs) {
+        this.defaultPolicy = defaultPolicy;
+        this.policies = new HashMap<>(policies);
+        this.circuitFailures = circuitFailures;
+        this.circuitOpenMs = circuitOpenMs;
+        this.breakers.clear();
+    }
+
+    /**
+     * @param classifierName the name of the classifier
+     * @return the policy of calls to the classifier
+     */
+    public CallPolicy policyOf(String classifierName) {
+        return this.policies.getOrDefault(classifierName, this.defaultPolicy);
+    }
+
+    /**
+     * @param classifierName the name of the classifier
+     * @return the state of the classifier's circuit
+     */
+    public CircuitBreaker.State circuitState(String classifierName) {
+        CircuitBreaker breaker = this.breakers.get(classifierName);
+        return breaker != null ? breaker.getState() : CircuitBreaker.State.CLOSED;
+    }
+
+    /** Classify an item, sharing the outcome with identical concurrent requests. Items which are URIs
+     * are classified as by {@link #classify(String, QueryInterface, String, URI)}, and share their outcome
+     * with requests of that method. Other items are given to the classifier as they are.
+     *
+     * @param classifierName the name of the classifier
+     * @param classifier the classifier's query provider
+     * @param criterion the classification criterion
+     * @param item the item to classify, usually a URI
+     * @return all results of the classifier
+     */
+    public List<SearchResult> classify(String classifierName, QueryInterface classifier, String criterion, Object item) {
+        URI uri = toURI(item);
+        if (uri != null) {
+            return this.classify(classifierName, classifier, criterion, uri);
+        }
+        // never equal to the key of a URI, since the item is not one
+        return this.inFlight.execute(Arrays.asList(classifierName, criterion, item.toString()),
+                () -> this.invoke(classifierName, criterion, () -> collect(classifier.query(criterion, item))));
+    }
+
+    /** Classify an item on a criterion without dependencies, sharing the outcome with identical concurrent
+     * requests, be they from the indexer or from the web services. As with all indexer requests, the
+     * classifier receives the item's predictions so far, which here are always empty.
+     *
+     * @param classifierName the name of the classifier
+     * @param classifier the classifier's query provider
+     * @param criterion the classification criterion
+     * @param item the item to classify
+     * @return all results of the classifier
+     */
+    public List<SearchResult> classify(String classifierName, QueryInterface classifier, String criterion, URI item) {
+        return this.inFlight.execute(Arrays.asList(classifierName, criterion, item.toString()),
+                () -> this.invoke(classifierName, criterion,
+                        () -> collect(classifier.query(criterion, item, Collections.<URI, SearchResult>emptyMap()))));
+    }
+
+    /** Classify an item with the outcome of the classifications it depends on. Since the outcome may
+     * depend on these predictions, the classifier is always invoked and its outcome is not shared.
+     *
+     * @param classifierName the name of the classifier
+     * @param classifier the classifier's query provider
+     * @param criterion the classification criterion
+     * @param item the item to classify
+     * @param dependencies the predictions made so far on the item, by prediction URI
+     * @return all results of the classifier
+     */
+    public List<SearchResult> classify(String classifierName, QueryInterface classifier, String criterion, URI item,
+                                       Map<URI, SearchResult> dependencies) {
+        // the call may outlive this method when it times out, so it gets its own copy
+        Map<URI, SearchResult> deps = new HashMap<>(dependencies);
+        return this.invoke(classifierName, criterion, () -> collect(classifier.query(criterion, item, deps)));
+    }
+
+    /** Classify several items in a single call, for classifiers accepting batches.
+     *
+     * @param classifierName the name of the classifier
+     * @param classifier the classifier's query provider
+     * @param criterion the classification criterion
+     * @param items the items to classify
+     * @param dependencies the predictions made so far on each item, by item URI, or null if the criterion
+     *                     has no dependencies
+     * @return the results of the classifier, by item URI
+     */
+    public Map<URI, List<SearchResult>> classifyBatch(String classifierName, QueryInterface classifier,
+                                                      String criterion, List<URI> items,
+                                                      Map<URI, Map<URI, SearchResult>> dependencies) {
+        List<URI> batch = new ArrayList<>(items);
+        Map<URI, Map<URI, SearchResult>> deps = null;
+        if (dependencies != null) {
+            // the call may outlive this method when it times out, so it gets its own copy
+            deps = new HashMap<>();
+            for (Map.Entry<URI, Map<URI, SearchResult>> e : dependencies.entrySet()) {
+                deps.put(e.getKey(), new HashMap<>(e.getValue()));
+            }
+        }
+        final Map<URI, Map<URI, SearchResult>> batchDeps = deps;
+        List<SearchResult> results = this.invoke(classifierName, criterion, () -> collect(batchDeps == null
+                ? classifier.query(criterion, batch)
+                : classifier.query(criterion, batch, batchDeps)));
+        Set<URI> known = new HashSet<>(items);
+        Map<URI, List<SearchResult>> byItem = new HashMap<>();
+        int unknown = 0;
+        for (SearchResult rs : results) {
+            URI uri = itemOf(rs);
+            if (uri == null || !known.contains(uri)) {
+                unknown++;
+                continue;
+            }
+            byItem.computeIfAbsent(uri, k -> new ArrayList<>()).add(rs);
+        }
+        if (unknown > 0) {
+            logger.warn("Ignored {} results of {}/{} without a known {} field", unknown, classifierName, criterion,
+                    ITEM_FIELD);
+        }
+        return byItem;
+    }
+
+    /**
+     * @return the number of distinct classifications currently in progress
+     */
+    public int inFlightCount() {
+        return this.inFlight.inFlightCount();
+    }
+
+    /** Invoke a classifier and collect its results, recording the call's latency and outcome. */
+    private List<SearchResult> invoke(String classifierName, String criterion, Callable<List<SearchResult>> call) {
+        Metrics metrics = Metrics.getDefault();
+        CircuitBreaker breaker = this.breakers.computeIfAbsent(classifierName,
+                k -> new CircuitBreaker(this.circuitFailures, this.circuitOpenMs));
+        if (!breaker.allowRequest()) {
+            metrics.counter("classdb_classifier_rejected_total", "Number of classifier invocations rejected by an open circuit",
+                    "classifier", classifierName, "criterion", criterion).inc();
+            throw new ClassifierUnavailableException(classifierName, "circuit is open");
+        }
+        Histogram latency = metrics.histogram("classdb_classifier_call_seconds",
+                "Latency of classifier invocations", "classifier", classifierName, "criterion", criterion);
+        boolean succeeded = false;
+        try (Histogram.Timer t = latency.startTimer()) {
+            List<SearchResult> results = this.call(classifierName, criterion, this.policyOf(classifierName), call);
+            succeeded = true;
+            return results;
+        } finally {
+            // whatever the outcome, so that a trial call never leaves the circuit half open
+            if (succeeded) {
+                breaker.onSuccess();
+            } else if (Thread.currentThread().isInterrupted()) {
+                // the caller gave up, which says nothing about the classifier
+                breaker.onAbort();
+            } else {
+                breaker.onFailure();
+                metrics.counter("classdb_classifier_failures_total", "Number of failed classifier invocations",
+                        "classifier", classifierName, "criterion", criterion).inc();
+            }
+        }
+    }
+
+    /** Make a call under the given policy. */
+    private List<SearchResult> call(String classifierName, String criterion, CallPolicy policy,
+                                    Callable<List<SearchResult>> call) {
+        if (policy.getTimeoutMs() == 0 && !policy.isHedged()) {
+            try {
+                return call.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        CompletionService<List<SearchResult>> attempts = new ExecutorCompletionService<>(this.calls);
+        List<Future<List<SearchResult>>> started = new ArrayList<>(2);
+        long deadline = policy.getTimeoutMs() > 0
+                ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(policy.getTimeoutMs()) : Long.MAX_VALUE;
+        try {
+            started.add(attempts.submit(call));
+            Future<List<SearchResult>> done = null;
+            if (policy.isHedged()) {
+                done = attempts.poll(policy.getHedgeAfterMs(), TimeUnit.MILLISECONDS);
+                if (done == null) {
+                    Metrics.getDefault().counter("classdb_classifier_hedged_total",
+                            "Number of classifier invocations hedged with a second call",
+                            "classifier", classifierName, "criterion", criterion).inc();
+                    started.add(attempts.submit(call));
+                }
+            }
+            int failed = 0;
+            while (true) {
+                if (done == null) {
+                    done = deadline == Long.MAX_VALUE
+                            ? attempts.take()
+                            : attempts.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                }
+                if (done == null) {
+                    throw new ClassifierUnavailableException(classifierName,
+                            "timed out after " + policy.getTimeoutMs() + " ms");
+                }
+                try {
+                    return done.get();
+                } catch (ExecutionException e) {
+                    if (++failed < started.size()) {
+                        // the other attempt may still succeed
+                        done = null;
+                        continue;
+                    }
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException(cause);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ClassifierUnavailableException(classifierName, "interrupted");
+        } finally {
+            for (Future<List<SearchResult>> f : started) {
+                f.cancel(true);
+            }
+        }
+    }
+
+    private static URI itemOf(SearchResult result) {
+        return toURI(result.getExtraData() != null ? result.getExtraData().get(ITEM_FIELD) : null);
+    }
+
+    private static URI toURI(Object item) {
+        if (item == null || item instanceof URI) {
+            return (URI) item;
+        }
+        try {
+            return new URI(item.toString());
+        } catch (URISyntaxException e) {
+            return null;
+        }
+    }
+
+    private static List<SearchResult> collect(Iterable<SearchResult> results) {
+        List<SearchResult> l = new ArrayList<>();
+        for (SearchResult rs : results) {
+            l.add(rs);
+        }
+        return l;
+    }
+}
@@ -0,0 +1,39 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb;
+
+/** Thrown when a classifier could not be called in time, either because the call timed out
+ * or because its circuit breaker is open. Unlike other failures, the classification may
+ * succeed later, so the endpoint is skipped and recorded for catching up.
+ *
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public class ClassifierUnavailableException extends RuntimeException {
+
+    private final String classifierName;
+
+    public ClassifierUnavailableException(String classifierName, String message) {
+        super("Classifier " + classifierName + " unavailable: " + message);
+        this.classifierName = classifierName;
+    }
+
+    public String getClassifierName() {
+        return this.classifierName;
+    }
+}
@@ -0,0 +1,167 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** A journal of the progress of bulk indexing tasks, kept in a small file next to the index.
+ * Each task is identified by the location of its files and the endpoints it classifies them with,
+ * and its checkpoint is the number of files whose predictions were durably committed,
+ * along with the URI of the last one.
+ *
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public class IndexJournal {
+    private static final Logger logger = LoggerFactory.getLogger(IndexJournal.class);
+
+    /** The position of an indexing task. */
+    public static class Checkpoint {
+        private final long position;
+        private final String lastItem;
+
+        Checkpoint(long position, String lastItem) {
+            this.position = position;
+            this.lastItem = lastItem;
+        }
+
+        /** @return the number of files already indexed and committed */
+        public long getPosition() {
+            return this.position;
+        }
+
+        /** @return the URI of the last file indexed */
+        public String getLastItem() {
+            return this.lastItem;
+        }
+
+        @Override
+        public String toString() {
+            return this.position + " (" + this.lastItem + ")";
+        }
+    }
+
+    private final Path file;
+    private final Properties entries = new Properties();
+
+    /** Open a journal, reading its current contents if the file exists.
+     * A journal which cannot be read is logged and started over.
+     *
+     * @param file the journal's file
+     */
+    public IndexJournal(Path file) {
+        this.file = file;
+        try (InputStream in = Files.newInputStream(file)) {
+            this.entries.load(in);
+        } catch (NoSuchFileException e) {
+            // no task was interrupted
+        } catch (IOException | IllegalArgumentException e) {
+            logger.warn("Could not read indexing journal {}, starting over", file, e);
+            this.entries.clear();
+        }
+    }
+
+    public Path getFile() {
+        return this.file;
+    }
+
+    /** Obtain the checkpoint of an indexing task.
+     *
+     * @param task the task's identifier
+     * @return the last checkpoint, or null if the task has none
+     */
+    public synchronized Checkpoint get(String task) {
+        String entry = this.entries.getProperty(task);
+        if (entry == null) {
+            return null;
+        }
+        int sep = entry.indexOf(' ');
+        try {
+            return new Checkpoint(Long.parseLong(entry.substring(0, sep)), entry.substring(sep + 1));
+        } catch (RuntimeException e) {
+            logger.warn("Ignoring malformed checkpoint of task {}: {}", task, entry);
+            return null;
+        }
+    }
+
+    /** Record the position of an indexing task. This must only be called once the task's
+     * predictions up to this position are committed.
+     *
+     * @param task the task's identifier
+     * @param position the number of files indexed
+     * @param lastItem the URI of the last file indexed
+     * @throws IOException on failure to write the journal
+     */
+    public synchronized void checkpoint(String task, long position, URI lastItem) throws IOException {
+        this.entries.setProperty(task, position + " " + lastItem);
+        this.save();
+    }
+
+    /** Forget a finished indexing task.
+     *
+     * @param task the task's identifier
+     * @throws IOException on failure to write the journal
+     */
+    public synchronized void finish(String task) throws IOException {
+        if (this.entries.remove(task) != null) {
+            this.save();
+        }
+    }
+
+    /** Forget all tasks, as when the index holding their predictions is gone.
+     *
+     * @throws IOException on failure to write the journal
+     */
+    public synchronized void clear() throws IOException {
+        if (!this.entries.isEmpty()) {
+            this.entries.clear();
+            this.save();
+        }
+    }
+
+    /** Replace the journal file, so that it is never seen half written. */
+    private void save() throws IOException {
+        Path tmp = this.file.resolveSibling(this.file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream out = Channels.newOutputStream(channel);
+            this.entries.store(out, "class-db indexing checkpoints");
+            channel.force(true);
+        }
+        try {
+            Files.move(tmp, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, this.file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import pt.ua.dicoogle.classdb.database.DatabaseWriter;
+import pt.ua.dicoogle.classdb.database.struct.DatabaseItem;
+import pt.ua.dicoogle.classdb.database.util.Pipeline;
+import pt.ua.dicoogle.classdb.metrics.LatencyStats;
+
+/** A time profile of an indexing task: where the time of each file went, per classification
+ * endpoint and per write phase. Unlike the plugin-wide metrics, a profile only covers one task.
+ *
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public class IndexProfile {
+
+    private final long start = System.nanoTime();
+    private final Map<String, EndpointStats> endpoints = new LinkedHashMap<>();
+    private final LatencyStats files = new LatencyStats();
+    private final LatencyStats queueWaits = new LatencyStats();
+    private final LatencyStats adds = new LatencyStats();
+    private final LatencyStats commits = new LatencyStats();
+    private volatile List<Pipeline.StageStats> pipeline = Collections.emptyList();
+
+    /** Statistics of a classification endpoint. */
+    public static class EndpointStats {
+        private final String name;
+        private final LatencyStats calls = new LatencyStats();
+        private long skips = 0;
+        private long failures = 0;
+
+        EndpointStats(String name) {
+            this.name = name;
+        }
+
+        /** @return the endpoint's name, as classifier/criterion */
+        public String getName() {
+            return this.name;
+        }
+
+        /** @return the latency of classifier calls, successful or not */
+        public LatencyStats getCalls() {
+            return this.calls;
+        }
+
+        /** @return the number of files for which the endpoint was not invoked, because the classifier
+         * was not found or the file was already classified */
+        public synchronized long getSkips() {
+            return this.skips;
+        }
+
+        /** @return the number of failed classifier calls */
+        public synchronized long getFailures() {
+            return this.failures;
+        }
+
+        synchronized void skipped() {
+            this.skips++;
+        }
+
+        void succeeded(long nanos) {
+            this.calls.record(nanos);
+        }
+
+        void failed(long nanos) {
+            this.calls.record(nanos);
+            synchronized (this) {
+                this.failures++;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %s calls, %d skipped, %d failed", this.name, this.calls, this.getSkips(), this.getFailures());
+        }
+    }
+
+    /** Obtain the statistics of an endpoint, creating them if necessary. */
+    public synchronized EndpointStats endpoint(ClassificationEndpointDescriptor endpoint) {
+        return this.endpoints.computeIfAbsent(endpoint.getClassifierName() + '/' + endpoint.getCriterion(),
+                EndpointStats::new);
+    }
+
+    /** @return the statistics of all endpoints invoked so far, in order of first invocation */
+    public synchronized List<EndpointStats> getEndpoints() {
+        return new ArrayList<>(this.endpoints.values());
+    }
+
+    /** @return the time taken by each file, from classification to the last write */
+    public LatencyStats getFiles() {
+        return this.files;
+    }
+
+    /** @return the time each file spent waiting in the queues between pipeline stages, included in
+     * {@link #getFiles()} */
+    public LatencyStats getQueueWaits() {
+        return this.queueWaits;
+    }
+
+    /** @return the time taken by each prediction write */
+    public LatencyStats getAdds() {
+        return this.adds;
+    }
+
+    /** @return the time taken by each commit */
+    public LatencyStats getCommits() {
+        return this.commits;
+    }
+
+    /** @return the wall clock time since the profile was created, in milliseconds */
+    public double elapsedMs() {
+        return (System.nanoTime() - this.start) / 1e6;
+    }
+
+    /** @return the number of files indexed per second */
+    public double filesPerSecond() {
+        double ms = this.elapsedMs();
+        return ms <= 0 ? 0 : this.files.count() * 1000 / ms;
+    }
+
+    /** @return the occupancy of each stage of the indexing pipeline when the task finished,
+     * or an empty list if the task did not go through a pipeline */
+    public List<Pipeline.StageStats> getPipeline() {
+        return this.pipeline;
+    }
+
+    void pipelineDone(List<Pipeline.StageStats> stages) {
+        this.pipeline = stages;
+    }
+
+    void fileDone(long nanos) {
+        this.files.record(nanos);
+    }
+
+    void fileDone(long nanos, long queuedNanos) {
+        this.files.record(nanos);
+        this.queueWaits.record(queuedNanos);
+    }
+
+    /** Wrap a database writer so that its writes and commits are included in this profile. */
+    DatabaseWriter profiled(final DatabaseWriter writer) {
+        return new DatabaseWriter() {
+            @Override
+            public DatabaseWriter add(DatabaseItem item) throws IOException {
+                long t = System.nanoTime();
+                try {
+                    writer.add(item);
+                } finally {
+                    adds.record(System.nanoTime() - t);
+                }
+                return this;
+            }
+
+            @Override
+            public Prepared prepare(DatabaseItem item) throws IOException {
+                Prepared prepared = writer.prepare(item);
+                return () -> {
+                    long t = System.nanoTime();
+                    try {
+                        prepared.write();
+                    } finally {
+                        adds.record(System.nanoTime() - t);
+                    }
+                };
+            }
+
+            @Override
+            public boolean remove(URI item) throws IOException {
+                return writer.remove(item);
+            }
+
+            @Override
+            public void removePredictions(URI item, String classifierName, String criterion) throws IOException {
+                writer.removePredictions(item, classifierName, criterion);
+            }
+
+            @Override
+            public void close() throws IOException {
+                long t = System.nanoTime();
+                try {
+                    writer.close();
+                } finally {
+                    commits.record(System.nanoTime() - t);
+                }
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        double elapsed = this.elapsedMs();
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("files: %s (%.1f files/s)%n", this.files, this.filesPerSecond()));
+        if (this.queueWaits.count() > 0) {
+            sb.append(String.format("  queued: %s%n", this.queueWaits));
+        }
+        for (EndpointStats e : this.getEndpoints()) {
+            sb.append(String.format("  %s (%.1f%% of time)%n", e, share(e.calls.totalMs(), elapsed)));
+        }
+        sb.append(String.format("writes: %s (%.1f%% of time)%n", this.adds, share(this.adds.totalMs(), elapsed)));
+        sb.append(String.format("commits: %s (%.1f%% of time)", this.commits, share(this.commits.totalMs(), elapsed)));
+        for (Pipeline.StageStats stage : this.pipeline) {
+            sb.append(String.format("%n  stage %s", stage));
+        }
+        return sb.toString();
+    }
+
+    private static double share(double part, double total) {
+        return total <= 0 ? 0 : part * 100 / total;
+    }
+}
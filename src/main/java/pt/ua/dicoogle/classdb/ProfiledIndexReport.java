@@ -0,0 +1,44 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb;
+
+import pt.ua.dicoogle.sdk.datastructs.IndexReport2;
+
+/** An index report which also carries the time profile of the indexing task.
+ *
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public class ProfiledIndexReport extends IndexReport2 {
+
+    private final IndexProfile profile;
+
+    public ProfiledIndexReport(int nIndexed, int nErrors, long elapsedTime, IndexProfile profile) {
+        super(nIndexed, nErrors, elapsedTime);
+        this.profile = profile;
+    }
+
+    public IndexProfile getProfile() {
+        return this.profile;
+    }
+
+    @Override
+    public String toString() {
+        return super.toString() + '\n' + this.profile;
+    }
+}
@@ -0,0 +1,181 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/** Keeps track of the progress of a long task over a number of items, without retaining them.
+ * The throughput is sampled at regular intervals and smoothed with an exponentially weighted
+ * moving average, from which the remaining time is estimated. The total number of items may be
+ * set at any time, such as when a count running alongside the task is done.
+ *
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public class ProgressEstimator {
+
+    /** Default weight of the most recent throughput sample. */
+    public static final double DEFAULT_SMOOTHING = 0.2;
+    /** Default time between throughput samples, in milliseconds. */
+    public static final long DEFAULT_SAMPLE_INTERVAL_MS = 1000;
+
+    private final double smoothing;
+    private final long sampleIntervalNanos;
+    private final LongSupplier clock;
+
+    private final LongAdder done = new LongAdder();
+    private volatile long total = -1;
+    private final long startNanos;
+    private volatile long lastSampleNanos;
+    private long lastSampleDone = 0;
+    private volatile double rate = Double.NaN;
+
+    public ProgressEstimator() {
+        this(DEFAULT_SMOOTHING, DEFAULT_SAMPLE_INTERVAL_MS);
+    }
+
+    /**
+     * @param smoothing the weight of the most recent throughput sample, between 0 (exclusive) and 1
+     * @param sampleIntervalMs the minimum time between throughput samples, in milliseconds
+     */
+    public ProgressEstimator(double smoothing, long sampleIntervalMs) {
+        this(smoothing, sampleIntervalMs, System::nanoTime);
+    }
+
+    ProgressEstimator(double smoothing, long sampleIntervalMs, LongSupplier clock) {
+        if (!(smoothing > 0 && smoothing <= 1)) {
+            throw new IllegalArgumentException("Smoothing factor must be in ]0, 1]");
+        }
+        this.smoothing = smoothing;
+        this.sampleIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, sampleIntervalMs));
+        this.clock = clock;
+        this.startNanos = clock.getAsLong();
+        this.lastSampleNanos = this.startNanos;
+    }
+
+    /** Define the total number of items.
+     *
+     * @param total the number of items, or -1 if unknown
+     */
+    public void setTotal(long total) {
+        this.total = total;
+    }
+
+    /** @return the total number of items, or -1 if unknown */
+    public long getTotal() {
+        return this.total;
+    }
+
+    /** Count items which were already done before this estimator started, such as when resuming a task.
+     * They count towards the progress but not towards the throughput.
+     *
+     * @param n the number of items
+     */
+    public synchronized void skip(long n) {
+        this.done.add(n);
+        this.lastSampleDone += n;
+    }
+
+    /** Record one more item done. */
+    public void advance() {
+        this.done.increment();
+        if (this.clock.getAsLong() - this.lastSampleNanos >= this.sampleIntervalNanos) {
+            this.sample();
+        }
+    }
+
+    private synchronized void sample() {
+        long now = this.clock.getAsLong();
+        long elapsed = now - this.lastSampleNanos;
+        if (elapsed < this.sampleIntervalNanos) {
+            // another thread sampled in the meantime
+            return;
+        }
+        long n = this.done.sum();
+        double current = (n - this.lastSampleDone) * 1e9 / elapsed;
+        double previous = this.rate;
+        this.rate = Double.isNaN(previous) ? current : this.smoothing * current + (1 - this.smoothing) * previous;
+        this.lastSampleNanos = now;
+        this.lastSampleDone = n;
+    }
+
+    /** @return the number of items done so far */
+    public long getDone() {
+        return this.done.sum();
+    }
+
+    /** @return the fraction of items done, between 0 and 1, or -1 if the total is unknown */
+    public float getProgress() {
+        long total = this.total;
+        if (total < 0) {
+            return -1;
+        }
+        if (total == 0) {
+            return 1;
+        }
+        return (float) Math.min(1., (double) this.getDone() / total);
+    }
+
+    /** @return the smoothed throughput, in items per second, or NaN before the first sample */
+    public double getRate() {
+        return this.rate;
+    }
+
+    /** @return the estimated time until all items are done, in milliseconds, or -1 if it cannot be estimated */
+    public long getEtaMs() {
+        long total = this.total;
+        double rate = this.rate;
+        if (total < 0 || Double.isNaN(rate)) {
+            return -1;
+        }
+        long remaining = Math.max(0, total - this.getDone());
+        if (remaining == 0) {
+            return 0;
+        }
+        if (rate <= 0) {
+            return -1;
+        }
+        return (long) (remaining * 1000 / rate);
+    }
+
+    /** @return the time since the estimator was created, in milliseconds */
+    public long getElapsedMs() {
+        return TimeUnit.NANOSECONDS.toMillis(this.clock.getAsLong() - this.startNanos);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder().append(this.getDone());
+        long total = this.total;
+        if (total >= 0) {
+            sb.append('/').append(total);
+        }
+        sb.append(" items");
+        double rate = this.rate;
+        if (!Double.isNaN(rate)) {
+            sb.append(String.format(", %.1f/s", rate));
+        }
+        long eta = this.getEtaMs();
+        if (eta >= 0) {
+            sb.append(", ETA ").append(TimeUnit.MILLISECONDS.toSeconds(eta)).append(" s");
+        }
+        return sb.toString();
+    }
+}
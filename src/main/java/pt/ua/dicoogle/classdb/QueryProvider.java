@@ -19,19 +19,25 @@
 package pt.ua.dicoogle.classdb;
 
 import java.io.IOException;
+import java.net.URI;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Spliterator;
 import java.util.Spliterators;
+import java.util.stream.IntStream;
 
+import org.apache.commons.configuration.XMLConfiguration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import pt.ua.dicoogle.classdb.database.Database;
+import pt.ua.dicoogle.classdb.database.PendingDatabase;
 import pt.ua.dicoogle.classdb.database.struct.DatabaseItem;
 import pt.ua.dicoogle.classdb.database.struct.QueryParametersBuilder;
+import pt.ua.dicoogle.classdb.database.struct.ResultBatch;
+import pt.ua.dicoogle.classification.api.PredictionIdentifier;
 import pt.ua.dicoogle.sdk.QueryInterface;
 import pt.ua.dicoogle.sdk.datastructs.SearchResult;
 import pt.ua.dicoogle.sdk.settings.ConfigurationHolder;
@@ -46,22 +52,37 @@ public class QueryProvider implements QueryInterface {
 
     public static final String NAME = "class-db";
 
+    /** Number of database results fetched at a time. */
+    private static final int BATCH_SIZE = 1024;
+    /** Dictionary ordinals below this limit fit in the prediction identifier cache keys. */
+    private static final int ORD_LIMIT = 1 << 21;
+    /** Default time (in milliseconds) that queries wait for the database to open. */
+    private static final long DEFAULT_READY_TIMEOUT = 5000;
+
     private boolean enabled;
     private ConfigurationHolder settings;
-    private Database db;
+    private volatile PendingDatabase db;
+    private volatile long readyTimeout = DEFAULT_READY_TIMEOUT;
 
     public QueryProvider() {
-        this.db = null;
+        this.db = new PendingDatabase();
         this.enabled = true;
     }
 
     public void setDatabase(Database db) {
+        this.db = PendingDatabase.of(db);
+    }
+
+    /** Use a database which may still be opening. Queries wait for it for a bounded time.
+     */
+    public void setDatabase(PendingDatabase db) {
         this.db = db;
     }
 
     @Override
     public Iterable<SearchResult> query(String query, Object... parameters) {
-        if (this.db == null) {
+        Database db = this.db.await(this.readyTimeout);
+        if (db == null) {
             logger.warn("Illegal state: classification database is not ready!");
             return Collections.EMPTY_LIST;
         }
@@ -81,8 +102,10 @@ public class QueryProvider implements QueryInterface {
                     qp.setOnlyBest((boolean)paramDict.get("onlybest"));
                 }
             }
-            Spliterator<SearchResult> splt = db.search(query, qp.build())
-                        .map(item -> toSearchResult(item))
+            final Map<Long, URI> predictionIds = new HashMap<>();
+            Spliterator<SearchResult> splt = db.searchBatches(query, qp.build(), BATCH_SIZE)
+                        .flatMap(batch -> IntStream.range(0, batch.size())
+                                .mapToObj(i -> toSearchResult(batch, i, predictionIds)))
                         .spliterator();
             return new Iterable<SearchResult>() {
                 @Override
@@ -101,6 +124,26 @@ public class QueryProvider implements QueryInterface {
         }
     }
 
+    /** Convert a result in a batch to a search result. Prediction identifier URIs are shared among all
+     * results with the same classifier, criterion and predicted class.
+     */
+    protected SearchResult toSearchResult(ResultBatch batch, int i, Map<Long, URI> predictionIds) {
+        int classifier = batch.getClassifierOrds()[i];
+        int criterion = batch.getCriterionOrds()[i];
+        int prediction = batch.getPredictionOrds()[i];
+        URI id;
+        if (classifier < ORD_LIMIT && criterion < ORD_LIMIT && prediction < ORD_LIMIT) {
+            long key = ((long) classifier << 42) | ((long) criterion << 21) | prediction;
+            id = predictionIds.computeIfAbsent(key, k -> new PredictionIdentifier(
+                    batch.classifierName(i), batch.criterion(i), batch.predictedClass(i)).toURI());
+        } else {
+            id = new PredictionIdentifier(batch.classifierName(i), batch.criterion(i), batch.predictedClass(i)).toURI();
+        }
+        HashMap<String, Object> extra = new HashMap<>();
+        extra.put("id", id);
+        return new SearchResult(batch.uri(i), batch.score(i), extra);
+    }
+
     protected SearchResult toSearchResult(DatabaseItem dbItem) {
         assert dbItem != null;
         HashMap<String, Object> extra = new HashMap<>();
@@ -133,7 +176,13 @@ public class QueryProvider implements QueryInterface {
     @Override
     public void setSettings(ConfigurationHolder settings) {
         this.settings = settings;
-        // use settings here
+        XMLConfiguration conf = settings.getConfiguration();
+        conf.setThrowExceptionOnMissing(true);
+        try {
+            this.readyTimeout = conf.getLong("ready-timeout");
+        } catch (RuntimeException ex) {
+            this.readyTimeout = DEFAULT_READY_TIMEOUT;
+        }
     }
 
     @Override
@@ -0,0 +1,271 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import pt.ua.dicoogle.classdb.database.Database;
+import pt.ua.dicoogle.classdb.database.DatabaseReader;
+import pt.ua.dicoogle.classdb.database.DatabaseWriter;
+import pt.ua.dicoogle.sdk.datastructs.IndexReport;
+
+/** A background job classifying again the items which hold predictions by outdated classifier models,
+ * or which are missing predictions. The items are streamed from the index or another source, and each
+ * one goes through an incremental indexing pass, so only the outdated or missing endpoints and the
+ * endpoints depending on them are invoked.
+ * The job runs on a small pool of low priority threads, optionally limited to a number of items per second,
+ * so that it does not starve interactive traffic.
+ *
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public class ReclassificationJob implements Runnable {
+    private static final Logger logger = LoggerFactory.getLogger(ReclassificationJob.class);
+
+    public enum State {
+        PENDING, RUNNING, DONE, CANCELLED, FAILED
+    }
+
+    /** Classifies and indexes one item, invoking only the endpoints which are not up to date. */
+    interface ItemIndexer {
+        IndexReport index(URI item, DatabaseReader existing, DatabaseWriter writer, IndexProfile profile);
+    }
+
+    /** Provides the items to classify again. It is called twice, once for counting them. */
+    interface ItemSource {
+        Stream<URI> items(DatabaseReader existing) throws IOException;
+    }
+
+    private final Database db;
+    private final Map<String, String> modelVersions;
+    private final ItemSource source;
+    private final ItemIndexer indexer;
+    private final int threads;
+    private final double maxRate;
+    private final IndexProfile profile = new IndexProfile();
+
+    private volatile State state = State.PENDING;
+    private volatile boolean cancelled = false;
+    private final ProgressEstimator progress = new ProgressEstimator();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder predictions = new LongAdder();
+    private volatile long startTime = 0;
+    private volatile long endTime = 0;
+
+    /**
+     * @param db the classification database
+     * @param modelVersions the current model version of each versioned classifier
+     * @param indexer the function indexing each item
+     * @param threads the number of items classified at the same time
+     * @param maxRate the maximum number of items started per second, or 0 for no limit
+     */
+    ReclassificationJob(Database db, Map<String, String> modelVersions, ItemIndexer indexer, int threads,
+                        double maxRate) {
+        this(db, modelVersions, existing -> existing.outdatedItems(modelVersions), indexer, threads, maxRate);
+    }
+
+    /**
+     * @param db the classification database
+     * @param modelVersions the current model version of each versioned classifier
+     * @param source the items to classify again
+     * @param indexer the function indexing each item
+     * @param threads the number of items classified at the same time
+     * @param maxRate the maximum number of items started per second, or 0 for no limit
+     */
+    ReclassificationJob(Database db, Map<String, String> modelVersions, ItemSource source, ItemIndexer indexer,
+                        int threads, double maxRate) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Reclassification needs at least one thread");
+        }
+        if (maxRate < 0) {
+            throw new IllegalArgumentException("Reclassification rate must not be negative");
+        }
+        this.db = db;
+        this.modelVersions = modelVersions;
+        this.source = source;
+        this.indexer = indexer;
+        this.threads = threads;
+        this.maxRate = maxRate;
+    }
+
+    @Override
+    public void run() {
+        this.startTime = System.currentTimeMillis();
+        this.state = State.RUNNING;
+        logger.info("Reclassifying items with outdated or missing predictions, current models: {}",
+                this.modelVersions);
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService pool = new ThreadPoolExecutor(this.threads, this.threads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "class-db-reclassify-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                });
+        // bounds the items waiting for a thread, so that the outdated items are streamed as needed
+        Semaphore slots = new Semaphore(2 * this.threads);
+        try {
+            // a snapshot of the index: items reclassified in the meantime are not seen as up to date
+            DatabaseReader existing = this.db.createReader();
+            try (Stream<URI> items = this.source.items(existing)) {
+                this.progress.setTotal(items.count());
+            }
+            try (DatabaseWriter writer = this.profile.profiled(this.db.createWriter());
+                 Stream<URI> items = this.source.items(existing)) {
+                long start = System.nanoTime();
+                long n = 0;
+                Iterator<URI> it = items.iterator();
+                while (it.hasNext() && !this.cancelled) {
+                    URI item = it.next();
+                    this.throttle(start, n++);
+                    slots.acquire();
+                    pool.execute(() -> {
+                        try {
+                            IndexReport r = this.indexer.index(item, existing, writer, this.profile);
+                            this.predictions.add(r.getNIndexed());
+                            if (r.getNErrors() > 0) {
+                                this.failed.increment();
+                            }
+                        } catch (RuntimeException e) {
+                            logger.warn("Failed to reclassify {}", item, e);
+                            this.failed.increment();
+                        } finally {
+                            this.progress.advance();
+                            slots.release();
+                        }
+                    });
+                }
+                pool.shutdown();
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            }
+            this.state = this.cancelled ? State.CANCELLED : State.DONE;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.state = State.CANCELLED;
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Reclassification failed", e);
+            this.state = State.FAILED;
+        } finally {
+            pool.shutdownNow();
+            this.endTime = System.currentTimeMillis();
+        }
+        logger.info("Reclassification {}: {}", this.state, this);
+    }
+
+    /** Wait until the next item may start, according to the maximum rate. */
+    private void throttle(long startNanos, long n) throws InterruptedException {
+        if (this.maxRate <= 0) {
+            return;
+        }
+        long due = startNanos + (long) (n * 1e9 / this.maxRate);
+        long wait = due - System.nanoTime();
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    /** Stop starting new items. Items being classified are finished and committed. */
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    public State getState() {
+        return this.state;
+    }
+
+    /** @return whether the job is yet to finish */
+    public boolean isActive() {
+        State s = this.state;
+        return s == State.PENDING || s == State.RUNNING;
+    }
+
+    /** @return the number of outdated items, or -1 if they were not counted yet */
+    public long getTotal() {
+        return this.progress.getTotal();
+    }
+
+    /** @return the number of items processed so far, successfully or not */
+    public long getProcessed() {
+        return this.progress.getDone();
+    }
+
+    /** @return the number of items which could not be fully reclassified */
+    public long getFailed() {
+        return this.failed.sum();
+    }
+
+    /** @return the number of predictions indexed so far */
+    public long getPredictions() {
+        return this.predictions.sum();
+    }
+
+    /** @return the fraction of outdated items processed so far, between 0 and 1 */
+    public double getProgress() {
+        if (this.progress.getTotal() <= 0) {
+            return this.state == State.DONE ? 1 : 0;
+        }
+        return this.progress.getProgress();
+    }
+
+    /** @return the smoothed number of items processed per second, or NaN if not yet known */
+    public double getRate() {
+        return this.progress.getRate();
+    }
+
+    /** @return the estimated time until the job is done, in milliseconds, or -1 if not yet known */
+    public long getEtaMs() {
+        return this.isActive() ? this.progress.getEtaMs() : 0;
+    }
+
+    /** @return the time since the job started, in milliseconds */
+    public long getElapsedMs() {
+        if (this.startTime == 0) {
+            return 0;
+        }
+        long end = this.endTime != 0 ? this.endTime : System.currentTimeMillis();
+        return end - this.startTime;
+    }
+
+    public Map<String, String> getModelVersions() {
+        return this.modelVersions;
+    }
+
+    public IndexProfile getProfile() {
+        return this.profile;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d/%d items (%d failed), %d predictions in %d ms", this.getProcessed(), this.getTotal(),
+                this.getFailed(), this.getPredictions(), this.getElapsedMs());
+    }
+}
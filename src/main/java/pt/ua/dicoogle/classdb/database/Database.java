@@ -21,10 +21,15 @@ package pt.ua.dicoogle.classdb.database;
 import java.io.Closeable;
 import java.io.IOException;
 import java.net.URI;
+import java.util.List;
+import java.util.Map;
 import java.util.stream.Stream;
 
+import pt.ua.dicoogle.classdb.database.struct.Aggregation;
 import pt.ua.dicoogle.classdb.database.struct.DatabaseItem;
+import pt.ua.dicoogle.classdb.database.struct.Facet;
 import pt.ua.dicoogle.classdb.database.struct.QueryParameters;
+import pt.ua.dicoogle.classdb.database.struct.ResultBatch;
 
 /**
  *
@@ -36,6 +41,15 @@ public interface Database extends DatabaseWriter, DatabaseReader, Closeable {
 
     public DatabaseReader createReader() throws IOException;
 
+    /** Check whether closing a writer currently leaves its changes uncommitted, as during a bulk ingest.
+     * The default implementation always commits.
+     *
+     * @return whether commits are being deferred
+     */
+    public default boolean defersCommits() {
+        return false;
+    }
+
     public default DatabaseWriter add(DatabaseItem item) throws IOException {
         try (DatabaseWriter writer = this.createWriter()) {
             writer.add(item);
@@ -51,6 +65,35 @@ public interface Database extends DatabaseWriter, DatabaseReader, Closeable {
         return this.createReader().search(query);
     }
 
+    public default Stream<ResultBatch> searchBatches(String query, QueryParameters params, int batchSize) throws IOException {
+        return this.createReader().searchBatches(query, params, batchSize);
+    }
+
+    public default Stream<DatabaseItem> predictionsOf(URI item, String classifierName, String criterion) throws IOException {
+        return this.createReader().predictionsOf(item, classifierName, criterion);
+    }
+
+    public default Stream<URI> outdatedItems(Map<String, String> modelVersions) throws IOException {
+        return this.createReader().outdatedItems(modelVersions);
+    }
+
+    public default boolean isClassified(URI item, String classifierName, String criterion, String modelVersion)
+            throws IOException {
+        return this.createReader().isClassified(item, classifierName, criterion, modelVersion);
+    }
+
+    public default long count(String query, QueryParameters params) throws IOException {
+        return this.createReader().count(query, params);
+    }
+
+    public default boolean exists(String query, QueryParameters params) throws IOException {
+        return this.createReader().exists(query, params);
+    }
+
+    public default Aggregation aggregate(String query, QueryParameters params, List<Facet> facets, int nbins) throws IOException {
+        return this.createReader().aggregate(query, params, facets, nbins);
+    }
+
     public default boolean remove(URI item) throws IOException {
         try (DatabaseWriter writer = this.createWriter()) {
             return writer.remove(item);
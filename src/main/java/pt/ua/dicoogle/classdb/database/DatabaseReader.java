@@ -19,10 +19,17 @@
 package pt.ua.dicoogle.classdb.database;
 
 import java.io.IOException;
+import java.net.URI;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
 import java.util.stream.Stream;
 
+import pt.ua.dicoogle.classdb.database.struct.Aggregation;
 import pt.ua.dicoogle.classdb.database.struct.DatabaseItem;
+import pt.ua.dicoogle.classdb.database.struct.Facet;
 import pt.ua.dicoogle.classdb.database.struct.QueryParameters;
+import pt.ua.dicoogle.classdb.database.struct.ResultBatch;
 
 /**
  * @author Eduardo Pinho <eduardopinho@ua.pt>
@@ -47,4 +54,107 @@ public interface DatabaseReader {
     public default Stream<DatabaseItem> search(String query) throws IOException {
         return this.search(query, QueryParameters.DEFAULT);
     }
+
+    /** Perform a search for classification entries in the database, obtaining the results in columnar batches.
+     * Batches of the same search share the same string dictionaries.
+     * The default implementation converts the outcome of {@link #search(String, QueryParameters)}.
+     *
+     * @param query the query text
+     * @param params additional parameters for the search
+     * @param batchSize the maximum number of results per batch
+     * @return a stream of result batches, the results being in the same order as in a regular search
+     * @throws IOException
+     */
+    public default Stream<ResultBatch> searchBatches(String query, QueryParameters params, int batchSize) throws IOException {
+        return ResultBatch.batches(this.search(query, params), batchSize);
+    }
+
+    /** Retrieve all stored predictions of an item by a particular classifier and criterion,
+     * ordered by descending score.
+     * The default implementation searches for all predictions of the item and keeps those of this endpoint.
+     *
+     * @param item the classified item's URI
+     * @param classifierName the name of the classifier
+     * @param criterion the classification criterion
+     * @return a stream of database items, empty if the item was never classified by this endpoint
+     * @throws IOException
+     */
+    public default Stream<DatabaseItem> predictionsOf(URI item, String classifierName, String criterion)
+            throws IOException {
+        // URIs never hold quotes, so quoting is enough to match the whole URI
+        return this.search("uri:\"" + item + '"')
+                .filter(p -> classifierName.equals(p.classifierName()) && criterion.equals(p.criterion()))
+                .sorted(Comparator.comparingDouble(DatabaseItem::score).reversed());
+    }
+
+    /** Obtain the items holding predictions made by a classifier model other than the current one,
+     * including predictions without a model version. Each item is provided once, and the items are
+     * read lazily from the database.
+     *
+     * @param modelVersions the current model version of each classifier, by classifier name.
+     *                      Predictions by other classifiers are not considered.
+     * @return a stream of item URIs
+     * @throws IOException
+     */
+    public Stream<URI> outdatedItems(Map<String, String> modelVersions) throws IOException;
+
+    /** Check whether an item was already classified by a particular classifier and criterion.
+     * The default implementation looks for any of the item's predictions by this endpoint.
+     *
+     * @param item the classified item's URI
+     * @param classifierName the name of the classifier
+     * @param criterion the classification criterion
+     * @param modelVersion the classifier model version the predictions must be tagged with,
+     *                     or null to accept predictions of any version
+     * @return whether the item has predictions by this endpoint and model version
+     * @throws IOException
+     */
+    public default boolean isClassified(URI item, String classifierName, String criterion, String modelVersion)
+            throws IOException {
+        return this.predictionsOf(item, classifierName, criterion)
+                .anyMatch(p -> modelVersion == null || modelVersion.equals(p.modelVersion()));
+    }
+
+    /** Count the classification entries in the database which match the given query.
+     * The number of results in the parameters is ignored. When only the best predictions
+     * are requested, each item-criterion pair is counted once.
+     * The default implementation simply counts the elements of a search.
+     *
+     * @param query the query text
+     * @param params additional parameters for the search
+     * @return the number of matching entries
+     * @throws IOException
+     */
+    public default long count(String query, QueryParameters params) throws IOException {
+        return this.search(query, params).count();
+    }
+
+    /** Check whether at least one classification entry in the database matches the given query.
+     *
+     * @param query the query text
+     * @param params additional parameters for the search
+     * @return whether any entry matches the query
+     * @throws IOException
+     */
+    public default boolean exists(String query, QueryParameters params) throws IOException {
+        return this.count(query, params) > 0;
+    }
+
+    /** Aggregate the classification entries matching the given query, obtaining the number of
+     * predictions and a score histogram for each distinct combination of the given facets.
+     * The number of results in the parameters is ignored.
+     * The default implementation consumes a search over the database.
+     *
+     * @param query the query text
+     * @param params additional parameters for the search
+     * @param facets the facets to group by
+     * @param nbins the number of bins of each score histogram
+     * @return the resulting aggregation
+     * @throws IOException
+     */
+    public default Aggregation aggregate(String query, QueryParameters params, List<Facet> facets, int nbins) throws IOException {
+        Aggregation aggregation = new Aggregation(facets, nbins);
+        this.search(query, params).forEachOrdered(aggregation::add);
+        return aggregation;
+    }
 }
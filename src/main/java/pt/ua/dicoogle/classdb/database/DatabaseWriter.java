@@ -29,7 +29,35 @@ import pt.ua.dicoogle.classdb.database.struct.DatabaseItem;
  */
 public interface DatabaseWriter extends Closeable {
 
+    /** An item prepared for writing. */
+    public interface Prepared {
+        public void write() throws IOException;
+    }
+
     public DatabaseWriter add(DatabaseItem item) throws IOException;
 
+    /** Prepare an item for writing, doing the work which does not touch the index, such as building its
+     * document, so that it may take place on another thread than the write itself.
+     * The default implementation leaves all the work to the write.
+     *
+     * @param item the item to write
+     * @return the prepared item
+     * @throws IOException on failure to prepare the item
+     */
+    public default Prepared prepare(DatabaseItem item) throws IOException {
+        return () -> this.add(item);
+    }
+
     public boolean remove(URI item) throws IOException;
+
+    /** Remove the predictions of an item by a classifier on a criterion, so that they may be replaced by
+     * predictions of another model, whose predicted classes may differ. Predictions added afterwards
+     * by the same writer are kept.
+     *
+     * @param item the classified item
+     * @param classifierName the name of the classifier
+     * @param criterion the criterion
+     * @throws IOException on failure to remove the predictions
+     */
+    public void removePredictions(URI item, String classifierName, String criterion) throws IOException;
 }
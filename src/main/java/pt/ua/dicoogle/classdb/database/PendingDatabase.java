@@ -0,0 +1,107 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.database;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/** A database which may still be opening in the background. Consumers either check whether it is
+ * ready, or wait for it for a bounded amount of time.
+ *
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public class PendingDatabase {
+    private final CompletableFuture<Database> future;
+
+    /** Create a database which is not ready yet. */
+    public PendingDatabase() {
+        this.future = new CompletableFuture<>();
+    }
+
+    private PendingDatabase(CompletableFuture<Database> future) {
+        this.future = future;
+    }
+
+    /** Create a database which is already available.
+     * @param db the database, or null for one that is never available
+     * @return the pending database
+     */
+    public static PendingDatabase of(Database db) {
+        if (db == null) {
+            return new PendingDatabase();
+        }
+        return new PendingDatabase(CompletableFuture.completedFuture(db));
+    }
+
+    /** Make the database available to all consumers. */
+    public void complete(Database db) {
+        this.future.complete(db);
+    }
+
+    /** Declare that the database could not be opened. Consumers stop waiting and see no database. */
+    public void fail(Throwable cause) {
+        this.future.completeExceptionally(cause);
+    }
+
+    /** @return whether the database is ready */
+    public boolean isReady() {
+        return this.future.isDone() && !this.future.isCompletedExceptionally();
+    }
+
+    /** @return whether the database could not be opened */
+    public boolean isFailed() {
+        return this.future.isCompletedExceptionally();
+    }
+
+    /** Obtain the database without waiting.
+     * @return the database, or null if it is not ready
+     */
+    public Database getNow() {
+        return this.isReady() ? this.future.join() : null;
+    }
+
+    /** Obtain the database, waiting for it to open if necessary.
+     *
+     * @param timeoutMs the maximum time to wait in milliseconds
+     * @return the database, or null if it did not become ready in time or failed to open
+     */
+    public Database await(long timeoutMs) {
+        if (this.future.isDone() || timeoutMs <= 0) {
+            return this.getNow();
+        }
+        try {
+            return this.future.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException | TimeoutException e) {
+            return null;
+        }
+    }
+
+    /** Perform an action once the database is ready. If it is already ready, the action runs immediately.
+     * The action never runs if the database fails to open.
+     */
+    public void whenReady(Consumer<Database> action) {
+        this.future.thenAccept(action);
+    }
+}
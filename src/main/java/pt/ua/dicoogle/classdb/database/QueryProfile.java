@@ -0,0 +1,167 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.database;
+
+import pt.ua.dicoogle.classdb.database.struct.QueryParameters;
+
+/** The execution profile of a single query: how long it took in each phase, and how many hits and
+ * results it yielded. Profiles are filled by database readers and kept by a {@link SlowQueryLog}
+ * if the query was slow.
+ *
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public class QueryProfile {
+
+    private final long timestamp = System.currentTimeMillis();
+    private final String operation;
+    private final String query;
+    private final QueryParameters params;
+    private Object parsedQuery;
+    private long hits = -1;
+    private long results = -1;
+    private long parseNanos = 0;
+    private long collectNanos = 0;
+    private long loadNanos = 0;
+    private long groupNanos = 0;
+    private long totalNanos = -1;
+
+    /**
+     * @param operation the kind of query (e.g. "search" or "count")
+     * @param query the raw query string
+     * @param params the query parameters
+     */
+    public QueryProfile(String operation, String query, QueryParameters params) {
+        this.operation = operation;
+        this.query = query;
+        this.params = params;
+    }
+
+    /** Record the parsing phase.
+     * @param parsedQuery the parsed query, only converted to a string if the profile is reported
+     * @param nanos the time spent parsing
+     */
+    public void parsed(Object parsedQuery, long nanos) {
+        this.parsedQuery = parsedQuery;
+        this.parseNanos += nanos;
+    }
+
+    /** Add time spent collecting hits. */
+    public void addCollectTime(long nanos) {
+        this.collectNanos += nanos;
+    }
+
+    /** @param hits the number of hits collected */
+    public void setHits(long hits) {
+        this.hits = hits;
+    }
+
+    /** Add time spent loading the contents of hits. */
+    public void addLoadTime(long nanos) {
+        this.loadNanos += nanos;
+    }
+
+    /** Add time spent grouping results to the best prediction of each item. */
+    public void addGroupTime(long nanos) {
+        this.groupNanos += nanos;
+    }
+
+    /** Mark the query as complete, its total time being the sum of its phases.
+     * @param results the number of results delivered
+     */
+    public void finish(long results) {
+        this.finish(results, this.loadNanos + this.groupNanos);
+    }
+
+    /** Mark a query whose results were streamed as complete. Only the time spent producing the results
+     * counts towards the total, not the time the consumer spent in between.
+     * @param results the number of results delivered
+     * @param produceNanos the time spent producing the results, loading and grouping included
+     */
+    public void finish(long results, long produceNanos) {
+        this.results = results;
+        this.totalNanos = this.parseNanos + this.collectNanos + produceNanos;
+    }
+
+    public long getTimestamp() {
+        return this.timestamp;
+    }
+
+    public String getOperation() {
+        return this.operation;
+    }
+
+    public String getQuery() {
+        return this.query;
+    }
+
+    public String getParsedQuery() {
+        return String.valueOf(this.parsedQuery);
+    }
+
+    public QueryParameters getParameters() {
+        return this.params;
+    }
+
+    /** @return the number of hits collected, or -1 if unknown */
+    public long getHits() {
+        return this.hits;
+    }
+
+    /** @return the number of results delivered, or -1 if unknown */
+    public long getResults() {
+        return this.results;
+    }
+
+    public double getParseMs() {
+        return this.parseNanos / 1e6;
+    }
+
+    public double getCollectMs() {
+        return this.collectNanos / 1e6;
+    }
+
+    public long getLoadNanos() {
+        return this.loadNanos;
+    }
+
+    public double getLoadMs() {
+        return this.loadNanos / 1e6;
+    }
+
+    public double getGroupMs() {
+        return this.groupNanos / 1e6;
+    }
+
+    /** @return the total time of the query in nanoseconds, or -1 if not finished */
+    public long getTotalNanos() {
+        return this.totalNanos;
+    }
+
+    public double getTotalMs() {
+        return this.totalNanos / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s \"%s\" (parsed as %s) with %s: %d hits, %d results in %.1f ms "
+                        + "(parse %.1f ms, collect %.1f ms, load %.1f ms, group %.1f ms)",
+                this.operation, this.query, this.parsedQuery, this.params, this.hits, this.results, this.getTotalMs(),
+                this.getParseMs(), this.getCollectMs(), this.getLoadMs(), this.getGroupMs());
+    }
+}
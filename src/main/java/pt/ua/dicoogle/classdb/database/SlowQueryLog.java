@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.database;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import pt.ua.dicoogle.classdb.metrics.Counter;
+import pt.ua.dicoogle.classdb.metrics.Metrics;
+
+/** A log of slow queries. Queries taking longer than a threshold are logged and kept in a ring
+ * buffer of the most recent ones.
+ *
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public class SlowQueryLog {
+    private static final Logger logger = LoggerFactory.getLogger(SlowQueryLog.class);
+
+    private static final Counter SLOW_QUERIES = Metrics.getDefault().counter("classdb_slow_queries_total",
+            "Number of queries exceeding the slow query threshold");
+
+    private volatile long thresholdNanos;
+    private final QueryProfile[] recent;
+    private int next = 0;
+    private long count = 0;
+
+    /**
+     * @param thresholdMs the minimum duration of a slow query in milliseconds, negative to disable the log
+     * @param capacity the number of slow queries to keep
+     */
+    public SlowQueryLog(long thresholdMs, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Slow query log capacity must be positive");
+        }
+        this.setThreshold(thresholdMs);
+        this.recent = new QueryProfile[capacity];
+    }
+
+    /**
+     * @param thresholdMs the minimum duration of a slow query in milliseconds, negative to disable the log
+     */
+    public void setThreshold(long thresholdMs) {
+        this.thresholdNanos = thresholdMs < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(thresholdMs);
+    }
+
+    /** @return the minimum duration of a slow query in milliseconds, -1 if disabled */
+    public long getThreshold() {
+        long t = this.thresholdNanos;
+        return t < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(t);
+    }
+
+    /** Submit a finished query profile, which is only kept if the query was slow.
+     * @param profile the query profile
+     */
+    public void submit(QueryProfile profile) {
+        long threshold = this.thresholdNanos;
+        if (threshold < 0 || profile.getTotalNanos() < threshold) {
+            return;
+        }
+        SLOW_QUERIES.inc();
+        logger.warn("Slow query: {}", profile);
+        synchronized (this) {
+            this.recent[this.next] = profile;
+            this.next = (this.next + 1) % this.recent.length;
+            this.count++;
+        }
+    }
+
+    /** @return the most recent slow queries, newest first */
+    public synchronized List<QueryProfile> recent() {
+        int n = (int) Math.min(this.count, this.recent.length);
+        List<QueryProfile> out = new ArrayList<>(n);
+        for (int i = 1; i <= n; i++) {
+            out.add(this.recent[(this.next - i + this.recent.length) % this.recent.length]);
+        }
+        return out;
+    }
+
+    /** @return the number of slow queries seen so far, including those no longer kept */
+    public synchronized long count() {
+        return this.count;
+    }
+}
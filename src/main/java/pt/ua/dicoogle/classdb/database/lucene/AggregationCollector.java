@@ -0,0 +1,191 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.database.lucene;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.NumericUtils;
+
+import pt.ua.dicoogle.classdb.database.struct.Aggregation;
+
+/** A collector which feeds an aggregation in a single pass over the matching documents,
+ * reading the facet values and scores from doc values only.
+ *
+ * When only the best predictions are to be aggregated, the best prediction of each
+ * item-criterion pair is kept until the end of the collection.
+ *
+ * Documents without item doc values (indexed by older versions of the plugin) are read from
+ * stored fields instead, which requires each field to be stored under the same name.
+ *
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+class AggregationCollector extends SimpleCollector {
+    private final Aggregation aggregation;
+    private final String scoreField;
+    private final String[] facetFields;
+    private final String itemField;
+    private final String criterionField;
+    private final double threshold;
+    private final boolean onlyBest;
+
+    private final Map<BytesRef, Best> best = new HashMap<>();
+    private final BytesRefBuilder keyBuilder = new BytesRefBuilder();
+    private final String[] values;
+    private final Set<String> storedFields;
+
+    private LeafReader reader;
+    private SortedNumericDocValues scores;
+    private SortedDocValues[] facetValues;
+    private String[][] facetCache;
+    private SortedDocValues items;
+    private SortedDocValues criteria;
+
+    /**
+     * @param aggregation the aggregation to feed
+     * @param scoreField the name of the sortable-long encoded score doc values field
+     * @param facetFields the names of the sorted doc values fields of each facet in the aggregation
+     * @param itemField the name of the item's sorted doc values field
+     * @param criterionField the name of the criterion's sorted doc values field
+     * @param threshold the minimum (exclusive) score of an aggregated hit
+     * @param onlyBest whether to aggregate only the best prediction of each item-criterion pair
+     */
+    AggregationCollector(Aggregation aggregation, String scoreField, String[] facetFields,
+                         String itemField, String criterionField, double threshold, boolean onlyBest) {
+        this.aggregation = aggregation;
+        this.scoreField = scoreField;
+        this.facetFields = facetFields;
+        this.itemField = itemField;
+        this.criterionField = criterionField;
+        this.threshold = threshold;
+        this.onlyBest = onlyBest;
+        this.values = new String[facetFields.length];
+        this.storedFields = new HashSet<>(Arrays.asList(facetFields));
+        this.storedFields.add(itemField);
+        this.storedFields.add(criterionField);
+    }
+
+    @Override
+    protected void doSetNextReader(LeafReaderContext context) throws IOException {
+        this.reader = context.reader();
+        this.scores = DocValues.getSortedNumeric(this.reader, this.scoreField);
+        this.facetValues = new SortedDocValues[this.facetFields.length];
+        this.facetCache = new String[this.facetFields.length][];
+        for (int i = 0; i < this.facetFields.length; i++) {
+            this.facetValues[i] = LuceneDatabase.sortedValues(this.reader, this.facetFields[i]);
+            this.facetCache[i] = new String[this.facetValues[i].getValueCount()];
+        }
+        this.items = LuceneDatabase.sortedValues(this.reader, this.itemField);
+        this.criteria = LuceneDatabase.sortedValues(this.reader, this.criterionField);
+    }
+
+    @Override
+    public void collect(int doc) throws IOException {
+        this.scores.setDocument(doc);
+        if (this.scores.count() == 0) {
+            return;
+        }
+        double score = NumericUtils.sortableLongToDouble(this.scores.valueAt(0));
+        if (score <= this.threshold) {
+            return;
+        }
+        Document stored = null;
+        if (this.items.getOrd(doc) == -1) {
+            stored = this.reader.document(doc, this.storedFields);
+        }
+        for (int i = 0; i < this.values.length; i++) {
+            this.values[i] = stored != null ? stored.get(this.facetFields[i]) : this.facetValue(i, doc);
+        }
+
+        if (!this.onlyBest) {
+            this.aggregation.add(this.values, score);
+            return;
+        }
+        this.keyBuilder.clear();
+        if (stored == null) {
+            this.keyBuilder.append(this.items.get(doc));
+            this.keyBuilder.append((byte) 0);
+            this.keyBuilder.append(this.criteria.get(doc));
+        } else {
+            this.keyBuilder.append(new BytesRef(stored.get(this.itemField)));
+            this.keyBuilder.append((byte) 0);
+            this.keyBuilder.append(new BytesRef(stored.get(this.criterionField)));
+        }
+        Best b = this.best.get(this.keyBuilder.get());
+        if (b == null) {
+            this.best.put(this.keyBuilder.toBytesRef(), new Best(this.values.clone(), score));
+        } else if (score > b.score) {
+            b.values = this.values.clone();
+            b.score = score;
+        }
+    }
+
+    private String facetValue(int i, int doc) {
+        int ord = this.facetValues[i].getOrd(doc);
+        if (ord == -1) {
+            return "";
+        }
+        String v = this.facetCache[i][ord];
+        if (v == null) {
+            v = this.facetValues[i].lookupOrd(ord).utf8ToString();
+            this.facetCache[i][ord] = v;
+        }
+        return v;
+    }
+
+    @Override
+    public boolean needsScores() {
+        return false;
+    }
+
+    /** Conclude the aggregation. Must be called once after the search.
+     *
+     * @return the aggregation
+     */
+    public Aggregation finish() {
+        for (Best b : this.best.values()) {
+            this.aggregation.add(b.values, b.score);
+        }
+        this.best.clear();
+        return this.aggregation;
+    }
+
+    private static final class Best {
+        String[] values;
+        double score;
+
+        Best(String[] values, double score) {
+            this.values = values;
+            this.score = score;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.database.lucene;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.NumericUtils;
+
+/** A collector which counts the distinct item-criterion pairs with at least one hit above a threshold,
+ * which is the number of results of an "only best" search. Only doc values are read.
+ * Documents without item doc values (indexed by older versions of the plugin) are keyed by their stored fields.
+ *
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+class BestOfCountCollector extends SimpleCollector {
+    private final String scoreField;
+    private final String itemField;
+    private final String criterionField;
+    private final long minScore;
+    private final Set<BytesRef> keys = new HashSet<>();
+    private final BytesRefBuilder keyBuilder = new BytesRefBuilder();
+    private final Set<String> storedFields;
+    private LeafReader reader;
+    private SortedNumericDocValues scores;
+    private SortedDocValues items;
+    private SortedDocValues criteria;
+
+    BestOfCountCollector(String scoreField, String itemField, String criterionField, double threshold) {
+        this.scoreField = scoreField;
+        this.itemField = itemField;
+        this.criterionField = criterionField;
+        this.minScore = NumericUtils.doubleToSortableLong(threshold);
+        this.storedFields = new HashSet<>(Arrays.asList(itemField, criterionField));
+    }
+
+    @Override
+    protected void doSetNextReader(LeafReaderContext context) throws IOException {
+        this.reader = context.reader();
+        this.scores = DocValues.getSortedNumeric(this.reader, this.scoreField);
+        this.items = LuceneDatabase.sortedValues(this.reader, this.itemField);
+        this.criteria = LuceneDatabase.sortedValues(this.reader, this.criterionField);
+    }
+
+    @Override
+    public void collect(int doc) throws IOException {
+        this.scores.setDocument(doc);
+        if (this.scores.count() == 0 || this.scores.valueAt(0) <= this.minScore) {
+            return;
+        }
+        this.keyBuilder.clear();
+        if (this.items.getOrd(doc) != -1) {
+            this.keyBuilder.append(this.items.get(doc));
+            this.keyBuilder.append((byte) 0);
+            this.keyBuilder.append(this.criteria.get(doc));
+        } else {
+            Document d = this.reader.document(doc, this.storedFields);
+            this.keyBuilder.append(new BytesRef(d.get(this.itemField)));
+            this.keyBuilder.append((byte) 0);
+            this.keyBuilder.append(new BytesRef(d.get(this.criterionField)));
+        }
+        if (!this.keys.contains(this.keyBuilder.get())) {
+            this.keys.add(this.keyBuilder.toBytesRef());
+        }
+    }
+
+    @Override
+    public boolean needsScores() {
+        return false;
+    }
+
+    public long getCount() {
+        return this.keys.size();
+    }
+}
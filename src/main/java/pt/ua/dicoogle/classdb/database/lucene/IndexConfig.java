@@ -0,0 +1,248 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.database.lucene;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Locale;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LiveIndexWriterConfig;
+import org.apache.lucene.index.LogByteSizeMergePolicy;
+import org.apache.lucene.index.LogDocMergePolicy;
+import org.apache.lucene.index.LogMergePolicy;
+import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.index.TieredMergePolicy;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.lucene.store.SimpleFSDirectory;
+
+/** Immutable object type for holding the storage and indexing settings of a Lucene database.
+ *
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public class IndexConfig {
+    public static final IndexConfig DEFAULT = new IndexConfigBuilder().build();
+
+    /** The implementation of the index directory. */
+    public enum DirectoryType {
+        /** Let Lucene choose (memory mapped on 64-bit JVMs). */
+        AUTO,
+        /** Memory mapped files. */
+        MMAP,
+        /** Positional reads with NIO, without memory mapping. */
+        NIO,
+        /** Plain synchronized file reads. */
+        SIMPLE;
+
+        public FSDirectory open(Path path) throws IOException {
+            switch (this) {
+                case MMAP:
+                    return new MMapDirectory(path);
+                case NIO:
+                    return new NIOFSDirectory(path);
+                case SIMPLE:
+                    return new SimpleFSDirectory(path);
+                default:
+                    return FSDirectory.open(path);
+            }
+        }
+
+        public static DirectoryType fromName(String name) {
+            return DirectoryType.valueOf(name.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /** The policy for merging index segments. */
+    public enum MergePolicyType {
+        /** Merge segments of roughly equal size, up to a maximum segment size. */
+        TIERED,
+        /** Merge segments in levels of similar byte size. */
+        LOG_BYTE_SIZE,
+        /** Merge segments in levels of similar document count. */
+        LOG_DOC;
+
+        public static MergePolicyType fromName(String name) {
+            return MergePolicyType.valueOf(name.trim().replace('-', '_').toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private final DirectoryType directoryType;
+    private final double ramBufferMB;
+    private final int maxBufferedDocs;
+    private final MergePolicyType mergePolicy;
+    private final double segmentsPerTier;
+    private final int maxMergeAtOnce;
+    private final double maxMergedSegmentMB;
+    private final int mergeFactor;
+    private final int mergeThreads;
+
+    /** Create a new set of index settings.
+     *
+     * @param directoryType the index directory implementation
+     * @param ramBufferMB the memory for buffering documents before they are flushed, -1 to flush by document count
+     * @param maxBufferedDocs the number of documents buffered before they are flushed, -1 to flush by memory use
+     * @param mergePolicy the merge policy
+     * @param segmentsPerTier the number of segments allowed per tier (tiered policy)
+     * @param maxMergeAtOnce the maximum number of segments merged at once (tiered policy)
+     * @param maxMergedSegmentMB the maximum size of a merged segment (tiered policy)
+     * @param mergeFactor the number of segments per level (log policies)
+     * @param mergeThreads the maximum number of concurrent merge threads, -1 to decide from the storage type
+     * @throws IllegalArgumentException if any of the settings is invalid
+     */
+    public IndexConfig(DirectoryType directoryType, double ramBufferMB, int maxBufferedDocs,
+                       MergePolicyType mergePolicy, double segmentsPerTier, int maxMergeAtOnce,
+                       double maxMergedSegmentMB, int mergeFactor, int mergeThreads) {
+        if (directoryType == null || mergePolicy == null) {
+            throw new IllegalArgumentException("Directory type and merge policy are required");
+        }
+        if (ramBufferMB != IndexWriterConfig.DISABLE_AUTO_FLUSH && ramBufferMB <= 0) {
+            throw new IllegalArgumentException("RAM buffer size must be positive, or -1 to disable");
+        }
+        if (maxBufferedDocs != IndexWriterConfig.DISABLE_AUTO_FLUSH && maxBufferedDocs < 2) {
+            throw new IllegalArgumentException("Maximum buffered documents must be at least 2, or -1 to disable");
+        }
+        if (ramBufferMB == IndexWriterConfig.DISABLE_AUTO_FLUSH && maxBufferedDocs == IndexWriterConfig.DISABLE_AUTO_FLUSH) {
+            throw new IllegalArgumentException("Either the RAM buffer size or maximum buffered documents must be set");
+        }
+        if (segmentsPerTier < 2) {
+            throw new IllegalArgumentException("Segments per tier must be at least 2");
+        }
+        if (maxMergeAtOnce < 2) {
+            throw new IllegalArgumentException("Maximum segments merged at once must be at least 2");
+        }
+        if (maxMergedSegmentMB <= 0) {
+            throw new IllegalArgumentException("Maximum merged segment size must be positive");
+        }
+        if (mergeFactor < 2) {
+            throw new IllegalArgumentException("Merge factor must be at least 2");
+        }
+        if (mergeThreads != ConcurrentMergeScheduler.AUTO_DETECT_MERGES_AND_THREADS && mergeThreads < 1) {
+            throw new IllegalArgumentException("Merge threads must be at least 1, or -1 to detect automatically");
+        }
+        this.directoryType = directoryType;
+        this.ramBufferMB = ramBufferMB;
+        this.maxBufferedDocs = maxBufferedDocs;
+        this.mergePolicy = mergePolicy;
+        this.segmentsPerTier = segmentsPerTier;
+        this.maxMergeAtOnce = maxMergeAtOnce;
+        this.maxMergedSegmentMB = maxMergedSegmentMB;
+        this.mergeFactor = mergeFactor;
+        this.mergeThreads = mergeThreads;
+    }
+
+    public DirectoryType getDirectoryType() {
+        return this.directoryType;
+    }
+
+    public double getRamBufferMB() {
+        return this.ramBufferMB;
+    }
+
+    public int getMaxBufferedDocs() {
+        return this.maxBufferedDocs;
+    }
+
+    public MergePolicyType getMergePolicy() {
+        return this.mergePolicy;
+    }
+
+    public double getSegmentsPerTier() {
+        return this.segmentsPerTier;
+    }
+
+    public int getMaxMergeAtOnce() {
+        return this.maxMergeAtOnce;
+    }
+
+    public double getMaxMergedSegmentMB() {
+        return this.maxMergedSegmentMB;
+    }
+
+    public int getMergeFactor() {
+        return this.mergeFactor;
+    }
+
+    public int getMergeThreads() {
+        return this.mergeThreads;
+    }
+
+    /** Create an index writer configuration with these settings.
+     *
+     * @param analyzer the analyzer of the index writer
+     * @return a new index writer configuration
+     */
+    public IndexWriterConfig toWriterConfig(Analyzer analyzer) {
+        IndexWriterConfig config = new IndexWriterConfig(analyzer);
+        setFlushTriggers(config, this.ramBufferMB, this.maxBufferedDocs);
+        config.setMergePolicy(this.createMergePolicy());
+        ConcurrentMergeScheduler scheduler = new ConcurrentMergeScheduler();
+        if (this.mergeThreads != ConcurrentMergeScheduler.AUTO_DETECT_MERGES_AND_THREADS) {
+            // allow a few merges to be queued before indexing threads are stalled
+            scheduler.setMaxMergesAndThreads(this.mergeThreads + 5, this.mergeThreads);
+        }
+        config.setMergeScheduler(scheduler);
+        return config;
+    }
+
+    /** Change the flush triggers of a writer configuration, which may already be live.
+     * The two triggers are changed in an order which never disables both at once.
+     */
+    static void setFlushTriggers(LiveIndexWriterConfig config, double ramBufferMB, int maxBufferedDocs) {
+        if (ramBufferMB == IndexWriterConfig.DISABLE_AUTO_FLUSH) {
+            config.setMaxBufferedDocs(maxBufferedDocs);
+            config.setRAMBufferSizeMB(ramBufferMB);
+        } else {
+            config.setRAMBufferSizeMB(ramBufferMB);
+            config.setMaxBufferedDocs(maxBufferedDocs);
+        }
+    }
+
+    private MergePolicy createMergePolicy() {
+        switch (this.mergePolicy) {
+            case LOG_BYTE_SIZE:
+                return configured(new LogByteSizeMergePolicy());
+            case LOG_DOC:
+                return configured(new LogDocMergePolicy());
+            default:
+                TieredMergePolicy tiered = new TieredMergePolicy();
+                tiered.setSegmentsPerTier(this.segmentsPerTier);
+                tiered.setMaxMergeAtOnce(this.maxMergeAtOnce);
+                tiered.setMaxMergedSegmentMB(this.maxMergedSegmentMB);
+                return tiered;
+        }
+    }
+
+    private LogMergePolicy configured(LogMergePolicy policy) {
+        policy.setMergeFactor(this.mergeFactor);
+        return policy;
+    }
+
+    @Override
+    public String toString() {
+        return "IndexConfig{directory=" + this.directoryType + ", ramBufferMB=" + this.ramBufferMB
+                + ", maxBufferedDocs=" + this.maxBufferedDocs + ", mergePolicy=" + this.mergePolicy
+                + ", segmentsPerTier=" + this.segmentsPerTier + ", maxMergeAtOnce=" + this.maxMergeAtOnce
+                + ", maxMergedSegmentMB=" + this.maxMergedSegmentMB + ", mergeFactor=" + this.mergeFactor
+                + ", mergeThreads=" + this.mergeThreads + '}';
+    }
+}
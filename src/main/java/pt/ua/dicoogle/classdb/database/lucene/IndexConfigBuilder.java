@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.database.lucene;
+
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LogMergePolicy;
+
+public class IndexConfigBuilder {
+    private IndexConfig.DirectoryType directoryType = IndexConfig.DirectoryType.AUTO;
+    private double ramBufferMB = IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB;
+    private int maxBufferedDocs = IndexWriterConfig.DEFAULT_MAX_BUFFERED_DOCS;
+    private IndexConfig.MergePolicyType mergePolicy = IndexConfig.MergePolicyType.TIERED;
+    private double segmentsPerTier = 10;
+    private int maxMergeAtOnce = 10;
+    private double maxMergedSegmentMB = 5 * 1024;
+    private int mergeFactor = LogMergePolicy.DEFAULT_MERGE_FACTOR;
+    private int mergeThreads = ConcurrentMergeScheduler.AUTO_DETECT_MERGES_AND_THREADS;
+
+    public IndexConfigBuilder() {
+    }
+
+    public IndexConfigBuilder(IndexConfig config) {
+        this.directoryType = config.getDirectoryType();
+        this.ramBufferMB = config.getRamBufferMB();
+        this.maxBufferedDocs = config.getMaxBufferedDocs();
+        this.mergePolicy = config.getMergePolicy();
+        this.segmentsPerTier = config.getSegmentsPerTier();
+        this.maxMergeAtOnce = config.getMaxMergeAtOnce();
+        this.maxMergedSegmentMB = config.getMaxMergedSegmentMB();
+        this.mergeFactor = config.getMergeFactor();
+        this.mergeThreads = config.getMergeThreads();
+    }
+
+    public IndexConfigBuilder setDirectoryType(IndexConfig.DirectoryType directoryType) {
+        this.directoryType = directoryType;
+        return this;
+    }
+
+    public IndexConfigBuilder setRamBufferMB(double ramBufferMB) {
+        this.ramBufferMB = ramBufferMB;
+        return this;
+    }
+
+    public IndexConfigBuilder setMaxBufferedDocs(int maxBufferedDocs) {
+        this.maxBufferedDocs = maxBufferedDocs;
+        return this;
+    }
+
+    public IndexConfigBuilder setMergePolicy(IndexConfig.MergePolicyType mergePolicy) {
+        this.mergePolicy = mergePolicy;
+        return this;
+    }
+
+    public IndexConfigBuilder setSegmentsPerTier(double segmentsPerTier) {
+        this.segmentsPerTier = segmentsPerTier;
+        return this;
+    }
+
+    public IndexConfigBuilder setMaxMergeAtOnce(int maxMergeAtOnce) {
+        this.maxMergeAtOnce = maxMergeAtOnce;
+        return this;
+    }
+
+    public IndexConfigBuilder setMaxMergedSegmentMB(double maxMergedSegmentMB) {
+        this.maxMergedSegmentMB = maxMergedSegmentMB;
+        return this;
+    }
+
+    public IndexConfigBuilder setMergeFactor(int mergeFactor) {
+        this.mergeFactor = mergeFactor;
+        return this;
+    }
+
+    public IndexConfigBuilder setMergeThreads(int mergeThreads) {
+        this.mergeThreads = mergeThreads;
+        return this;
+    }
+
+    /**
+     * @return the index settings
+     * @throws IllegalArgumentException if any of the settings is invalid
+     */
+    public IndexConfig build() {
+        return new IndexConfig(directoryType, ramBufferMB, maxBufferedDocs, mergePolicy, segmentsPerTier,
+                maxMergeAtOnce, maxMergedSegmentMB, mergeFactor, mergeThreads);
+    }
+}
@@ -0,0 +1,176 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.database.lucene;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/** A snapshot of the health and statistics of a Lucene classification index.
+ *
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public class IndexStats {
+
+    /** A segment of the last commit. */
+    public static class Segment {
+        private final String name;
+        private final int docCount;
+        private final int deletedDocs;
+        private final long sizeBytes;
+        private final boolean compound;
+
+        public Segment(String name, int docCount, int deletedDocs, long sizeBytes, boolean compound) {
+            this.name = name;
+            this.docCount = docCount;
+            this.deletedDocs = deletedDocs;
+            this.sizeBytes = sizeBytes;
+            this.compound = compound;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        /** @return the number of documents in the segment, including deleted ones */
+        public int getDocCount() {
+            return this.docCount;
+        }
+
+        public int getDeletedDocs() {
+            return this.deletedDocs;
+        }
+
+        public long getSizeBytes() {
+            return this.sizeBytes;
+        }
+
+        public boolean isCompound() {
+            return this.compound;
+        }
+    }
+
+    private final int numDocs;
+    private final int maxDoc;
+    private final List<Segment> segments;
+    private final long diskBytes;
+    private final long lastCommitGeneration;
+    private final long readerGeneration;
+    private final long readerVersion;
+    private final boolean readerCurrent;
+    private final int pendingDocs;
+    private final long pendingBytes;
+    private final boolean uncommittedChanges;
+    private final Map<String, Map<String, Long>> counts;
+
+    IndexStats(int numDocs, int maxDoc, List<Segment> segments, long diskBytes,
+               long lastCommitGeneration, long readerGeneration, long readerVersion, boolean readerCurrent,
+               int pendingDocs, long pendingBytes, boolean uncommittedChanges,
+               Map<String, Map<String, Long>> counts) {
+        this.numDocs = numDocs;
+        this.maxDoc = maxDoc;
+        this.segments = Collections.unmodifiableList(segments);
+        this.diskBytes = diskBytes;
+        this.lastCommitGeneration = lastCommitGeneration;
+        this.readerGeneration = readerGeneration;
+        this.readerVersion = readerVersion;
+        this.readerCurrent = readerCurrent;
+        this.pendingDocs = pendingDocs;
+        this.pendingBytes = pendingBytes;
+        this.uncommittedChanges = uncommittedChanges;
+        this.counts = Collections.unmodifiableMap(counts);
+    }
+
+    /** @return the number of live documents (predictions) in the last commit */
+    public int getNumDocs() {
+        return this.numDocs;
+    }
+
+    /** @return the number of documents in the last commit, including deleted ones */
+    public int getMaxDoc() {
+        return this.maxDoc;
+    }
+
+    public int getDeletedDocs() {
+        return this.maxDoc - this.numDocs;
+    }
+
+    /** @return the ratio of deleted documents, between 0 and 1 */
+    public double getDeletedRatio() {
+        return this.maxDoc == 0 ? 0 : (double) this.getDeletedDocs() / this.maxDoc;
+    }
+
+    /** @return the segments of the last commit */
+    public List<Segment> getSegments() {
+        return this.segments;
+    }
+
+    /** @return the total size of the index directory, in bytes */
+    public long getDiskBytes() {
+        return this.diskBytes;
+    }
+
+    /** @return the generation of the last commit, or -1 if nothing was committed */
+    public long getLastCommitGeneration() {
+        return this.lastCommitGeneration;
+    }
+
+    /** @return the commit generation seen by the searching reader, or -1 if no reader is open */
+    public long getReaderGeneration() {
+        return this.readerGeneration;
+    }
+
+    /** @return the version of the searching reader, or -1 if no reader is open */
+    public long getReaderVersion() {
+        return this.readerVersion;
+    }
+
+    /** @return whether the searching reader sees the last commit */
+    public boolean isReaderCurrent() {
+        return this.readerCurrent;
+    }
+
+    /** @return how many commits the searching reader is behind of */
+    public long getReaderStaleness() {
+        if (this.readerGeneration == -1) {
+            return this.lastCommitGeneration == -1 ? 0 : 1;
+        }
+        return Math.max(0, this.lastCommitGeneration - this.readerGeneration);
+    }
+
+    /** @return the number of documents buffered in the writer, not yet flushed */
+    public int getPendingDocs() {
+        return this.pendingDocs;
+    }
+
+    /** @return the memory used by the writer's buffered changes, in bytes */
+    public long getPendingBytes() {
+        return this.pendingBytes;
+    }
+
+    /** @return whether the writer holds changes which were not committed */
+    public boolean hasUncommittedChanges() {
+        return this.uncommittedChanges;
+    }
+
+    /** @return the number of live documents by classifier and then by criterion */
+    public Map<String, Map<String, Long>> getCounts() {
+        return this.counts;
+    }
+}
@@ -21,38 +21,77 @@ package pt.ua.dicoogle.classdb.database.lucene;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.core.SimpleAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.document.SortedNumericDocValuesField;
 import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocValues;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiDocValues;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.SegmentCommitInfo;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.SortedNumericDocValues;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.queryparser.flexible.core.QueryNodeException;
 import org.apache.lucene.queryparser.flexible.standard.StandardQueryParser;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.SimpleCollector;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
 import org.apache.lucene.search.SortedNumericSortField;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.TopFieldCollector;
+import org.apache.lucene.search.Weight;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
 import org.apache.lucene.util.NumericUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -60,12 +99,24 @@ import org.slf4j.LoggerFactory;
 import pt.ua.dicoogle.classdb.database.Database;
 import pt.ua.dicoogle.classdb.database.DatabaseReader;
 import pt.ua.dicoogle.classdb.database.DatabaseWriter;
+import pt.ua.dicoogle.classdb.database.QueryProfile;
+import pt.ua.dicoogle.classdb.database.SlowQueryLog;
+import pt.ua.dicoogle.classdb.database.struct.Aggregation;
 import pt.ua.dicoogle.classdb.database.struct.DatabaseItem;
 import pt.ua.dicoogle.classdb.database.struct.DatabaseItemImpl;
+import pt.ua.dicoogle.classdb.database.struct.Facet;
 import pt.ua.dicoogle.classdb.database.struct.QueryParameters;
+import pt.ua.dicoogle.classdb.database.struct.ResultBatch;
 import pt.ua.dicoogle.classdb.database.util.ItemPrediction;
 import pt.ua.dicoogle.classdb.database.util.RuntimeIOException;
 import pt.ua.dicoogle.classdb.database.util.StreamUtil;
+import pt.ua.dicoogle.classdb.events.CommitEvent;
+import pt.ua.dicoogle.classdb.events.FlightEvents;
+import pt.ua.dicoogle.classdb.events.IndexWriteEvent;
+import pt.ua.dicoogle.classdb.events.ReaderRefreshEvent;
+import pt.ua.dicoogle.classdb.events.SearchEvent;
+import pt.ua.dicoogle.classdb.metrics.Histogram;
+import pt.ua.dicoogle.classdb.metrics.Metrics;
 
 /**
  * @author Eduardo Pinho <eduardopinho@ua.pt>
@@ -73,25 +124,82 @@ import pt.ua.dicoogle.classdb.database.util.StreamUtil;
 public class LuceneDatabase implements Database {
     private static final Logger logger = LoggerFactory.getLogger(LuceneDatabase.class);
 
-    private static final String FIELD_URI = "uri";
-    private static final String FIELD_CLASSIFICATION_ID = "id";
-    private static final String FIELD_CLASSIFIER_NAME = "classifier";
-    private static final String FIELD_CRITERION = "criterion";
-    private static final String FIELD_PREDICTED_CLASS = "prediction";
-    private static final String FIELD_PROBABILITY = "prob";
-    private static final String FIELD_SCORE = "score";
-    private static final String FIELD_CONTENTS = "contents";
+    static final String FIELD_URI = "uri";
+    static final String FIELD_CLASSIFICATION_ID = "id";
+    static final String FIELD_CLASSIFIER_NAME = "classifier";
+    static final String FIELD_CRITERION = "criterion";
+    static final String FIELD_PREDICTED_CLASS = "prediction";
+    static final String FIELD_PROBABILITY = "prob";
+    static final String FIELD_SCORE = "score";
+    static final String FIELD_CONTENTS = "contents";
+    static final String FIELD_ENDPOINT_ID = "endpoint";
+    static final String FIELD_MODEL_VERSION = "version";
 
+    private static final Histogram ADD_LATENCY = Metrics.getDefault().histogram("classdb_writer_add_seconds",
+            "Latency of adding a prediction to the index");
+    private static final Histogram COMMIT_LATENCY = Metrics.getDefault().histogram("classdb_writer_commit_seconds",
+            "Latency of index commits");
+    private static final Histogram REFRESH_LATENCY = Metrics.getDefault().histogram("classdb_reader_refresh_seconds",
+            "Latency of opening or refreshing the index reader");
+    static final Histogram PARSE_LATENCY = queryPhase("parse");
+    static final Histogram SEARCH_LATENCY = queryPhase("search");
+    static final Histogram MATERIALIZE_LATENCY = queryPhase("materialize");
+
+    private static Histogram queryPhase(String phase) {
+        return Metrics.getDefault().histogram("classdb_query_phase_seconds",
+                "Latency of each query phase: parsing, hit collection and result materialization", "phase", phase);
+    }
+
+    /** The default size of the indexing buffer while in bulk ingest mode, in megabytes. */
+    public static final double DEFAULT_BULK_RAM_BUFFER_MB = 512;
+
+    private final IndexConfig config;
     private final FSDirectory dir;
     private volatile DirectoryReader reader;
+    private IndexWriter indexWriter;
+    private SuspendableMergePolicy mergePolicy;
+    private volatile SlowQueryLog slowQueryLog = null;
+    /** the indexing buffer size of the ongoing bulk ingest, or a negative value when not in bulk ingest mode */
+    private volatile double bulkRamBufferMB = -1;
+    private ExecutorService maintenance = null;
+    private volatile Future<?> pendingMerge = null;
 
     public LuceneDatabase(Path dir) throws IOException {
-        this.dir = FSDirectory.open(dir);
+        this(dir, IndexConfig.DEFAULT);
+    }
+
+    /** Open a Lucene database.
+     *
+     * @param dir the index directory
+     * @param config the storage and indexing settings
+     * @throws IOException on failure to open the directory
+     */
+    public LuceneDatabase(Path dir, IndexConfig config) throws IOException {
+        this.config = config;
+        this.dir = config.getDirectoryType().open(dir);
         this.reader = null;
+        this.indexWriter = null;
+    }
+
+    public IndexConfig getConfig() {
+        return this.config;
     }
 
     @Override
     public void close() throws IOException {
+        synchronized (this) {
+            if (this.maintenance != null) {
+                this.maintenance.shutdown();
+            }
+            if (this.indexWriter != null) {
+                try {
+                    this.indexWriter.close();
+                } catch (IOException e) {
+                    logger.warn("Failed to close Lucene Database writer", e);
+                }
+                this.indexWriter = null;
+            }
+        }
         if (this.reader != null) {
             try {
                 this.reader.close();
@@ -102,20 +210,165 @@ public class LuceneDatabase implements Database {
         this.dir.close();
     }
 
+    /** Define where the profiles of slow queries go.
+     * @param slowQueryLog the slow query log, or null to discard all query profiles
+     */
+    public void setSlowQueryLog(SlowQueryLog slowQueryLog) {
+        this.slowQueryLog = slowQueryLog;
+    }
+
     @Override
     public DatabaseWriter createWriter() throws IOException {
         return new Writer();
     }
 
-    protected synchronized IndexReader getUpdatedReader() throws IOException {
-        if (this.reader == null) {
-            this.reader = DirectoryReader.open(this.dir);
+    /** Obtain the index writer shared by all database writers, opening it if necessary.
+     * Lucene only admits one writer per index, so concurrent indexing tasks and services
+     * must go through the same instance.
+     *
+     * @return the shared index writer
+     * @throws IOException
+     */
+    protected synchronized IndexWriter getIndexWriter() throws IOException {
+        if (this.indexWriter == null || !this.indexWriter.isOpen()) {
+            Analyzer analyzer = new SimpleAnalyzer();
+            IndexWriterConfig config = this.config.toWriterConfig(analyzer);
+            config.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+            config.setCommitOnClose(true);
+            this.mergePolicy = new SuspendableMergePolicy(config.getMergePolicy());
+            config.setMergePolicy(this.mergePolicy);
+            this.indexWriter = new IndexWriter(this.dir, config);
+            this.applyIngestMode();
+        }
+        return this.indexWriter;
+    }
+
+    /** Enter bulk ingest mode. Until {@link #endBulkIngest(int)} is called, writers will not commit,
+     * documents are buffered in a larger indexing buffer, and no segments are merged. Since readers only
+     * see committed data, queries keep being served from the index as it was before the ingest.
+     * Changes which are still uncommitted on exit are committed when the database is closed.
+     *
+     * @param ramBufferMB the size of the indexing buffer in megabytes, shared by all indexing threads
+     * @throws IOException on failure to open the index writer
+     * @throws IllegalStateException if the database is already in bulk ingest mode
+     */
+    public synchronized void beginBulkIngest(double ramBufferMB) throws IOException {
+        if (!(ramBufferMB > 0)) {
+            throw new IllegalArgumentException("Bulk ingest RAM buffer must be positive");
+        }
+        if (this.isBulkIngesting()) {
+            throw new IllegalStateException("Bulk ingest already in progress");
+        }
+        this.bulkRamBufferMB = ramBufferMB;
+        if (this.indexWriter != null && this.indexWriter.isOpen()) {
+            this.applyIngestMode();
+        } else {
+            this.getIndexWriter();
+        }
+        logger.info("Entered bulk ingest mode with a {} MB indexing buffer", ramBufferMB);
+    }
+
+    /** Leave bulk ingest mode, committing everything that was indexed in the meantime as a single commit.
+     * Natural merging is resumed, and if a target segment count is given, the index is merged
+     * down to that many segments in the background, followed by another commit.
+     *
+     * @param maxSegments the maximum number of segments to merge down to, or 0 to skip the forced merge
+     * @throws IOException on failure to commit
+     * @throws IllegalStateException if the database is not in bulk ingest mode
+     */
+    public void endBulkIngest(int maxSegments) throws IOException {
+        if (maxSegments < 0) {
+            throw new IllegalArgumentException("Target segment count must not be negative");
+        }
+        IndexWriter writer;
+        synchronized (this) {
+            if (!this.isBulkIngesting()) {
+                throw new IllegalStateException("Not in bulk ingest mode");
+            }
+            this.bulkRamBufferMB = -1;
+            writer = this.getIndexWriter();
+            this.applyIngestMode();
+        }
+        long start = System.nanoTime();
+        try (Histogram.Timer t = COMMIT_LATENCY.startTimer()) {
+            writer.commit();
+        }
+        logger.info("Left bulk ingest mode, commit took {} ms", (System.nanoTime() - start) / 1_000_000);
+        if (maxSegments > 0) {
+            this.pendingMerge = this.maintenance().submit(() -> {
+                long mergeStart = System.nanoTime();
+                try {
+                    writer.forceMerge(maxSegments);
+                    writer.commit();
+                    logger.info("Merged index down to {} segments in {} ms", maxSegments,
+                            (System.nanoTime() - mergeStart) / 1_000_000);
+                } catch (IOException | RuntimeException e) {
+                    logger.warn("Post-ingest merge failed", e);
+                }
+            });
         } else {
-            DirectoryReader r = DirectoryReader.openIfChanged(this.reader);
-            if (r != null) {
-                this.reader = r;
+            writer.maybeMerge();
+        }
+    }
+
+    /** @return whether the database is in bulk ingest mode */
+    public boolean isBulkIngesting() {
+        return this.bulkRamBufferMB > 0;
+    }
+
+    @Override
+    public boolean defersCommits() {
+        return this.isBulkIngesting();
+    }
+
+    /** @return whether a post-ingest merge is still running */
+    public boolean isMerging() {
+        Future<?> merge = this.pendingMerge;
+        return merge != null && !merge.isDone();
+    }
+
+    /** Apply the current ingest mode to the live settings of the open index writer. */
+    private void applyIngestMode() {
+        double bulkBuffer = this.bulkRamBufferMB;
+        if (bulkBuffer > 0) {
+            IndexConfig.setFlushTriggers(this.indexWriter.getConfig(), bulkBuffer, IndexWriterConfig.DISABLE_AUTO_FLUSH);
+            this.mergePolicy.setSuspended(true);
+        } else {
+            IndexConfig.setFlushTriggers(this.indexWriter.getConfig(), this.config.getRamBufferMB(),
+                    this.config.getMaxBufferedDocs());
+            this.mergePolicy.setSuspended(false);
+        }
+    }
+
+    private synchronized ExecutorService maintenance() {
+        if (this.maintenance == null) {
+            this.maintenance = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "classdb-index-maintenance");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return this.maintenance;
+    }
+
+    protected synchronized IndexReader getUpdatedReader() throws IOException {
+        ReaderRefreshEvent event = FlightEvents.readerRefresh();
+        boolean changed = true;
+        try (Histogram.Timer t = REFRESH_LATENCY.startTimer()) {
+            if (this.reader == null) {
+                this.reader = DirectoryReader.open(this.dir);
+            } else {
+                DirectoryReader r = DirectoryReader.openIfChanged(this.reader);
+                if (r != null) {
+                    this.reader = r;
+                } else {
+                    changed = false;
+                }
             }
         }
+        if (event != null) {
+            event.finish(changed, this.reader.numDocs(), this.reader.getVersion());
+        }
         return this.reader;
     }
 
@@ -124,23 +377,169 @@ public class LuceneDatabase implements Database {
         return new Reader();
     }
 
+    /** Obtain the health and statistics of the index. Document and segment counts refer to the last commit.
+     *
+     * @return a snapshot of the index statistics
+     * @throws IOException on failure to read the index
+     */
+    public IndexStats stats() throws IOException {
+        // inspect the searching reader before it is refreshed below
+        DirectoryReader searching = this.reader;
+        long readerGeneration = -1;
+        long readerVersion = -1;
+        boolean readerCurrent = false;
+        if (searching != null) {
+            readerGeneration = searching.getIndexCommit().getGeneration();
+            readerVersion = searching.getVersion();
+            readerCurrent = searching.isCurrent();
+        }
+
+        int pendingDocs = 0;
+        long pendingBytes = 0;
+        boolean uncommittedChanges = false;
+        synchronized (this) {
+            if (this.indexWriter != null && this.indexWriter.isOpen()) {
+                pendingDocs = this.indexWriter.numRamDocs();
+                pendingBytes = this.indexWriter.ramBytesUsed();
+                uncommittedChanges = this.indexWriter.hasUncommittedChanges();
+            }
+        }
+
+        long diskBytes = 0;
+        for (String file : this.dir.listAll()) {
+            try {
+                diskBytes += this.dir.fileLength(file);
+            } catch (NoSuchFileException e) {
+                // deleted in the meantime
+            }
+        }
+
+        List<IndexStats.Segment> segments = new ArrayList<>();
+        int maxDoc = 0;
+        int numDocs = 0;
+        long lastCommitGeneration = -1;
+        Map<String, Map<String, Long>> counts = new TreeMap<>();
+        if (DirectoryReader.indexExists(this.dir)) {
+            SegmentInfos infos = SegmentInfos.readLatestCommit(this.dir);
+            lastCommitGeneration = infos.getGeneration();
+            for (SegmentCommitInfo info : infos) {
+                segments.add(new IndexStats.Segment(info.info.name, info.info.maxDoc(), info.getDelCount(),
+                        info.sizeInBytes(), info.info.getUseCompoundFile()));
+                maxDoc += info.info.maxDoc();
+                numDocs += info.info.maxDoc() - info.getDelCount();
+            }
+
+            // count all predictions, regardless of score
+            AggregationCollector collector = new AggregationCollector(
+                    new Aggregation(Arrays.asList(Facet.CLASSIFIER, Facet.CRITERION), 1), FIELD_SCORE,
+                    new String[]{FIELD_CLASSIFIER_NAME, FIELD_CRITERION}, FIELD_URI, FIELD_CRITERION, -1, false);
+            new IndexSearcher(this.getUpdatedReader()).search(new MatchAllDocsQuery(), collector);
+            for (Aggregation.Bucket b : collector.finish().getBuckets()) {
+                counts.computeIfAbsent(b.getKey().get(0), k -> new TreeMap<>())
+                        .put(b.getKey().get(1), b.getCount());
+            }
+        }
+
+        return new IndexStats(numDocs, maxDoc, segments, diskBytes, lastCommitGeneration, readerGeneration,
+                readerVersion, readerCurrent, pendingDocs, pendingBytes, uncommittedChanges, counts);
+    }
+
+    /** Warm up the index, so that the first queries do not pay for cold caches. This opens the searching
+     * reader, reads through the doc values used for sorting and grouping, and runs the given queries.
+     * Queries which fail are logged and skipped, as are the fields of segments written without doc values.
+     *
+     * @param queries representative queries to run
+     * @param touchDocValues whether to read the doc values of all documents
+     * @throws IOException on failure to open the index
+     */
+    public void warmUp(Collection<String> queries, boolean touchDocValues) throws IOException {
+        if (!DirectoryReader.indexExists(this.dir)) {
+            logger.debug("Nothing to warm up, the index is empty");
+            return;
+        }
+        long start = System.nanoTime();
+        IndexReader reader = this.getUpdatedReader();
+        if (touchDocValues) {
+            long checksum = 0;
+            for (LeafReaderContext leaf : reader.leaves()) {
+                LeafReader r = leaf.reader();
+                SortedNumericDocValues scores = DocValues.getSortedNumeric(r, FIELD_SCORE);
+                List<SortedDocValues> sorted = new ArrayList<>(4);
+                for (String field : new String[]{FIELD_URI, FIELD_CLASSIFIER_NAME, FIELD_CRITERION,
+                        FIELD_PREDICTED_CLASS}) {
+                    // null in segments written before these fields had doc values
+                    SortedDocValues values = r.getSortedDocValues(field);
+                    if (values != null) {
+                        sorted.add(values);
+                    }
+                }
+                for (int doc = 0; doc < r.maxDoc(); doc++) {
+                    scores.setDocument(doc);
+                    if (scores.count() > 0) {
+                        checksum += scores.valueAt(0);
+                    }
+                    for (SortedDocValues values : sorted) {
+                        checksum += values.getOrd(doc);
+                    }
+                }
+            }
+            logger.debug("Touched doc values of {} documents (checksum {})", reader.maxDoc(), checksum);
+        }
+        Reader searcher = new Reader();
+        for (String query : queries) {
+            try {
+                long hits = searcher.count(query, new QueryParameters());
+                long results = searcher.search(query, new QueryParameters()).count();
+                logger.debug("Warm-up query \"{}\": {} hits, {} results", query, hits, results);
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Warm-up query \"{}\" failed", query, e);
+            }
+        }
+        logger.info("Warmed up classification index in {} ms", (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /** Obtain the sorted doc values of a field in a segment. Segments written before the field had doc values
+     * yield empty values, so that all of their documents have the ordinal -1 and are read from stored fields.
+     */
+    static SortedDocValues sortedValues(LeafReader reader, String field) throws IOException {
+        SortedDocValues values = reader.getSortedDocValues(field);
+        return values != null ? values : DocValues.emptySorted();
+    }
+
+    private static String facetField(Facet facet) {
+        switch (facet) {
+            case CLASSIFIER:
+                return FIELD_CLASSIFIER_NAME;
+            case CRITERION:
+                return FIELD_CRITERION;
+            case PREDICTION:
+                return FIELD_PREDICTED_CLASS;
+            default:
+                throw new IllegalArgumentException("Unsupported facet " + facet);
+        }
+    }
+
     protected class Writer implements DatabaseWriter {
         private final IndexWriter writer;
 
         public Writer() throws IOException {
-            Analyzer analyzer = new SimpleAnalyzer();
-            IndexWriterConfig config = new IndexWriterConfig(analyzer);
-            config.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
-            config.setCommitOnClose(true);
-            this.writer = new IndexWriter(LuceneDatabase.this.dir, config);
+            this.writer = LuceneDatabase.this.getIndexWriter();
         }
 
         @Override
         public Writer add(DatabaseItem dbItem) throws IOException {
+            this.prepare(dbItem).write();
+            return this;
+        }
+
+        /** Build the item's document, leaving its analysis and indexing to the write. */
+        @Override
+        public Prepared prepare(DatabaseItem dbItem) {
             String uri = dbItem.item().toString();
             String predId = dbItem.predictionIdentifier().toString();
             String classificationId = uri + '|' + predId;
             String classifierCrit = dbItem.classifierName() + '/' + dbItem.criterion();
+            String endpointId = uri + '|' + classifierCrit;
             String pred = dbItem.predictedClass();
             String contents;
             if ("true".equals(pred)) {
@@ -152,17 +551,22 @@ public class LuceneDatabase implements Database {
                 contents = dbItem.item().toString() + ' ' + dbItem.classifierName()
                         + ' ' + dbItem.criterion() + ' ' + classifierCrit + ' ' + pred;
             }
-            List<IndexableField> doc = Arrays.asList(
+            List<IndexableField> doc = new ArrayList<>(Arrays.asList(
                     // classified item URI
                 new StringField(FIELD_URI, uri, Field.Store.YES),
+                    // classified item URI, for grouping without loading stored fields
+                new SortedDocValuesField(FIELD_URI, new BytesRef(uri)),
                     // classification ID (URI & prediction identifier)
                 new StringField(FIELD_CLASSIFICATION_ID, classificationId, Field.Store.NO),
                     // classifier name
                 new StringField(FIELD_CLASSIFIER_NAME, dbItem.classifierName(), Field.Store.YES),
+                new SortedDocValuesField(FIELD_CLASSIFIER_NAME, new BytesRef(dbItem.classifierName())),
                     // criterion (class family)
                 new StringField(FIELD_CRITERION, dbItem.criterion(), Field.Store.YES),
+                new SortedDocValuesField(FIELD_CRITERION, new BytesRef(dbItem.criterion())),
                     // prediction
                 new StringField(FIELD_PREDICTED_CLASS, dbItem.predictedClass(), Field.Store.YES),
+                new SortedDocValuesField(FIELD_PREDICTED_CLASS, new BytesRef(dbItem.predictedClass())),
                     // for "criterion:prediction" query support
                 new StringField(dbItem.criterion(), dbItem.predictedClass(), Field.Store.NO),
                     // for "classifier/criterion:prediction" query support
@@ -172,10 +576,27 @@ public class LuceneDatabase implements Database {
                     // integer-encoded probability, used as a score for sorting
                 new SortedNumericDocValuesField(FIELD_SCORE, encodeScore(dbItem.score())),
                     // analysed text field with the whole content (for free text queries)
-                new TextField(FIELD_CONTENTS, contents, Field.Store.NO)
-            );
-            writer.updateDocument(new Term(FIELD_CLASSIFICATION_ID, classificationId), doc);
-            return this;
+                new TextField(FIELD_CONTENTS, contents, Field.Store.NO),
+                    // item URI & endpoint, for checking whether the item was already classified
+                new StringField(FIELD_ENDPOINT_ID, endpointId, Field.Store.NO)
+            ));
+            if (dbItem.modelVersion() != null) {
+                // classifier model version
+                doc.add(new StringField(FIELD_MODEL_VERSION, dbItem.modelVersion(), Field.Store.YES));
+                doc.add(new SortedDocValuesField(FIELD_MODEL_VERSION, new BytesRef(dbItem.modelVersion())));
+            }
+            Term id = new Term(FIELD_CLASSIFICATION_ID, classificationId);
+            long size = 2 * (uri.length() + classificationId.length() + classifierCrit.length() + pred.length()
+                    + contents.length() + endpointId.length()) + Long.BYTES;
+            return () -> {
+                IndexWriteEvent event = FlightEvents.indexWrite();
+                try (Histogram.Timer t = ADD_LATENCY.startTimer()) {
+                    this.writer.updateDocument(id, doc);
+                }
+                if (event != null) {
+                    event.finish(dbItem.classifierName(), dbItem.criterion(), size);
+                }
+            };
         }
 
         public long encodeScore(double score) {
@@ -200,9 +621,32 @@ public class LuceneDatabase implements Database {
             return true;
         }
 
+        /** Remove the predictions of an endpoint on an item. Documents indexed by older versions of the plugin
+         * have no endpoint field, and are only ever replaced one prediction at a time.
+         */
+        @Override
+        public void removePredictions(URI item, String classifierName, String criterion) throws IOException {
+            String endpointId = item.toString() + '|' + classifierName + '/' + criterion;
+            this.writer.deleteDocuments(new Term(FIELD_ENDPOINT_ID, endpointId));
+        }
+
+        /** Commit all changes made so far. The shared index writer is kept open.
+         * In bulk ingest mode, the changes are left for the commit made on exit.
+         */
         @Override
         public void close() throws IOException {
-            this.writer.close();
+            if (LuceneDatabase.this.isBulkIngesting()) {
+                return;
+            }
+            CommitEvent event = FlightEvents.commit();
+            int bufferedDocs = event != null ? this.writer.numRamDocs() : 0;
+            long bufferedBytes = event != null ? this.writer.ramBytesUsed() : 0;
+            try (Histogram.Timer t = COMMIT_LATENCY.startTimer()) {
+                this.writer.commit();
+            }
+            if (event != null) {
+                event.finish(bufferedDocs, bufferedBytes);
+            }
         }
     }
 
@@ -217,36 +661,324 @@ public class LuceneDatabase implements Database {
 
         @Override
         public Stream<DatabaseItem> search(String query, QueryParameters params) throws IOException {
-            final Query q;
-            try {
-                q = createGenericQuery(query, params);
-            } catch (QueryNodeException e) {
-                throw new RuntimeIOException("Failed to parse query", e);
-            }
-            int n = params.getNumberOfResults();
-            if (n == -1 || params.isOnlyBest()) {
-                n = this.reader.maxDoc();
+            SearchEvent event = FlightEvents.search();
+            QueryProfile profile = new QueryProfile("search", query, params);
+            final Query q = parse(query, params, profile);
+            ScoreDoc[] hits = this.topDocs(q, params, profile);
+            if (event != null) {
+                event.finish("search", query, hits.length);
             }
-            TopFieldCollector collector = TopFieldCollector.create(
-                    new Sort(new SortedNumericSortField("score", SortField.Type.LONG, true)), n, true, true, false);
-
-            this.searcher.search(q, collector);
-
-            Stream<DatabaseItem> stream = Arrays.stream(collector.topDocs().scoreDocs)
+            Stream<DatabaseItem> stream = Arrays.stream(hits)
                     .map(sd -> {
+                        long t = System.nanoTime();
                         try {
                             return toItem(this.reader.document(sd.doc));
                         } catch (IOException e) {
                             throw new RuntimeIOException(e);
+                        } finally {
+                            profile.addLoadTime(System.nanoTime() - t);
                         }
                     }).filter(item -> item.score() > params.getThreshold());
             if (params.isOnlyBest()) {
-                stream = StreamUtil.firstOf(stream, ItemPrediction::from);
-                if (n > 0) {
-                    stream = stream.limit(n);
+                stream = StreamUtil.firstOfStreaming(stream, ItemPrediction::from);
+                if (params.getNumberOfResults() != -1) {
+                    stream = stream.limit(params.getNumberOfResults());
+                }
+            }
+            return ProfiledSpliterator.stream(stream.spliterator(), item -> 1, (nanos, results) -> {
+                if (params.isOnlyBest()) {
+                    // whatever was not spent loading hits was spent grouping them
+                    profile.addGroupTime(Math.max(0, nanos - profile.getLoadNanos()));
+                }
+                this.done(profile, results, nanos);
+            });
+        }
+
+        @Override
+        public Stream<ResultBatch> searchBatches(String query, QueryParameters params, int batchSize) throws IOException {
+            SearchEvent event = FlightEvents.search();
+            QueryProfile profile = new QueryProfile("searchBatches", query, params);
+            final Query q = parse(query, params, profile);
+            ScoreDoc[] hits = this.topDocs(q, params, profile);
+            if (event != null) {
+                event.finish("searchBatches", query, hits.length);
+            }
+            ResultBatchIterator it = new ResultBatchIterator(this.reader, hits, params, batchSize);
+            // batches are filled from doc values, with grouping included
+            return ProfiledSpliterator.stream(Spliterators.spliteratorUnknownSize(it, Spliterator.ORDERED),
+                    ResultBatch::size, (nanos, results) -> {
+                        profile.addLoadTime(nanos);
+                        this.done(profile, results, nanos);
+                    });
+        }
+
+        /** Collect the hits of a query, ordered by descending score. When only the best predictions are wanted,
+         * all hits are collected, since the number of results is only known after grouping.
+         */
+        private ScoreDoc[] topDocs(Query q, QueryParameters params, QueryProfile profile) throws IOException {
+            int n = params.getNumberOfResults();
+            if (n == -1 || params.isOnlyBest()) {
+                n = this.reader.maxDoc();
+            }
+            TopFieldCollector collector = TopFieldCollector.create(
+                    new Sort(new SortedNumericSortField(FIELD_SCORE, SortField.Type.LONG, true)), Math.max(1, n), true, true, false);
+
+            this.collect(q, collector, profile);
+            ScoreDoc[] hits = collector.topDocs().scoreDocs;
+            profile.setHits(hits.length);
+            return hits;
+        }
+
+        @Override
+        public Stream<DatabaseItem> predictionsOf(URI item, String classifierName, String criterion) throws IOException {
+            QueryProfile profile = new QueryProfile("predictionsOf", item + " " + classifierName + '/' + criterion,
+                    QueryParameters.DEFAULT);
+            Query q = new BooleanQuery.Builder()
+                    .add(createEqualItem(item), BooleanClause.Occur.FILTER)
+                    .add(createEqualClassifierName(classifierName), BooleanClause.Occur.FILTER)
+                    .add(createEqualCriterion(criterion), BooleanClause.Occur.FILTER)
+                    .build();
+            profile.parsed(q, 0);
+            // few documents are expected, so collect them all instead of using a top-N collector
+            List<Integer> docs = new ArrayList<>();
+            this.collect(q, new SimpleCollector() {
+                private int docBase;
+
+                @Override
+                protected void doSetNextReader(LeafReaderContext context) throws IOException {
+                    this.docBase = context.docBase;
+                }
+
+                @Override
+                public void collect(int doc) throws IOException {
+                    docs.add(this.docBase + doc);
+                }
+
+                @Override
+                public boolean needsScores() {
+                    return false;
+                }
+            }, profile);
+            profile.setHits(docs.size());
+            List<DatabaseItem> items = new ArrayList<>(docs.size());
+            try (Histogram.Timer t = MATERIALIZE_LATENCY.startTimer()) {
+                for (int doc : docs) {
+                    items.add(toItem(this.reader.document(doc)));
                 }
+                profile.addLoadTime(t.elapsed());
+            }
+            items.sort(Comparator.comparingDouble(DatabaseItem::score).reversed());
+            this.done(profile, items.size());
+            return items.stream();
+        }
+
+        /** Stream the outdated items segment by segment, straight from the URI doc values. Items are
+         * deduplicated with a bit set over the global ordinals of the URIs. Documents of legacy segments,
+         * without URI doc values, have their URI read from the stored fields instead.
+         */
+        @Override
+        public Stream<URI> outdatedItems(Map<String, String> modelVersions) throws IOException {
+            if (modelVersions.isEmpty()) {
+                return Stream.empty();
+            }
+            BooleanQuery.Builder anyOutdated = new BooleanQuery.Builder();
+            for (Map.Entry<String, String> e : modelVersions.entrySet()) {
+                anyOutdated.add(new BooleanQuery.Builder()
+                        .add(createEqualClassifierName(e.getKey()), BooleanClause.Occur.FILTER)
+                        .add(new TermQuery(new Term(FIELD_MODEL_VERSION, e.getValue())), BooleanClause.Occur.MUST_NOT)
+                        .build(), BooleanClause.Occur.SHOULD);
+            }
+            SortedDocValues globalUris = MultiDocValues.getSortedValues(this.reader, FIELD_URI);
+            // an index written before doc values may have none at all
+            SortedDocValues uris = globalUris != null ? globalUris : DocValues.emptySorted();
+            Set<String> legacyUris = new HashSet<>();
+            Set<String> storedFields = Collections.singleton(FIELD_URI);
+            Weight weight = this.searcher.createNormalizedWeight(anyOutdated.build(), false);
+            FixedBitSet seen = new FixedBitSet(uris.getValueCount());
+            Iterator<LeafReaderContext> leaves = this.reader.leaves().iterator();
+            return StreamSupport.stream(new Spliterators.AbstractSpliterator<URI>(Long.MAX_VALUE,
+                    Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL) {
+                private DocIdSetIterator docs = null;
+                private int docBase;
+                private Bits liveDocs;
+
+                @Override
+                public boolean tryAdvance(Consumer<? super URI> action) {
+                    try {
+                        while (true) {
+                            if (this.docs == null) {
+                                if (!leaves.hasNext()) {
+                                    return false;
+                                }
+                                LeafReaderContext leaf = leaves.next();
+                                Scorer scorer = weight.scorer(leaf);
+                                if (scorer == null) {
+                                    continue;
+                                }
+                                this.docs = scorer.iterator();
+                                this.docBase = leaf.docBase;
+                                this.liveDocs = leaf.reader().getLiveDocs();
+                            }
+                            int doc = this.docs.nextDoc();
+                            if (doc == DocIdSetIterator.NO_MORE_DOCS) {
+                                this.docs = null;
+                                continue;
+                            }
+                            if (this.liveDocs != null && !this.liveDocs.get(doc)) {
+                                continue;
+                            }
+                            int ord = uris.getOrd(this.docBase + doc);
+                            if (ord == -1) {
+                                String uri = Reader.this.reader.document(this.docBase + doc, storedFields).get(FIELD_URI);
+                                // the same item may also be in a segment with doc values
+                                int known = uris.lookupTerm(new BytesRef(uri));
+                                if (known >= 0 ? seen.getAndSet(known) : !legacyUris.add(uri)) {
+                                    continue;
+                                }
+                                action.accept(URI.create(uri));
+                                return true;
+                            }
+                            if (seen.getAndSet(ord)) {
+                                continue;
+                            }
+                            action.accept(URI.create(uris.lookupOrd(ord).utf8ToString()));
+                            return true;
+                        }
+                    } catch (IOException e) {
+                        throw new RuntimeIOException(e);
+                    }
+                }
+            }, false);
+        }
+
+        /** Check whether an item was already classified with a direct lookup of its endpoint term.
+         * Predictions indexed before endpoint terms were introduced are not found.
+         */
+        @Override
+        public boolean isClassified(URI item, String classifierName, String criterion, String modelVersion)
+                throws IOException {
+            BytesRef endpointId = new BytesRef(item.toString() + '|' + classifierName + '/' + criterion);
+            BytesRef version = modelVersion != null ? new BytesRef(modelVersion) : null;
+            for (LeafReaderContext leaf : this.reader.leaves()) {
+                LeafReader r = leaf.reader();
+                Terms terms = r.terms(FIELD_ENDPOINT_ID);
+                if (terms == null) {
+                    continue;
+                }
+                TermsEnum termsEnum = terms.iterator();
+                if (!termsEnum.seekExact(endpointId)) {
+                    continue;
+                }
+                Bits liveDocs = r.getLiveDocs();
+                SortedDocValues versions = version != null ? DocValues.getSorted(r, FIELD_MODEL_VERSION) : null;
+                PostingsEnum postings = termsEnum.postings(null, PostingsEnum.NONE);
+                for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+                    if (liveDocs != null && !liveDocs.get(doc)) {
+                        continue;
+                    }
+                    if (versions == null || version.equals(versions.get(doc))) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public long count(String query, QueryParameters params) throws IOException {
+            SearchEvent event = FlightEvents.search();
+            QueryProfile profile = new QueryProfile("count", query, params);
+            final Query q = parse(query, params, profile);
+            long count;
+            if (params.isOnlyBest()) {
+                BestOfCountCollector collector = new BestOfCountCollector(
+                        FIELD_SCORE, FIELD_URI, FIELD_CRITERION, params.getThreshold());
+                this.collect(q, collector, profile);
+                count = collector.getCount();
+            } else {
+                ThresholdCountCollector collector = new ThresholdCountCollector(FIELD_SCORE, params.getThreshold(), -1);
+                this.collect(q, collector, profile);
+                count = collector.getCount();
+            }
+            if (event != null) {
+                event.finish("count", query, count);
+            }
+            profile.setHits(count);
+            this.done(profile, 1);
+            return count;
+        }
+
+        @Override
+        public boolean exists(String query, QueryParameters params) throws IOException {
+            SearchEvent event = FlightEvents.search();
+            QueryProfile profile = new QueryProfile("exists", query, params);
+            final Query q = parse(query, params, profile);
+            ThresholdCountCollector collector = new ThresholdCountCollector(FIELD_SCORE, params.getThreshold(), 1);
+            this.collect(q, collector, profile);
+            if (event != null) {
+                event.finish("exists", query, collector.getCount());
+            }
+            profile.setHits(collector.getCount());
+            this.done(profile, 1);
+            return collector.getCount() > 0;
+        }
+
+        @Override
+        public Aggregation aggregate(String query, QueryParameters params, List<Facet> facets, int nbins) throws IOException {
+            SearchEvent event = FlightEvents.search();
+            QueryProfile profile = new QueryProfile("aggregate", query, params);
+            final Query q = parse(query, params, profile);
+            String[] facetFields = facets.stream()
+                    .map(LuceneDatabase::facetField)
+                    .toArray(String[]::new);
+            AggregationCollector collector = new AggregationCollector(new Aggregation(facets, nbins), FIELD_SCORE,
+                    facetFields, FIELD_URI, FIELD_CRITERION, params.getThreshold(), params.isOnlyBest());
+            this.collect(q, collector, profile);
+            long t = System.nanoTime();
+            Aggregation aggregation = collector.finish();
+            profile.addGroupTime(System.nanoTime() - t);
+            if (event != null) {
+                event.finish("aggregate", query, aggregation.getTotalCount());
+            }
+            profile.setHits(aggregation.getTotalCount());
+            this.done(profile, aggregation.getBucketCount());
+            return aggregation;
+        }
+
+        private void collect(Query q, Collector collector, QueryProfile profile) throws IOException {
+            try (Histogram.Timer t = SEARCH_LATENCY.startTimer()) {
+                this.searcher.search(q, collector);
+                profile.addCollectTime(t.elapsed());
+            }
+        }
+
+        private Query parse(String query, QueryParameters params, QueryProfile profile) {
+            try (Histogram.Timer t = PARSE_LATENCY.startTimer()) {
+                Query q = createGenericQuery(query, params);
+                profile.parsed(q, t.elapsed());
+                return q;
+            } catch (QueryNodeException e) {
+                throw new RuntimeIOException("Failed to parse query", e);
+            }
+        }
+
+        /** Finish a query's profile, handing it to the slow query log. */
+        private void done(QueryProfile profile, long results) {
+            profile.finish(results);
+            this.submit(profile);
+        }
+
+        /** Conclude the profile of a streamed query, which is done once the stream is exhausted or closed. */
+        private void done(QueryProfile profile, long results, long produceNanos) {
+            profile.finish(results, produceNanos);
+            this.submit(profile);
+        }
+
+        private void submit(QueryProfile profile) {
+            SlowQueryLog log = LuceneDatabase.this.slowQueryLog;
+            if (log != null) {
+                log.submit(profile);
             }
-            return stream;
         }
 
         protected DatabaseItem toItem(Document doc) {
@@ -255,7 +987,8 @@ public class LuceneDatabase implements Database {
             String criterion = doc.get(FIELD_CRITERION);
             String prediction = doc.get(FIELD_PREDICTED_CLASS);
             double prob = doc.getField(FIELD_PROBABILITY).numericValue().doubleValue();
-            return new DatabaseItemImpl(URI.create(uri), classifier, criterion, prediction, prob);
+            String modelVersion = doc.get(FIELD_MODEL_VERSION);
+            return new DatabaseItemImpl(URI.create(uri), classifier, criterion, prediction, prob, modelVersion);
         }
 
         protected Query createGenericQuery(String query, QueryParameters params) throws QueryNodeException {
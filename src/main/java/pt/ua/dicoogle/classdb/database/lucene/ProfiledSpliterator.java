@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.database.lucene;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/** A spliterator which measures the time spent producing each element, excluding the time spent by
+ * the consumer, and reports it once the source is exhausted or the stream is closed.
+ *
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+final class ProfiledSpliterator<T> implements Spliterator<T> {
+
+    /** Receives the outcome of a profiled stream. */
+    @FunctionalInterface
+    interface Listener {
+        /**
+         * @param nanos the time spent producing elements
+         * @param count the sum of the weights of the elements produced
+         */
+        void done(long nanos, long count);
+    }
+
+    private final Spliterator<T> source;
+    private final ToLongFunction<? super T> weight;
+    private final Listener listener;
+    private long nanos = 0;
+    private long count = 0;
+    private long mark;
+    private boolean done = false;
+
+    private ProfiledSpliterator(Spliterator<T> source, ToLongFunction<? super T> weight, Listener listener) {
+        this.source = source;
+        this.weight = weight;
+        this.listener = listener;
+    }
+
+    /** Create a sequential stream which reports to the listener once exhausted or closed.
+     *
+     * @param source the source of elements
+     * @param weight how much each element counts towards the reported count
+     * @param listener the listener of the outcome
+     * @param <T> the element type
+     * @return a new stream
+     */
+    static <T> Stream<T> stream(Spliterator<T> source, ToLongFunction<? super T> weight, Listener listener) {
+        ProfiledSpliterator<T> spliterator = new ProfiledSpliterator<>(source, weight, listener);
+        return StreamSupport.stream(spliterator, false).onClose(spliterator::finish);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        this.mark = System.nanoTime();
+        boolean advanced = this.source.tryAdvance(e -> {
+            this.nanos += System.nanoTime() - this.mark;
+            this.count += this.weight.applyAsLong(e);
+            action.accept(e);
+            this.mark = System.nanoTime();
+        });
+        this.nanos += System.nanoTime() - this.mark;
+        if (!advanced) {
+            this.finish();
+        }
+        return advanced;
+    }
+
+    private void finish() {
+        if (!this.done) {
+            this.done = true;
+            this.listener.done(this.nanos, this.count);
+        }
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+        return null;
+    }
+
+    @Override
+    public long estimateSize() {
+        return this.source.estimateSize();
+    }
+
+    @Override
+    public int characteristics() {
+        return this.source.characteristics() & (ORDERED | NONNULL | DISTINCT | IMMUTABLE);
+    }
+}
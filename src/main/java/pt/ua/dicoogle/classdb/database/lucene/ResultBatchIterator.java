@@ -0,0 +1,216 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.database.lucene;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.util.NumericUtils;
+
+import pt.ua.dicoogle.classdb.database.struct.QueryParameters;
+import pt.ua.dicoogle.classdb.database.struct.ResultBatch;
+import pt.ua.dicoogle.classdb.database.util.RuntimeIOException;
+import pt.ua.dicoogle.classdb.database.util.StringDictionary;
+import pt.ua.dicoogle.classdb.metrics.Histogram;
+
+/** Lazily fills result batches from sorted search hits, reading doc values rather than stored fields.
+ * Segment ordinals are translated to the batch dictionaries once per distinct value and segment.
+ * Documents without doc values (indexed by older versions of the plugin) are read from stored fields.
+ *
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+class ResultBatchIterator implements Iterator<ResultBatch> {
+    private final IndexReader reader;
+    private final List<LeafReaderContext> leaves;
+    private final ScoreDoc[] hits;
+    private final double threshold;
+    private final boolean onlyBest;
+    private final int limit;
+    private final int batchSize;
+
+    private final StringDictionary classifierNames = new StringDictionary();
+    private final StringDictionary criteria = new StringDictionary();
+    private final StringDictionary predictions = new StringDictionary();
+    private final Set<String> seen = new HashSet<>();
+
+    private final Leaf[] leafCache;
+    private int position = 0;
+    private int emitted = 0;
+    private ResultBatch next = null;
+
+    ResultBatchIterator(IndexReader reader, ScoreDoc[] hits, QueryParameters params, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        this.reader = reader;
+        this.leaves = reader.leaves();
+        this.hits = hits;
+        this.threshold = params.getThreshold();
+        this.onlyBest = params.isOnlyBest();
+        this.limit = params.getNumberOfResults();
+        this.batchSize = batchSize;
+        this.leafCache = new Leaf[this.leaves.size()];
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (this.next == null) {
+            try (Histogram.Timer t = LuceneDatabase.MATERIALIZE_LATENCY.startTimer()) {
+                this.next = this.fill();
+            } catch (IOException e) {
+                throw new RuntimeIOException(e);
+            }
+        }
+        return this.next != null;
+    }
+
+    @Override
+    public ResultBatch next() {
+        if (!this.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        ResultBatch batch = this.next;
+        this.next = null;
+        return batch;
+    }
+
+    private ResultBatch fill() throws IOException {
+        ResultBatch batch = null;
+        while (this.position < this.hits.length && (this.limit == -1 || this.emitted < this.limit)) {
+            int doc = this.hits[this.position++].doc;
+            int leafIndex = ReaderUtil.subIndex(doc, this.leaves);
+            Leaf leaf = this.leaf(leafIndex);
+            int leafDoc = doc - this.leaves.get(leafIndex).docBase;
+
+            String uri;
+            int classifier, criterion, prediction;
+            double score;
+            int uriOrd = leaf.uris.getOrd(leafDoc);
+            if (uriOrd != -1) {
+                leaf.scores.setDocument(leafDoc);
+                score = NumericUtils.sortableLongToDouble(leaf.scores.valueAt(0));
+                if (score <= this.threshold) {
+                    continue;
+                }
+                uri = leaf.uris.lookupOrd(uriOrd).utf8ToString();
+                classifier = leaf.classifierOrd(leafDoc);
+                criterion = leaf.criterionOrd(leafDoc);
+                prediction = leaf.predictionOrd(leafDoc);
+            } else {
+                Document d = this.reader.document(doc);
+                score = d.getField(LuceneDatabase.FIELD_PROBABILITY).numericValue().doubleValue();
+                if (score <= this.threshold) {
+                    continue;
+                }
+                uri = d.get(LuceneDatabase.FIELD_URI);
+                classifier = this.classifierNames.ord(d.get(LuceneDatabase.FIELD_CLASSIFIER_NAME));
+                criterion = this.criteria.ord(d.get(LuceneDatabase.FIELD_CRITERION));
+                prediction = this.predictions.ord(d.get(LuceneDatabase.FIELD_PREDICTED_CLASS));
+            }
+            if (this.onlyBest && !this.seen.add(criterion + "|" + uri)) {
+                continue;
+            }
+
+            if (batch == null) {
+                batch = new ResultBatch(this.batchSize, this.classifierNames, this.criteria, this.predictions);
+            }
+            batch.add(uri, classifier, criterion, prediction, score);
+            this.emitted++;
+            if (batch.isFull()) {
+                break;
+            }
+        }
+        return batch;
+    }
+
+    private Leaf leaf(int i) throws IOException {
+        if (this.leafCache[i] == null) {
+            this.leafCache[i] = new Leaf(this.leaves.get(i).reader());
+        }
+        return this.leafCache[i];
+    }
+
+    private final class Leaf {
+        final SortedNumericDocValues scores;
+        final SortedDocValues uris;
+        final SortedDocValues classifierValues;
+        final SortedDocValues criterionValues;
+        final SortedDocValues predictionValues;
+        final int[] classifierOrds;
+        final int[] criterionOrds;
+        final int[] predictionOrds;
+
+        Leaf(LeafReader r) throws IOException {
+            this.scores = DocValues.getSortedNumeric(r, LuceneDatabase.FIELD_SCORE);
+            this.uris = LuceneDatabase.sortedValues(r, LuceneDatabase.FIELD_URI);
+            this.classifierValues = LuceneDatabase.sortedValues(r, LuceneDatabase.FIELD_CLASSIFIER_NAME);
+            this.criterionValues = LuceneDatabase.sortedValues(r, LuceneDatabase.FIELD_CRITERION);
+            this.predictionValues = LuceneDatabase.sortedValues(r, LuceneDatabase.FIELD_PREDICTED_CLASS);
+            this.classifierOrds = unresolved(this.classifierValues.getValueCount());
+            this.criterionOrds = unresolved(this.criterionValues.getValueCount());
+            this.predictionOrds = unresolved(this.predictionValues.getValueCount());
+        }
+
+        int classifierOrd(int doc) {
+            return resolve(this.classifierValues, this.classifierOrds, ResultBatchIterator.this.classifierNames, doc);
+        }
+
+        int criterionOrd(int doc) {
+            return resolve(this.criterionValues, this.criterionOrds, ResultBatchIterator.this.criteria, doc);
+        }
+
+        int predictionOrd(int doc) {
+            return resolve(this.predictionValues, this.predictionOrds, ResultBatchIterator.this.predictions, doc);
+        }
+    }
+
+    private static int[] unresolved(int n) {
+        int[] ords = new int[n];
+        Arrays.fill(ords, -1);
+        return ords;
+    }
+
+    /** Translate the segment ordinal of a document's value into a dictionary ordinal. */
+    private static int resolve(SortedDocValues values, int[] cache, StringDictionary dictionary, int doc) {
+        int segmentOrd = values.getOrd(doc);
+        if (segmentOrd == -1) {
+            return dictionary.ord("");
+        }
+        int ord = cache[segmentOrd];
+        if (ord == -1) {
+            ord = dictionary.ord(values.lookupOrd(segmentOrd).utf8ToString());
+            cache[segmentOrd] = ord;
+        }
+        return ord;
+    }
+}
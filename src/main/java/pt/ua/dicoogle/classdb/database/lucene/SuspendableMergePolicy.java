@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.database.lucene;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.index.MergeTrigger;
+import org.apache.lucene.index.SegmentCommitInfo;
+import org.apache.lucene.index.SegmentInfos;
+
+/** A merge policy which can have its natural merges suspended, such as during a bulk ingest.
+ * Explicitly requested merges are always delegated.
+ *
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+class SuspendableMergePolicy extends MergePolicy {
+    private final MergePolicy delegate;
+    private volatile boolean suspended = false;
+
+    SuspendableMergePolicy(MergePolicy delegate) {
+        this.delegate = delegate;
+    }
+
+    void setSuspended(boolean suspended) {
+        this.suspended = suspended;
+    }
+
+    boolean isSuspended() {
+        return this.suspended;
+    }
+
+    @Override
+    public MergeSpecification findMerges(MergeTrigger mergeTrigger, SegmentInfos segmentInfos, IndexWriter writer)
+            throws IOException {
+        if (this.suspended) {
+            return null;
+        }
+        return this.delegate.findMerges(mergeTrigger, segmentInfos, writer);
+    }
+
+    @Override
+    public MergeSpecification findForcedMerges(SegmentInfos segmentInfos, int maxSegmentCount,
+                                               Map<SegmentCommitInfo, Boolean> segmentsToMerge, IndexWriter writer)
+            throws IOException {
+        return this.delegate.findForcedMerges(segmentInfos, maxSegmentCount, segmentsToMerge, writer);
+    }
+
+    @Override
+    public MergeSpecification findForcedDeletesMerges(SegmentInfos segmentInfos, IndexWriter writer) throws IOException {
+        return this.delegate.findForcedDeletesMerges(segmentInfos, writer);
+    }
+
+    @Override
+    public boolean useCompoundFile(SegmentInfos infos, SegmentCommitInfo mergedInfo, IndexWriter writer)
+            throws IOException {
+        return this.delegate.useCompoundFile(infos, mergedInfo, writer);
+    }
+
+    @Override
+    public String toString() {
+        return "SuspendableMergePolicy(" + this.delegate + (this.suspended ? ", suspended)" : ")");
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.database.lucene;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.search.CollectionTerminatedException;
+import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.util.NumericUtils;
+
+/** A collector which counts the hits whose score is above a threshold, checking the score
+ * doc values only. No stored fields are loaded. Collection may stop early once a given
+ * limit of hits is reached, which is useful for existence checks.
+ *
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+class ThresholdCountCollector extends SimpleCollector {
+    private final String scoreField;
+    private final long minScore;
+    private final long limit;
+    private SortedNumericDocValues scores;
+    private long count = 0;
+
+    /**
+     * @param scoreField the name of the sortable-long encoded score doc values field
+     * @param threshold the minimum (exclusive) score of a counted hit
+     * @param limit the maximum number of hits to count, -1 for no limit
+     */
+    ThresholdCountCollector(String scoreField, double threshold, long limit) {
+        this.scoreField = scoreField;
+        this.minScore = NumericUtils.doubleToSortableLong(threshold);
+        this.limit = limit;
+    }
+
+    @Override
+    protected void doSetNextReader(LeafReaderContext context) throws IOException {
+        if (this.isFull()) {
+            throw new CollectionTerminatedException();
+        }
+        this.scores = DocValues.getSortedNumeric(context.reader(), this.scoreField);
+    }
+
+    @Override
+    public void collect(int doc) throws IOException {
+        this.scores.setDocument(doc);
+        if (this.scores.count() > 0 && this.scores.valueAt(0) > this.minScore) {
+            this.count++;
+            if (this.isFull()) {
+                throw new CollectionTerminatedException();
+            }
+        }
+    }
+
+    private boolean isFull() {
+        return this.limit != -1 && this.count >= this.limit;
+    }
+
+    @Override
+    public boolean needsScores() {
+        return false;
+    }
+
+    public long getCount() {
+        return this.count;
+    }
+}
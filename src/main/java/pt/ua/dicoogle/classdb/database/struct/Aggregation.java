@@ -0,0 +1,190 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.database.struct;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/** A mutable accumulator of prediction counts and score histograms, grouped by a list of facets.
+ * Scores are binned into equally sized intervals between 0 and 1.
+ * This class is not thread safe.
+ *
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public class Aggregation {
+
+    private final List<Facet> facets;
+    private final int nbins;
+    private final Map<Key, Bucket> buckets = new HashMap<>();
+    private final Key probe = new Key(null);
+
+    /** Create a new, empty aggregation.
+     *
+     * @param facets the facets to group by, may be empty for a single global bucket
+     * @param nbins the number of score histogram bins
+     */
+    public Aggregation(List<Facet> facets, int nbins) {
+        Objects.requireNonNull(facets);
+        if (nbins < 1) {
+            throw new IllegalArgumentException("Number of bins must be positive");
+        }
+        this.facets = Collections.unmodifiableList(new ArrayList<>(facets));
+        this.nbins = nbins;
+    }
+
+    public List<Facet> getFacets() {
+        return this.facets;
+    }
+
+    public int getNumberOfBins() {
+        return this.nbins;
+    }
+
+    /** Add a database item to the aggregation.
+     *
+     * @param item the item
+     */
+    public void add(DatabaseItem item) {
+        String[] values = new String[this.facets.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = this.facets.get(i).valueOf(item);
+        }
+        this.add(values, item.score());
+    }
+
+    /** Add a prediction to the aggregation.
+     *
+     * @param values the facet values of the prediction, in the same order as the facets. The array is not retained.
+     * @param score the prediction's score
+     */
+    public void add(String[] values, double score) {
+        this.probe.set(values);
+        Bucket b = this.buckets.get(this.probe);
+        if (b == null) {
+            b = new Bucket(Arrays.asList(values.clone()), this.nbins);
+            this.buckets.put(new Key(values.clone()), b);
+        }
+        b.add(score);
+    }
+
+    /**
+     * @return the buckets of this aggregation, by descending count and then by key
+     */
+    public List<Bucket> getBuckets() {
+        List<Bucket> l = new ArrayList<>(this.buckets.values());
+        l.sort(Comparator.comparingLong(Bucket::getCount).reversed()
+                .thenComparing(b -> String.join("\0", b.getKey())));
+        return l;
+    }
+
+    /**
+     * @return the number of buckets
+     */
+    public int getBucketCount() {
+        return this.buckets.size();
+    }
+
+    /**
+     * @return the total number of aggregated predictions
+     */
+    public long getTotalCount() {
+        return this.buckets.values().stream().mapToLong(Bucket::getCount).sum();
+    }
+
+    /** A group of predictions with the same facet values. */
+    public static class Bucket {
+        private final List<String> key;
+        private final long[] histogram;
+        private long count = 0;
+        private double scoreSum = 0;
+
+        Bucket(List<String> key, int nbins) {
+            this.key = Collections.unmodifiableList(key);
+            this.histogram = new long[nbins];
+        }
+
+        void add(double score) {
+            int bin = Math.max(0, Math.min((int) (score * this.histogram.length), this.histogram.length - 1));
+            this.histogram[bin]++;
+            this.count++;
+            this.scoreSum += score;
+        }
+
+        /**
+         * @return the facet values of this bucket, in the same order as the aggregation's facets
+         */
+        public List<String> getKey() {
+            return this.key;
+        }
+
+        public long getCount() {
+            return this.count;
+        }
+
+        public double getMeanScore() {
+            return this.count == 0 ? 0 : this.scoreSum / this.count;
+        }
+
+        /**
+         * @return a copy of the score histogram, where bin i counts the scores in [i/n, (i+1)/n[
+         */
+        public long[] getHistogram() {
+            return this.histogram.clone();
+        }
+
+        @Override
+        public String toString() {
+            return "Bucket{" +
+                    "key=" + key +
+                    ", count=" + count +
+                    ", histogram=" + Arrays.toString(histogram) +
+                    '}';
+        }
+    }
+
+    private static final class Key {
+        private String[] values;
+        private int hash;
+
+        Key(String[] values) {
+            this.set(values);
+        }
+
+        void set(String[] values) {
+            this.values = values;
+            this.hash = Arrays.hashCode(values);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && Arrays.equals(this.values, ((Key) o).values);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+}
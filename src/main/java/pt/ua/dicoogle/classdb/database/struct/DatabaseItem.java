@@ -68,7 +68,19 @@ public interface DatabaseItem {
      */
     public double score();
 
+    /** Obtain the version of the classifier model that made this prediction.
+     *
+     * @return the model version, or null if the prediction is not tagged with one
+     */
+    public default String modelVersion() {
+        return null;
+    }
+
     public static DatabaseItem of(URI uri, PredictionIdentifier predictionId, double score) {
+        return of(uri, predictionId, score, null);
+    }
+
+    public static DatabaseItem of(URI uri, PredictionIdentifier predictionId, double score, String modelVersion) {
         return new DatabaseItem() {
             @Override
             public URI item() {
@@ -99,6 +111,11 @@ public interface DatabaseItem {
             public double score() {
                 return score;
             }
+
+            @Override
+            public String modelVersion() {
+                return modelVersion;
+            }
         };
     }
 }
@@ -31,13 +31,20 @@ public class DatabaseItemImpl implements DatabaseItem {
     private final String criterion;
     private final String prediction;
     private final double score;
+    private final String modelVersion;
 
     public DatabaseItemImpl(URI uri, String classifierName, String criterion, String prediction, double score) {
+        this(uri, classifierName, criterion, prediction, score, null);
+    }
+
+    public DatabaseItemImpl(URI uri, String classifierName, String criterion, String prediction, double score,
+                            String modelVersion) {
         this.uri = uri;
         this.classifierName = classifierName;
         this.criterion = criterion;
         this.prediction = prediction;
         this.score = score;
+        this.modelVersion = modelVersion;
     }
 
     public DatabaseItemImpl(String uri, String classifierName, String criterion, String prediction, double score) {
@@ -69,6 +76,11 @@ public class DatabaseItemImpl implements DatabaseItem {
         return score;
     }
 
+    @Override
+    public String modelVersion() {
+        return modelVersion;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -78,12 +90,13 @@ public class DatabaseItemImpl implements DatabaseItem {
                 Objects.equals(uri, that.uri) &&
                 Objects.equals(classifierName, that.classifierName) &&
                 Objects.equals(criterion, that.criterion) &&
-                Objects.equals(prediction, that.prediction);
+                Objects.equals(prediction, that.prediction) &&
+                Objects.equals(modelVersion, that.modelVersion);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(uri, classifierName, criterion, prediction, score);
+        return Objects.hash(uri, classifierName, criterion, prediction, score, modelVersion);
     }
 
     @Override
@@ -94,6 +107,7 @@ public class DatabaseItemImpl implements DatabaseItem {
                 ", criterion='" + criterion + '\'' +
                 ", prediction='" + prediction + '\'' +
                 ", score=" + score +
+                ", modelVersion='" + modelVersion + '\'' +
                 '}';
     }
 }
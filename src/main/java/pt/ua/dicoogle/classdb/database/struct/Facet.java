@@ -0,0 +1,70 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.database.struct;
+
+import java.util.function.Function;
+
+/** Enumerate of the classification database item properties which can be aggregated over.
+ *
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public enum Facet {
+    CLASSIFIER("classifier", DatabaseItem::classifierName),
+    CRITERION("criterion", DatabaseItem::criterion),
+    PREDICTION("prediction", DatabaseItem::predictedClass);
+
+    private final String name;
+    private final Function<DatabaseItem, String> getter;
+
+    Facet(String name, Function<DatabaseItem, String> getter) {
+        this.name = name;
+        this.getter = getter;
+    }
+
+    /**
+     * @return the name of the facet, as used in web services
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /** Obtain the value of this facet in the given item.
+     *
+     * @param item the database item
+     * @return the facet value
+     */
+    public String valueOf(DatabaseItem item) {
+        return this.getter.apply(item);
+    }
+
+    /** Obtain a facet by its name.
+     *
+     * @param name the facet name (case insensitive)
+     * @return the facet
+     * @throws IllegalArgumentException if no facet has the given name
+     */
+    public static Facet fromName(String name) {
+        for (Facet f : values()) {
+            if (f.name.equalsIgnoreCase(name.trim())) {
+                return f;
+            }
+        }
+        throw new IllegalArgumentException("No such facet " + name);
+    }
+}
@@ -65,4 +65,10 @@ public class QueryParameters {
     public boolean isOnlyBest() {
         return onlybest;
     }
+
+    @Override
+    public String toString() {
+        return "QueryParameters{nresults=" + this.nresults + ", threshold=" + this.threshold
+                + ", onlybest=" + this.onlybest + '}';
+    }
 }
@@ -0,0 +1,232 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.database.struct;
+
+import java.net.URI;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import pt.ua.dicoogle.classdb.database.util.StringDictionary;
+
+/** A columnar batch of classification database search results. The classifier name, criterion and
+ * predicted class of each result are kept as ordinals into string dictionaries shared by all batches
+ * of the same search, scores are kept in a primitive array, and item URIs are only parsed on demand.
+ *
+ * Only the first {@link #size()} elements of each column are valid.
+ *
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public class ResultBatch {
+    private final StringDictionary classifierNames;
+    private final StringDictionary criteria;
+    private final StringDictionary predictions;
+
+    private final String[] uris;
+    private final URI[] decodedUris;
+    private final int[] classifierOrds;
+    private final int[] criterionOrds;
+    private final int[] predictionOrds;
+    private final double[] scores;
+    private int size = 0;
+
+    /** Create an empty batch.
+     *
+     * @param capacity the maximum number of results in the batch
+     * @param classifierNames the dictionary of classifier names
+     * @param criteria the dictionary of criteria
+     * @param predictions the dictionary of predicted classes
+     */
+    public ResultBatch(int capacity, StringDictionary classifierNames, StringDictionary criteria, StringDictionary predictions) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Batch capacity must be positive");
+        }
+        this.classifierNames = classifierNames;
+        this.criteria = criteria;
+        this.predictions = predictions;
+        this.uris = new String[capacity];
+        this.decodedUris = new URI[capacity];
+        this.classifierOrds = new int[capacity];
+        this.criterionOrds = new int[capacity];
+        this.predictionOrds = new int[capacity];
+        this.scores = new double[capacity];
+    }
+
+    /** Append a result to the batch.
+     *
+     * @param uri the item URI, in textual form
+     * @param classifierOrd the classifier name's ordinal
+     * @param criterionOrd the criterion's ordinal
+     * @param predictionOrd the predicted class's ordinal
+     * @param score the prediction's score
+     * @throws IllegalStateException if the batch is full
+     */
+    public void add(String uri, int classifierOrd, int criterionOrd, int predictionOrd, double score) {
+        if (this.isFull()) {
+            throw new IllegalStateException("Result batch is full");
+        }
+        int i = this.size++;
+        this.uris[i] = uri;
+        this.classifierOrds[i] = classifierOrd;
+        this.criterionOrds[i] = criterionOrd;
+        this.predictionOrds[i] = predictionOrd;
+        this.scores[i] = score;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isFull() {
+        return this.size == this.uris.length;
+    }
+
+    public String uriString(int i) {
+        return this.uris[this.check(i)];
+    }
+
+    /** Obtain the URI of a result's item, parsing it on first access.
+     *
+     * @param i the result index
+     * @return the item URI
+     */
+    public URI uri(int i) {
+        URI uri = this.decodedUris[this.check(i)];
+        if (uri == null) {
+            uri = URI.create(this.uris[i]);
+            this.decodedUris[i] = uri;
+        }
+        return uri;
+    }
+
+    public String classifierName(int i) {
+        return this.classifierNames.get(this.classifierOrds[this.check(i)]);
+    }
+
+    public String criterion(int i) {
+        return this.criteria.get(this.criterionOrds[this.check(i)]);
+    }
+
+    public String predictedClass(int i) {
+        return this.predictions.get(this.predictionOrds[this.check(i)]);
+    }
+
+    public double score(int i) {
+        return this.scores[this.check(i)];
+    }
+
+    public int[] getClassifierOrds() {
+        return this.classifierOrds;
+    }
+
+    public int[] getCriterionOrds() {
+        return this.criterionOrds;
+    }
+
+    public int[] getPredictionOrds() {
+        return this.predictionOrds;
+    }
+
+    public double[] getScores() {
+        return this.scores;
+    }
+
+    public StringDictionary getClassifierNames() {
+        return this.classifierNames;
+    }
+
+    public StringDictionary getCriteria() {
+        return this.criteria;
+    }
+
+    public StringDictionary getPredictions() {
+        return this.predictions;
+    }
+
+    /** Obtain a result as a database item.
+     *
+     * @param i the result index
+     * @return a new database item
+     */
+    public DatabaseItem item(int i) {
+        return new DatabaseItemImpl(this.uri(i), this.classifierName(i), this.criterion(i), this.predictedClass(i), this.score(i));
+    }
+
+    /**
+     * @return a stream of the results in this batch as database items
+     */
+    public Stream<DatabaseItem> items() {
+        return IntStream.range(0, this.size).mapToObj(this::item);
+    }
+
+    /** Adapt a stream of result batches into a stream of database items.
+     *
+     * @param batches the batches
+     * @return a stream of database items, in the same order
+     */
+    public static Stream<DatabaseItem> items(Stream<ResultBatch> batches) {
+        return batches.flatMap(ResultBatch::items);
+    }
+
+    /** Adapt a stream of database items into a stream of result batches.
+     *
+     * @param items the database items
+     * @param batchSize the maximum number of results per batch
+     * @return a lazy stream of batches, in the same order
+     */
+    public static Stream<ResultBatch> batches(Stream<DatabaseItem> items, int batchSize) {
+        final StringDictionary classifierNames = new StringDictionary();
+        final StringDictionary criteria = new StringDictionary();
+        final StringDictionary predictions = new StringDictionary();
+        final Iterator<DatabaseItem> it = items.iterator();
+        Iterator<ResultBatch> batchIt = new Iterator<ResultBatch>() {
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public ResultBatch next() {
+                if (!it.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                ResultBatch batch = new ResultBatch(batchSize, classifierNames, criteria, predictions);
+                while (!batch.isFull() && it.hasNext()) {
+                    DatabaseItem item = it.next();
+                    batch.add(item.item().toString(), classifierNames.ord(item.classifierName()),
+                            criteria.ord(item.criterion()), predictions.ord(item.predictedClass()), item.score());
+                }
+                return batch;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(batchIt, Spliterator.ORDERED), false)
+                .onClose(items::close);
+    }
+
+    private int check(int i) {
+        if (i < 0 || i >= this.size) {
+            throw new IndexOutOfBoundsException("Result index " + i + " out of bounds");
+        }
+        return i;
+    }
+}
@@ -19,29 +19,70 @@
 package pt.ua.dicoogle.classdb.database.util;
 
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.function.LongSupplier;
 import java.util.stream.Stream;
 
-/**
+/** A thread safe dictionary of values which are resolved on first access. Each key is resolved
+ * at most once, even when accessed concurrently. Keys resolving to {@code null} are also memoised,
+ * but only for a limited time, after which they are resolved again.
+ *
  * @author Eduardo Pinho <eduardopinho@ua.pt>
  */
 public class LazyDictionary<K, V> {
-    private final Map<K, V> map;
+    private final ConcurrentMap<K, Entry<V>> map;
     private final Function<K, V> resolver;
+    private final long negativeTtlNanos;
+    private final LongSupplier clock;
 
+    /** Create a dictionary which never resolves the same key twice.
+     *
+     * @param resolver the function for resolving values
+     */
     public LazyDictionary(Function<K, V> resolver) {
-        this.map = new HashMap<>();
+        this(resolver, -1, TimeUnit.NANOSECONDS);
+    }
+
+    /** Create a dictionary with a time-to-live for missing values.
+     *
+     * @param resolver the function for resolving values
+     * @param negativeTtl how long a {@code null} resolution is kept, negative to keep it forever
+     * @param unit the time unit of {@code negativeTtl}
+     */
+    public LazyDictionary(Function<K, V> resolver, long negativeTtl, TimeUnit unit) {
+        this(resolver, negativeTtl, unit, System::nanoTime);
+    }
+
+    LazyDictionary(Function<K, V> resolver, long negativeTtl, TimeUnit unit, LongSupplier clock) {
+        Objects.requireNonNull(resolver);
+        this.map = new ConcurrentHashMap<>();
         this.resolver = resolver;
+        this.negativeTtlNanos = negativeTtl < 0 ? -1 : unit.toNanos(negativeTtl);
+        this.clock = clock;
     }
 
     public V get(K key) {
-        if (!this.map.containsKey(key)) {
-            return this.map.put(key, this.resolver.apply(key));
+        Entry<V> e = this.map.get(key);
+        if (e != null && e.isExpired(this.clock.getAsLong())) {
+            this.map.remove(key, e);
+            e = null;
+        }
+        if (e == null) {
+            e = this.map.computeIfAbsent(key, k -> new Entry<>(this.resolver.apply(k), this.expiry()));
         }
-        return this.map.get(key);
+        return e.value;
+    }
+
+    /** Forget the value of a key, so that it is resolved again on the next access.
+     *
+     * @param key the key
+     */
+    public void refresh(K key) {
+        this.map.remove(key);
     }
 
     public void clear() {
@@ -55,4 +96,22 @@ public class LazyDictionary<K, V> {
     public Stream<V> values(Collection<K> keys) {
         return this.values(keys.stream());
     }
+
+    private long expiry() {
+        return this.negativeTtlNanos < 0 ? -1 : this.clock.getAsLong() + this.negativeTtlNanos;
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        final long expiresAt;
+
+        Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return this.value == null && this.expiresAt != -1 && now - this.expiresAt > 0;
+        }
+    }
 }
@@ -0,0 +1,375 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.database.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** A pipeline of stages connected by bounded queues, each stage running on its own threads.
+ * When a stage falls behind, its input queue fills up and the stage before it blocks, and so on
+ * up to the caller submitting items, so that the memory held by the pipeline stays bounded.
+ * Each stage keeps track of its occupancy, which tells which stage is saturated.
+ *
+ * <p>Stage functions are expected to handle their own failures. Should one throw anyway, the
+ * pipeline fails: the item is dropped and the next call to {@link #submit(Object)} or
+ * {@link #drain()} rethrows the failure.
+ *
+ * @param <I> the type of items submitted
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public class Pipeline<I> implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(Pipeline.class);
+
+    /** How long idle workers wait for an item before checking whether the pipeline is closed. */
+    private static final long POLL_MS = 100;
+
+    /** Builds a pipeline stage by stage.
+     *
+     * @param <I> the type of items submitted to the pipeline
+     * @param <T> the type of items coming out of the last stage so far
+     */
+    public static class Builder<I, T> {
+        private final String name;
+        private final int queueCapacity;
+        private final List<Stage> stages;
+
+        private Builder(String name, int queueCapacity, List<Stage> stages) {
+            this.name = name;
+            this.queueCapacity = queueCapacity;
+            this.stages = stages;
+        }
+
+        /** Add a stage transforming each item. The transformation must not return null, or the
+         * pipeline fails.
+         *
+         * @param name the stage's name
+         * @param threads the number of items processed at the same time
+         * @param fn the transformation
+         * @param <R> the type of items coming out of the stage
+         * @return this builder
+         */
+        @SuppressWarnings("unchecked")
+        public <R> Builder<I, R> stage(String name, int threads, Function<? super T, ? extends R> fn) {
+            this.stages.add(new Stage(name, threads, this.queueCapacity, o -> fn.apply((T) o)));
+            return (Builder<I, R>) this;
+        }
+
+        /** Add the last stage, consuming each item, and start all stages.
+         *
+         * @param name the stage's name
+         * @param threads the number of items processed at the same time
+         * @param consumer the consumer
+         * @return the running pipeline
+         */
+        @SuppressWarnings("unchecked")
+        public Pipeline<I> sink(String name, int threads, Consumer<? super T> consumer) {
+            this.stages.add(new Stage(name, threads, this.queueCapacity, o -> {
+                consumer.accept((T) o);
+                return null;
+            }));
+            return new Pipeline<>(this.name, this.stages);
+        }
+    }
+
+    /** A snapshot of the occupancy of a stage. */
+    public static class StageStats {
+        private final String name;
+        private final int threads;
+        private final int busy;
+        private final int queued;
+        private final int queueCapacity;
+        private final double utilization;
+        private final double blockedMs;
+
+        StageStats(String name, int threads, int busy, int queued, int queueCapacity, double utilization,
+                   double blockedMs) {
+            this.name = name;
+            this.threads = threads;
+            this.busy = busy;
+            this.queued = queued;
+            this.queueCapacity = queueCapacity;
+            this.utilization = utilization;
+            this.blockedMs = blockedMs;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public int getThreads() {
+            return this.threads;
+        }
+
+        /** @return the number of threads processing an item right now */
+        public int getBusy() {
+            return this.busy;
+        }
+
+        /** @return the number of items waiting in the stage's input queue */
+        public int getQueued() {
+            return this.queued;
+        }
+
+        public int getQueueCapacity() {
+            return this.queueCapacity;
+        }
+
+        /** @return the fraction of the stage's thread time spent processing items, between 0 and 1 */
+        public double getUtilization() {
+            return this.utilization;
+        }
+
+        /** @return the total time the stage's threads spent blocked on a full output queue, in milliseconds */
+        public double getBlockedMs() {
+            return this.blockedMs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d/%d busy, queue %d/%d, %.0f%% utilized, %.0f ms blocked", this.name,
+                    this.busy, this.threads, this.queued, this.queueCapacity, this.utilization * 100, this.blockedMs);
+        }
+    }
+
+    private static class Stage {
+        final String name;
+        final int threads;
+        final BlockingQueue<Object> input;
+        final Function<Object, Object> fn;
+        final List<Thread> workers = new ArrayList<>();
+        final AtomicInteger busy = new AtomicInteger();
+        final LongAdder busyNanos = new LongAdder();
+        final LongAdder blockedNanos = new LongAdder();
+        volatile boolean closed = false;
+
+        Stage(String name, int threads, int queueCapacity, Function<Object, Object> fn) {
+            if (threads < 1) {
+                throw new IllegalArgumentException("Stage " + name + " needs at least one thread");
+            }
+            this.name = name;
+            this.threads = threads;
+            this.input = new ArrayBlockingQueue<>(queueCapacity);
+            this.fn = fn;
+        }
+    }
+
+    private final String name;
+    private final List<Stage> stages;
+    private final long start = System.nanoTime();
+    private final Object lock = new Object();
+    private long inFlight = 0;
+    private volatile Throwable failure = null;
+
+    /** Start building a pipeline.
+     *
+     * @param name the pipeline's name, used for naming its threads
+     * @param queueCapacity the capacity of the queue before each stage
+     * @param <I> the type of items submitted to the pipeline
+     * @return a pipeline builder
+     */
+    public static <I> Builder<I, I> builder(String name, int queueCapacity) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be positive");
+        }
+        return new Builder<>(name, queueCapacity, new ArrayList<>());
+    }
+
+    private Pipeline(String name, List<Stage> stages) {
+        this.name = name;
+        this.stages = stages;
+        for (int i = 0; i < stages.size(); i++) {
+            Stage stage = stages.get(i);
+            Stage next = i + 1 < stages.size() ? stages.get(i + 1) : null;
+            for (int t = 0; t < stage.threads; t++) {
+                Thread worker = new Thread(() -> this.work(stage, next), name + "-" + stage.name + "-" + (t + 1));
+                worker.setDaemon(true);
+                stage.workers.add(worker);
+                worker.start();
+            }
+        }
+    }
+
+    /** Submit an item, waiting while the first stage's queue is full.
+     *
+     * @param item the item, not null
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void submit(I item) throws InterruptedException {
+        Objects.requireNonNull(item, "item");
+        this.checkFailure();
+        synchronized (this.lock) {
+            this.inFlight++;
+        }
+        try {
+            if (!this.put(this.stages.get(0).input, item)) {
+                this.checkFailure();
+            }
+        } catch (InterruptedException e) {
+            this.done();
+            throw e;
+        }
+    }
+
+    /** Wait until all items submitted so far went through the whole pipeline.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void drain() throws InterruptedException {
+        synchronized (this.lock) {
+            while (this.inFlight > 0 && this.failure == null) {
+                this.lock.wait();
+            }
+        }
+        this.checkFailure();
+    }
+
+    /** Stop all stages once their queues are empty, and wait for their threads to finish.
+     * Call {@link #drain()} first to make sure that all items went through.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        for (Stage stage : this.stages) {
+            stage.closed = true;
+            for (Thread worker : stage.workers) {
+                worker.join();
+            }
+        }
+    }
+
+    /** @return the occupancy of each stage */
+    public List<StageStats> stats() {
+        double elapsed = System.nanoTime() - this.start;
+        List<StageStats> stats = new ArrayList<>(this.stages.size());
+        for (Stage stage : this.stages) {
+            double utilization = elapsed <= 0 ? 0 : stage.busyNanos.sum() / (elapsed * stage.threads);
+            stats.add(new StageStats(stage.name, stage.threads, stage.busy.get(), stage.input.size(),
+                    stage.input.size() + stage.input.remainingCapacity(), Math.min(1, utilization),
+                    stage.blockedNanos.sum() / 1e6));
+        }
+        return Collections.unmodifiableList(stats);
+    }
+
+    private void work(Stage stage, Stage next) {
+        try {
+            while (true) {
+                Object item = stage.input.poll(POLL_MS, TimeUnit.MILLISECONDS);
+                if (item == null) {
+                    if (stage.closed || this.failure != null) {
+                        return;
+                    }
+                    continue;
+                }
+                Object out;
+                stage.busy.incrementAndGet();
+                long t = System.nanoTime();
+                try {
+                    out = stage.fn.apply(item);
+                } catch (RuntimeException | Error e) {
+                    logger.warn("Stage {} of {} failed", stage.name, this.name, e);
+                    this.fail(e);
+                    return;
+                } finally {
+                    stage.busyNanos.add(System.nanoTime() - t);
+                    stage.busy.decrementAndGet();
+                }
+                if (next == null) {
+                    this.done();
+                } else if (out == null) {
+                    // queues take no nulls, and the item would never be done
+                    NullPointerException e = new NullPointerException("Stage " + stage.name + " produced no item");
+                    logger.warn("Stage {} of {} failed", stage.name, this.name, e);
+                    this.fail(e);
+                    return;
+                } else {
+                    long b = System.nanoTime();
+                    boolean queued = this.put(next.input, out);
+                    stage.blockedNanos.add(System.nanoTime() - b);
+                    if (!queued) {
+                        return;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            this.fail(e);
+        }
+    }
+
+    /** Wait for room in a queue, unless the pipeline fails in the meantime.
+     * @return whether the item was queued
+     */
+    private boolean put(BlockingQueue<Object> queue, Object item) throws InterruptedException {
+        while (!queue.offer(item, POLL_MS, TimeUnit.MILLISECONDS)) {
+            if (this.failure != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void done() {
+        synchronized (this.lock) {
+            if (--this.inFlight == 0) {
+                this.lock.notifyAll();
+            }
+        }
+    }
+
+    private void fail(Throwable e) {
+        synchronized (this.lock) {
+            if (this.failure == null) {
+                this.failure = e;
+            }
+            this.lock.notifyAll();
+        }
+    }
+
+    private void checkFailure() {
+        Throwable e = this.failure;
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        if (e != null) {
+            throw new IllegalStateException("Pipeline " + this.name + " failed", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (StageStats s : this.stats()) {
+            if (sb.length() > 0) {
+                sb.append("; ");
+            }
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+}
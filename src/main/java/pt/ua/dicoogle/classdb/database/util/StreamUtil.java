@@ -20,11 +20,22 @@ package pt.ua.dicoogle.classdb.database.util;
 
 import org.apache.commons.lang3.tuple.Pair;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
 import java.util.*;
+import java.util.function.BinaryOperator;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * @author Eduardo Pinho <eduardopinho@ua.pt>
@@ -103,4 +114,304 @@ public class StreamUtil {
         return orderedGroupBy(stream, keyFn).stream()
                 .map(e -> Collections.min(e, comparator));
     }
+
+    /** Obtain a stream of only the first entry to occur in the stream with the same aggregation key.
+     * Unlike {@link #firstOf(Stream, Function)}, the given stream is consumed lazily and only the keys
+     * seen so far are retained, so this works well with short-circuiting operations such as limit.
+     *
+     * @param stream the stream to filter
+     * @param keyFn a function for retrieving the aggregation key of each element.
+     * @param <K> the aggregation key type
+     * @param <T> the base stream element type
+     * @return a new stream of T, in the same order as {@link #firstOf(Stream, Function)}
+     */
+    public static <K, T> Stream<T> firstOfStreaming(Stream<T> stream, Function<? super T, ? extends K> keyFn) {
+        Set<K> seen = new HashSet<>();
+        return stream.sequential().filter(e -> seen.add(keyFn.apply(e)));
+    }
+
+    /** Obtain a stream of only the best entries (the first element according to the given comparator) of their
+     * aggregating key. Unlike {@link #bestOf(Stream, Function, Comparator)}, only the best element so far of
+     * each key is retained while the given stream is consumed.
+     * This method will eagerly consume the given stream and produce a new one.
+     *
+     * @param stream the stream to consume
+     * @param keyFn a function for retrieving the aggregation key of each element.
+     * @param comparator the comparator establishing which element is best (the lowest)
+     * @param <K> the aggregation key type
+     * @param <T> the base stream element type
+     * @return a new stream of T, in the same order as {@link #bestOf(Stream, Function, Comparator)}
+     */
+    public static <K, T> Stream<T> bestOfStreaming(Stream<T> stream, Function<? super T, ? extends K> keyFn, Comparator<? super T> comparator) {
+        Map<K, T> best = new LinkedHashMap<>();
+        BinaryOperator<T> min = minBy(comparator);
+        stream.forEachOrdered(e -> best.merge(keyFn.apply(e), e, min));
+        return best.values().stream();
+    }
+
+    /** Aggregate the elements of a stream in which elements with the same key are contiguous (such as a stream
+     * sorted by key), emitting each group as soon as the key changes. Only the current group is retained.
+     *
+     * @param elements a stream in which equal keys are contiguous. It is consumed lazily.
+     * @param criterion a function that establishes an aggregation key for each element.
+     * @param <K> the type of aggregation key
+     * @param <T> the element type
+     * @return a stream of groups, in order of occurrence
+     */
+    public static <K, T> Stream<List<T>> sortedGroupBy(Stream<T> elements, Function<? super T, ? extends K> criterion) {
+        return sortedReduceBy(elements.map(e -> {
+            List<T> l = new ArrayList<>(1);
+            l.add(e);
+            return l;
+        }), l -> criterion.apply(l.get(0)), (l1, l2) -> {
+            l1.addAll(l2);
+            return l1;
+        });
+    }
+
+    /** Obtain a stream of only the first entry of each key, from a stream in which elements with the same key
+     * are contiguous. The given stream is consumed lazily, and only the current key is retained.
+     *
+     * @param stream a stream in which equal keys are contiguous
+     * @param keyFn a function for retrieving the aggregation key of each element.
+     * @param <K> the aggregation key type
+     * @param <T> the base stream element type
+     * @return a new stream of T
+     */
+    public static <K, T> Stream<T> firstOfSorted(Stream<T> stream, Function<? super T, ? extends K> keyFn) {
+        return sortedReduceBy(stream, keyFn, (a, b) -> a);
+    }
+
+    /** Obtain a stream of only the best entry of each key, from a stream in which elements with the same key
+     * are contiguous. The given stream is consumed lazily, and only the best element of the current key is retained.
+     *
+     * @param stream a stream in which equal keys are contiguous
+     * @param keyFn a function for retrieving the aggregation key of each element.
+     * @param comparator the comparator establishing which element is best (the lowest)
+     * @param <K> the aggregation key type
+     * @param <T> the base stream element type
+     * @return a new stream of T
+     */
+    public static <K, T> Stream<T> bestOfSorted(Stream<T> stream, Function<? super T, ? extends K> keyFn, Comparator<? super T> comparator) {
+        return sortedReduceBy(stream, keyFn, minBy(comparator));
+    }
+
+    /** Obtain a stream of only the best entry of each key, spilling the elements to temporary files when there
+     * are more than the given number of elements. Memory usage is therefore bounded by the chunk size rather than
+     * by the size of the input or the number of keys. Unlike the other variants, the output is ordered by key.
+     *
+     * @param stream the stream to consume
+     * @param keyFn a function for retrieving the aggregation key of each element.
+     * @param comparator the comparator establishing which element is best (the lowest)
+     * @param chunkSize the maximum number of elements kept in memory while consuming the stream
+     * @param <K> the aggregation key type
+     * @param <T> the base stream element type
+     * @return a new stream of T, ordered by key
+     * @throws RuntimeIOException if the temporary files could not be written
+     */
+    public static <K extends Comparable<K>, T extends Serializable> Stream<T> bestOfExternal(
+            Stream<T> stream, Function<? super T, ? extends K> keyFn, Comparator<? super T> comparator, int chunkSize) {
+        return bestOfSorted(externalSort(stream, keyFn, chunkSize), keyFn, comparator);
+    }
+
+    /** Sort a stream by key, spilling sorted chunks of elements to temporary files and merging them back.
+     * The sort is stable. The temporary files are deleted once the returned stream is exhausted or closed.
+     *
+     * @param stream the stream to consume
+     * @param keyFn a function for retrieving the sort key of each element.
+     * @param chunkSize the maximum number of elements kept in memory while consuming the stream
+     * @param <K> the sort key type
+     * @param <T> the base stream element type
+     * @return a new stream of T, ordered by key
+     * @throws RuntimeIOException if the temporary files could not be written
+     */
+    public static <K extends Comparable<K>, T extends Serializable> Stream<T> externalSort(
+            Stream<T> stream, Function<? super T, ? extends K> keyFn, int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunk size must be positive");
+        }
+        Comparator<T> byKey = Comparator.comparing(keyFn);
+        List<File> chunks = new ArrayList<>();
+        List<T> buffer = new ArrayList<>();
+        try {
+            Iterator<T> it = stream.iterator();
+            while (it.hasNext()) {
+                buffer.add(it.next());
+                if (buffer.size() >= chunkSize) {
+                    buffer.sort(byKey);
+                    chunks.add(spill(buffer));
+                    buffer.clear();
+                }
+            }
+            buffer.sort(byKey);
+            if (chunks.isEmpty()) {
+                return buffer.stream();
+            }
+            if (!buffer.isEmpty()) {
+                chunks.add(spill(buffer));
+                buffer.clear();
+            }
+            SpillMerger<K, T> merger = new SpillMerger<>(chunks, keyFn);
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(merger, Spliterator.ORDERED), false)
+                    .onClose(merger::close);
+        } catch (IOException|ClassNotFoundException e) {
+            chunks.forEach(File::delete);
+            throw new RuntimeIOException("Failed to spill elements to disk", e);
+        }
+    }
+
+    private static <T> BinaryOperator<T> minBy(Comparator<? super T> comparator) {
+        // keep the first element on ties, like Collections.min
+        return (a, b) -> comparator.compare(b, a) < 0 ? b : a;
+    }
+
+    private static <K, T> Stream<T> sortedReduceBy(Stream<T> stream, Function<? super T, ? extends K> keyFn, BinaryOperator<T> reducer) {
+        Iterator<T> it = stream.iterator();
+        Iterator<T> reduced = new Iterator<T>() {
+            private T pending = null;
+            private boolean hasPending = false;
+
+            @Override
+            public boolean hasNext() {
+                return this.hasPending || it.hasNext();
+            }
+
+            @Override
+            public T next() {
+                T acc = this.hasPending ? this.pending : it.next();
+                this.hasPending = false;
+                this.pending = null;
+                K key = keyFn.apply(acc);
+                while (it.hasNext()) {
+                    T e = it.next();
+                    if (Objects.equals(key, keyFn.apply(e))) {
+                        acc = reducer.apply(acc, e);
+                    } else {
+                        this.pending = e;
+                        this.hasPending = true;
+                        break;
+                    }
+                }
+                return acc;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(reduced, Spliterator.ORDERED), false)
+                .onClose(stream::close);
+    }
+
+    private static final int SPILL_RESET_INTERVAL = 1024;
+
+    private static <T extends Serializable> File spill(List<T> sorted) throws IOException {
+        File f = File.createTempFile("class-db-spill", ".bin");
+        f.deleteOnExit();
+        try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(f)))) {
+            out.writeInt(sorted.size());
+            int i = 0;
+            for (T e : sorted) {
+                out.writeObject(e);
+                if (++i % SPILL_RESET_INTERVAL == 0) {
+                    // do not let the stream retain references to all written objects
+                    out.reset();
+                }
+            }
+        }
+        return f;
+    }
+
+    /** K-way merge of sorted spill files. Ties are resolved by chunk order, which keeps the sort stable. */
+    private static final class SpillMerger<K extends Comparable<K>, T> implements Iterator<T> {
+        private final List<File> files;
+        private final Function<? super T, ? extends K> keyFn;
+        private final PriorityQueue<Head> heads;
+        private final List<ObjectInputStream> inputs = new ArrayList<>();
+
+        private final class Head {
+            final int chunk;
+            final ObjectInputStream in;
+            int remaining;
+            T value;
+            K key;
+
+            Head(int chunk, ObjectInputStream in, int remaining) {
+                this.chunk = chunk;
+                this.in = in;
+                this.remaining = remaining;
+            }
+
+            @SuppressWarnings("unchecked")
+            boolean advance() throws IOException, ClassNotFoundException {
+                if (this.remaining == 0) {
+                    return false;
+                }
+                this.remaining--;
+                this.value = (T) this.in.readObject();
+                this.key = keyFn.apply(this.value);
+                return true;
+            }
+        }
+
+        SpillMerger(List<File> files, Function<? super T, ? extends K> keyFn) throws IOException, ClassNotFoundException {
+            this.files = files;
+            this.keyFn = keyFn;
+            this.heads = new PriorityQueue<>(Math.max(1, files.size()), (h1, h2) -> {
+                int c = h1.key.compareTo(h2.key);
+                return c != 0 ? c : Integer.compare(h1.chunk, h2.chunk);
+            });
+            try {
+                for (int i = 0; i < files.size(); i++) {
+                    ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(files.get(i))));
+                    this.inputs.add(in);
+                    Head h = new Head(i, in, in.readInt());
+                    if (h.advance()) {
+                        this.heads.add(h);
+                    }
+                }
+            } catch (IOException|ClassNotFoundException|RuntimeException e) {
+                this.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (this.heads.isEmpty()) {
+                this.close();
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public T next() {
+            Head h = this.heads.poll();
+            if (h == null) {
+                throw new NoSuchElementException();
+            }
+            T value = h.value;
+            try {
+                if (h.advance()) {
+                    this.heads.add(h);
+                }
+            } catch (IOException|ClassNotFoundException e) {
+                this.close();
+                throw new RuntimeIOException("Failed to read spilled elements", e);
+            }
+            return value;
+        }
+
+        void close() {
+            this.heads.clear();
+            for (ObjectInputStream in : this.inputs) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // nothing else to do
+                }
+            }
+            this.inputs.clear();
+            for (File f : this.files) {
+                f.delete();
+            }
+        }
+    }
 }
@@ -0,0 +1,63 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.database.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** A dictionary of distinct strings, each identified by a dense ordinal in order of insertion.
+ * This class is not thread safe.
+ *
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public class StringDictionary {
+    private final Map<String, Integer> ords = new HashMap<>();
+    private final List<String> values = new ArrayList<>();
+
+    /** Obtain the ordinal of a string, adding it to the dictionary if it is not there yet.
+     *
+     * @param value the string
+     * @return the string's ordinal
+     */
+    public int ord(String value) {
+        Integer ord = this.ords.get(value);
+        if (ord == null) {
+            ord = this.values.size();
+            this.ords.put(value, ord);
+            this.values.add(value);
+        }
+        return ord;
+    }
+
+    /** Obtain the string with the given ordinal.
+     *
+     * @param ord the ordinal
+     * @return the string
+     * @throws IndexOutOfBoundsException if there is no such ordinal
+     */
+    public String get(int ord) {
+        return this.values.get(ord);
+    }
+
+    public int size() {
+        return this.values.size();
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** A classifier invocation on an item, as made by the indexer.
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+@Name("pt.ua.dicoogle.classdb.Classify")
+@Label("Classify")
+@Description("Invocation of a classification endpoint on an item")
+@Category({"Dicoogle", "Classification Database"})
+@StackTrace(false)
+public class ClassifyEvent extends Event {
+
+    @Label("Classifier")
+    String classifier;
+
+    @Label("Criterion")
+    String criterion;
+
+    @Label("Item")
+    String item;
+
+    @Label("Predictions")
+    int predictions;
+
+    @Label("Failed")
+    boolean failed;
+
+    ClassifyEvent() {
+    }
+
+    public void finish(String classifier, String criterion, Object item, int predictions, boolean failed) {
+        this.end();
+        if (this.shouldCommit()) {
+            this.classifier = classifier;
+            this.criterion = criterion;
+            this.item = String.valueOf(item);
+            this.predictions = predictions;
+            this.failed = failed;
+            this.commit();
+        }
+    }
+}
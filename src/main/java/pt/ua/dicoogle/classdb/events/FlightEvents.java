@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.events;
+
+/** Factory of Java Flight Recorder events for class-db's hot paths.
+ *
+ * Each factory method begins and returns a new event, or returns {@code null} if the running JVM has no
+ * flight recorder. Event classes are only loaded through this class, so that the plugin still runs on JVMs
+ * without the {@code jdk.jfr} module. When no recording is active, the JIT elides the events entirely.
+ *
+ * Usage:
+ * <pre>
+ * ClassifyEvent event = FlightEvents.classify();
+ * // ... timed operation ...
+ * if (event != null) {
+ *     event.finish(classifier, criterion, uri, nPredictions, failed);
+ * }
+ * </pre>
+ *
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public final class FlightEvents {
+
+    /** Whether flight recorder events are supported by this JVM. */
+    public static final boolean SUPPORTED = isSupported();
+
+    private FlightEvents() {
+    }
+
+    private static boolean isSupported() {
+        try {
+            Class.forName("jdk.jfr.Event", false, FlightEvents.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    public static ClassifyEvent classify() {
+        if (!SUPPORTED) {
+            return null;
+        }
+        ClassifyEvent event = new ClassifyEvent();
+        event.begin();
+        return event;
+    }
+
+    public static IndexWriteEvent indexWrite() {
+        if (!SUPPORTED) {
+            return null;
+        }
+        IndexWriteEvent event = new IndexWriteEvent();
+        event.begin();
+        return event;
+    }
+
+    public static CommitEvent commit() {
+        if (!SUPPORTED) {
+            return null;
+        }
+        CommitEvent event = new CommitEvent();
+        event.begin();
+        return event;
+    }
+
+    public static ReaderRefreshEvent readerRefresh() {
+        if (!SUPPORTED) {
+            return null;
+        }
+        ReaderRefreshEvent event = new ReaderRefreshEvent();
+        event.begin();
+        return event;
+    }
+
+    public static SearchEvent search() {
+        if (!SUPPORTED) {
+            return null;
+        }
+        SearchEvent event = new SearchEvent();
+        event.begin();
+        return event;
+    }
+
+    public static ServletEvent servlet() {
+        if (!SUPPORTED) {
+            return null;
+        }
+        ServletEvent event = new ServletEvent();
+        event.begin();
+        return event;
+    }
+}
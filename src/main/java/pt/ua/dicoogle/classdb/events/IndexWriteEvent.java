@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** The addition (or replacement) of a prediction in the index.
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+@Name("pt.ua.dicoogle.classdb.IndexWrite")
+@Label("Index Write")
+@Description("Addition of a prediction to the classification index")
+@Category({"Dicoogle", "Classification Database"})
+@StackTrace(false)
+public class IndexWriteEvent extends Event {
+
+    @Label("Classifier")
+    String classifier;
+
+    @Label("Criterion")
+    String criterion;
+
+    @Label("Field Data")
+    @Description("Approximate size of the indexed field values")
+    @DataAmount
+    long bytes;
+
+    IndexWriteEvent() {
+    }
+
+    public void finish(String classifier, String criterion, long bytes) {
+        this.end();
+        if (this.shouldCommit()) {
+            this.classifier = classifier;
+            this.criterion = criterion;
+            this.bytes = bytes;
+            this.commit();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** The opening or refreshing of the index reader.
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+@Name("pt.ua.dicoogle.classdb.ReaderRefresh")
+@Label("Reader Refresh")
+@Description("Opening or refreshing of the classification index reader")
+@Category({"Dicoogle", "Classification Database"})
+@StackTrace(false)
+public class ReaderRefreshEvent extends Event {
+
+    @Label("Changed")
+    @Description("Whether a new reader was opened")
+    boolean changed;
+
+    @Label("Documents")
+    int numDocs;
+
+    @Label("Version")
+    long version;
+
+    ReaderRefreshEvent() {
+    }
+
+    public void finish(boolean changed, int numDocs, long version) {
+        this.end();
+        if (this.shouldCommit()) {
+            this.changed = changed;
+            this.numDocs = numDocs;
+            this.version = version;
+            this.commit();
+        }
+    }
+}
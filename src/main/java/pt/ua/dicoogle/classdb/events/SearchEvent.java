@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** A query over the classification index, from parsing to hit collection.
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+@Name("pt.ua.dicoogle.classdb.Search")
+@Label("Search")
+@Description("Query over the classification index")
+@Category({"Dicoogle", "Classification Database"})
+@StackTrace(false)
+public class SearchEvent extends Event {
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Query")
+    String query;
+
+    @Label("Hits")
+    long hits;
+
+    SearchEvent() {
+    }
+
+    public void finish(String operation, String query, long hits) {
+        this.end();
+        if (this.shouldCommit()) {
+            this.operation = operation;
+            this.query = query;
+            this.hits = hits;
+            this.commit();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.metrics;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/** A latency histogram with fixed buckets, in seconds. Observations are lock-free.
+ *
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public final class Histogram {
+
+    /** The upper bounds of the histogram buckets, in seconds. */
+    static final double[] BUCKETS = {
+            0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30
+    };
+    /** The bucket bounds as exposed, in plain notation. */
+    static final String[] BUCKET_LABELS = new String[BUCKETS.length];
+    private static final long[] BUCKET_NANOS = new long[BUCKETS.length];
+    static {
+        for (int i = 0; i < BUCKETS.length; i++) {
+            BUCKET_LABELS[i] = BigDecimal.valueOf(BUCKETS[i]).stripTrailingZeros().toPlainString();
+            BUCKET_NANOS[i] = (long) (BUCKETS[i] * 1e9);
+        }
+    }
+
+    // the last counter holds observations above all bounds
+    private final LongAdder[] counts = new LongAdder[BUCKETS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    Histogram() {
+        for (int i = 0; i < this.counts.length; i++) {
+            this.counts[i] = new LongAdder();
+        }
+    }
+
+    /** Record an observation.
+     * @param nanos the observed duration, in nanoseconds
+     */
+    public void observe(long nanos) {
+        int i = 0;
+        while (i < BUCKET_NANOS.length && nanos > BUCKET_NANOS[i]) {
+            i++;
+        }
+        this.counts[i].increment();
+        this.sumNanos.add(nanos);
+    }
+
+    public void observe(long duration, TimeUnit unit) {
+        this.observe(unit.toNanos(duration));
+    }
+
+    /** Start timing an operation. The duration is recorded when the timer is closed.
+     * @return a new timer
+     */
+    public Timer startTimer() {
+        return new Timer(this);
+    }
+
+    /** @return the number of observations made */
+    public long count() {
+        long n = 0;
+        for (LongAdder c : this.counts) {
+            n += c.sum();
+        }
+        return n;
+    }
+
+    /** @return the sum of all observations, in seconds */
+    public double sum() {
+        return this.sumNanos.sum() / 1e9;
+    }
+
+    /** @return the cumulative number of observations for each bucket, including the +Inf bucket */
+    long[] cumulativeCounts() {
+        long[] out = new long[this.counts.length];
+        long acc = 0;
+        for (int i = 0; i < out.length; i++) {
+            acc += this.counts[i].sum();
+            out[i] = acc;
+        }
+        return out;
+    }
+
+    /** A running measurement, to be used in a try-with-resources statement. */
+    public static final class Timer implements AutoCloseable {
+        private final Histogram histogram;
+        private final long start;
+
+        private Timer(Histogram histogram) {
+            this.histogram = histogram;
+            this.start = System.nanoTime();
+        }
+
+        /** @return the time elapsed since the timer was started, in nanoseconds */
+        public long elapsed() {
+            return System.nanoTime() - this.start;
+        }
+
+        @Override
+        public void close() {
+            this.histogram.observe(this.elapsed());
+        }
+    }
+}
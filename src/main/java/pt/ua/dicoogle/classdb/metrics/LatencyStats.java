@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.metrics;
+
+/** Latency statistics of a single task, with approximate percentiles. Durations are counted in
+ * logarithmic buckets (8 per power of two), so percentiles are accurate to within 12.5% while
+ * memory use stays constant regardless of the number of observations.
+ *
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public final class LatencyStats {
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private final long[] buckets = new long[64 * SUB_BUCKETS];
+    private long count = 0;
+    private long totalNanos = 0;
+    private long maxNanos = 0;
+
+    public synchronized void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        this.buckets[bucketOf(nanos)]++;
+        this.count++;
+        this.totalNanos += nanos;
+        this.maxNanos = Math.max(this.maxNanos, nanos);
+    }
+
+    public synchronized long count() {
+        return this.count;
+    }
+
+    public synchronized double totalMs() {
+        return this.totalNanos / 1e6;
+    }
+
+    public synchronized double meanMs() {
+        return this.count == 0 ? 0 : this.totalNanos / 1e6 / this.count;
+    }
+
+    public synchronized double maxMs() {
+        return this.maxNanos / 1e6;
+    }
+
+    /** Obtain an approximate percentile of the recorded durations.
+     *
+     * @param p the percentile, between 0 and 100
+     * @return the upper bound of the bucket containing the percentile, in milliseconds,
+     * or 0 if nothing was recorded
+     */
+    public synchronized double percentileMs(double p) {
+        if (this.count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(p / 100 * this.count));
+        long acc = 0;
+        for (int i = 0; i < this.buckets.length; i++) {
+            acc += this.buckets[i];
+            if (acc >= rank) {
+                return Math.min(upperBound(i), this.maxNanos) / 1e6;
+            }
+        }
+        return this.maxNanos / 1e6;
+    }
+
+    private static int bucketOf(long nanos) {
+        if (nanos == 0) {
+            return 0;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = exp >= SUB_BITS
+                ? (int) (nanos >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1)
+                : (int) (nanos << (SUB_BITS - exp)) & (SUB_BUCKETS - 1);
+        return exp * SUB_BUCKETS + sub;
+    }
+
+    private static double upperBound(int bucket) {
+        int exp = bucket / SUB_BUCKETS;
+        int sub = bucket % SUB_BUCKETS;
+        return Math.scalb((double) (SUB_BUCKETS + sub + 1), exp - SUB_BITS);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d, mean %.2f ms, p99 %.2f ms, max %.2f ms, total %.0f ms",
+                this.count, this.meanMs(), this.percentileMs(99), this.maxMs(), this.totalMs());
+    }
+}
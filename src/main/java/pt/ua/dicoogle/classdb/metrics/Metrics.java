@@ -0,0 +1,165 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Supplier;
+
+/** A registry of counters and latency histograms, which can be exported in the Prometheus text format.
+ * Metrics are identified by name and label values, and are created on first use.
+ *
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public class Metrics {
+
+    private static final Metrics DEFAULT = new Metrics();
+
+    /** @return the registry shared by all components of the plugin */
+    public static Metrics getDefault() {
+        return DEFAULT;
+    }
+
+    private final ConcurrentMap<String, Family<?>> families = new ConcurrentSkipListMap<>();
+
+    /** Obtain a counter, creating it if necessary.
+     *
+     * @param name the metric name, ending in "_total" by convention
+     * @param help a description of the metric
+     * @param labels alternating label names and values
+     * @return the counter
+     */
+    public Counter counter(String name, String help, String... labels) {
+        return this.family(name, help, "counter", Counter.class).get(labels, Counter::new);
+    }
+
+    /** Obtain a latency histogram, creating it if necessary.
+     *
+     * @param name the metric name, ending in "_seconds" by convention
+     * @param help a description of the metric
+     * @param labels alternating label names and values
+     * @return the histogram
+     */
+    public Histogram histogram(String name, String help, String... labels) {
+        return this.family(name, help, "histogram", Histogram.class).get(labels, Histogram::new);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> Family<T> family(String name, String help, String type, Class<T> kind) {
+        Family<?> f = this.families.computeIfAbsent(name, k -> new Family<>(name, help, type, kind));
+        if (f.kind != kind) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as a " + f.type);
+        }
+        return (Family<T>) f;
+    }
+
+    /** Write all metrics in the Prometheus text exposition format (version 0.0.4).
+     *
+     * @param out the writer to write to
+     * @throws IOException on a write failure
+     */
+    public void writeTo(Writer out) throws IOException {
+        for (Family<?> f : this.families.values()) {
+            out.write("# HELP " + f.name + ' ' + f.help.replace("\\", "\\\\").replace("\n", "\\n") + '\n');
+            out.write("# TYPE " + f.name + ' ' + f.type + '\n');
+            for (Map.Entry<String, ?> e : f.children.entrySet()) {
+                String labels = e.getKey();
+                Object m = e.getValue();
+                if (m instanceof Counter) {
+                    out.write(f.name + labels + ' ' + ((Counter) m).get() + '\n');
+                } else {
+                    Histogram h = (Histogram) m;
+                    long[] counts = h.cumulativeCounts();
+                    for (int i = 0; i < counts.length; i++) {
+                        String le = i < Histogram.BUCKETS.length ? Histogram.BUCKET_LABELS[i] : "+Inf";
+                        out.write(f.name + "_bucket" + withLabel(labels, "le", le) + ' ' + counts[i] + '\n');
+                    }
+                    out.write(f.name + "_sum" + labels + ' ' + h.sum() + '\n');
+                    out.write(f.name + "_count" + labels + ' ' + counts[counts.length - 1] + '\n');
+                }
+            }
+        }
+    }
+
+    private static String withLabel(String labels, String name, String value) {
+        String label = name + "=\"" + value + '"';
+        if (labels.isEmpty()) {
+            return '{' + label + '}';
+        }
+        return labels.substring(0, labels.length() - 1) + ',' + label + '}';
+    }
+
+    /** Render label pairs in the exposition format, such as {@code {a="x",b="y"}}. */
+    static String renderLabels(String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be given as name-value pairs");
+        }
+        if (labels.length == 0) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder().append('{');
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(labels[i]).append("=\"");
+            String v = String.valueOf(labels[i + 1]);
+            for (int j = 0; j < v.length(); j++) {
+                char c = v.charAt(j);
+                switch (c) {
+                    case '\\':
+                        sb.append("\\\\");
+                        break;
+                    case '"':
+                        sb.append("\\\"");
+                        break;
+                    case '\n':
+                        sb.append("\\n");
+                        break;
+                    default:
+                        sb.append(c);
+                }
+            }
+            sb.append('"');
+        }
+        return sb.append('}').toString();
+    }
+
+    private static final class Family<T> {
+        final String name;
+        final String help;
+        final String type;
+        final Class<T> kind;
+        final ConcurrentMap<String, T> children = new ConcurrentSkipListMap<>();
+
+        Family(String name, String help, String type, Class<T> kind) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.kind = kind;
+        }
+
+        T get(String[] labels, Supplier<T> factory) {
+            return this.children.computeIfAbsent(renderLabels(labels), k -> factory.get());
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.ws;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import pt.ua.dicoogle.classdb.database.Database;
+import pt.ua.dicoogle.classdb.database.struct.Aggregation;
+import pt.ua.dicoogle.classdb.database.struct.Facet;
+import pt.ua.dicoogle.classdb.database.struct.QueryParametersBuilder;
+
+/** A web servlet for obtaining prediction counts and score histograms over the classification database,
+ * grouped by classifier, criterion and/or predicted class.
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public class AggregateWebServlet extends HttpServlet {
+    private static final Logger logger = LoggerFactory.getLogger(AggregateWebServlet.class);
+
+    private static final int DEFAULT_BINS = 10;
+    private static final int MAX_BINS = 1000;
+
+    private volatile Database db;
+
+    public void setDatabase(Database db) {
+        this.db = db;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        try {
+            String query = req.getParameter("query");
+            if (query == null) {
+                query = "*:*";
+            }
+
+            List<Facet> facets = new ArrayList<>();
+            String qFacets = req.getParameter("facets");
+            if (qFacets != null && !qFacets.trim().isEmpty()) {
+                try {
+                    for (String f : qFacets.split(",")) {
+                        facets.add(Facet.fromName(f));
+                    }
+                } catch (IllegalArgumentException ex) {
+                    sendError(resp, 400, "Bad facets parameter: must be a comma separated list of "
+                            + "classifier, criterion or prediction");
+                    return;
+                }
+            }
+
+            QueryParametersBuilder qp = new QueryParametersBuilder();
+            String qOnlyBest = req.getParameter("onlybest");
+            if (qOnlyBest != null) {
+                qp.setOnlyBest(Boolean.parseBoolean(qOnlyBest));
+            }
+            String qThreshold = req.getParameter("threshold");
+            if (qThreshold != null) {
+                try {
+                    float t = Float.parseFloat(qThreshold);
+                    if (t < 0.f || t > 1.f) {
+                        throw new NumberFormatException();
+                    }
+                    qp.setThreshold(t);
+                } catch (NumberFormatException ex) {
+                    sendError(resp, 400, "Bad threshold parameter: must be a number between 0 and 1");
+                    return;
+                }
+            }
+            int nbins = DEFAULT_BINS;
+            String qBins = req.getParameter("bins");
+            if (qBins != null) {
+                try {
+                    nbins = Integer.parseInt(qBins);
+                    if (nbins < 1 || nbins > MAX_BINS) {
+                        throw new NumberFormatException();
+                    }
+                } catch (NumberFormatException ex) {
+                    sendError(resp, 400, "Bad bins parameter: must be an integer between 1 and " + MAX_BINS);
+                    return;
+                }
+            }
+
+            if (this.db == null) {
+                sendError(resp, 503, "Classification database is not ready");
+                return;
+            }
+
+            long ctime = System.currentTimeMillis();
+
+            Aggregation aggregation = this.db.aggregate(query, qp.build(), facets, nbins);
+
+            JSONArray buckets = new JSONArray();
+            for (Aggregation.Bucket b : aggregation.getBuckets()) {
+                JSONObject o = new JSONObject();
+                for (int i = 0; i < facets.size(); i++) {
+                    o.put(facets.get(i).getName(), b.getKey().get(i));
+                }
+                o.put("count", b.getCount());
+                o.put("meanScore", b.getMeanScore());
+                JSONArray histogram = new JSONArray();
+                for (long c : b.getHistogram()) {
+                    histogram.put(c);
+                }
+                o.put("histogram", histogram);
+                buckets.put(o);
+            }
+
+            JSONObject o = new JSONObject();
+            o.put("buckets", buckets);
+            o.put("total", aggregation.getTotalCount());
+            o.put("elapsedTime", System.currentTimeMillis() - ctime);
+            resp.setStatus(200);
+            resp.getWriter().write(o.toString());
+
+        } catch (RuntimeException|JSONException ex) {
+            logger.warn("Servlet failure", ex);
+            sendError(resp, 500, "Internal server failure");
+        }
+    }
+
+    private static void sendError(HttpServletResponse resp, int code, String message) throws IOException {
+        JSONObject o = new JSONObject();
+        try {
+            o.put("error", message);
+        } catch (JSONException e) {}
+        resp.setStatus(code);
+        resp.getWriter().write(o.toString());
+    }
+}
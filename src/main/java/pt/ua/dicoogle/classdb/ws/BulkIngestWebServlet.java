@@ -0,0 +1,135 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.ws;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import pt.ua.dicoogle.classdb.database.Database;
+import pt.ua.dicoogle.classdb.database.lucene.LuceneDatabase;
+
+/** A web servlet for entering and leaving bulk ingest mode.
+ * <ul>
+ * <li><code>GET</code>: report whether bulk ingest is in progress;</li>
+ * <li><code>POST /begin?ram-buffer-mb=N</code>: enter bulk ingest mode;</li>
+ * <li><code>POST /end?max-segments=N</code>: commit, leave bulk ingest mode and optionally merge the index
+ * down to N segments in the background.</li>
+ * </ul>
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public class BulkIngestWebServlet extends HttpServlet {
+    private static final Logger logger = LoggerFactory.getLogger(BulkIngestWebServlet.class);
+
+    private volatile Database db;
+
+    public void setDatabase(Database db) {
+        this.db = db;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        LuceneDatabase db = this.luceneDatabase(resp);
+        if (db == null) {
+            return;
+        }
+        try {
+            sendStatus(resp, db);
+        } catch (RuntimeException | JSONException ex) {
+            logger.warn("Servlet failure", ex);
+            sendError(resp, 500, "Internal server failure");
+        }
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        LuceneDatabase db = this.luceneDatabase(resp);
+        if (db == null) {
+            return;
+        }
+        String action = req.getPathInfo();
+        try {
+            if ("/begin".equals(action)) {
+                double ramBufferMB = LuceneDatabase.DEFAULT_BULK_RAM_BUFFER_MB;
+                String ramParam = req.getParameter("ram-buffer-mb");
+                if (ramParam != null) {
+                    ramBufferMB = Double.parseDouble(ramParam);
+                }
+                db.beginBulkIngest(ramBufferMB);
+            } else if ("/end".equals(action)) {
+                int maxSegments = 0;
+                String segmentsParam = req.getParameter("max-segments");
+                if (segmentsParam != null) {
+                    maxSegments = Integer.parseInt(segmentsParam);
+                }
+                db.endBulkIngest(maxSegments);
+            } else {
+                sendError(resp, 404, "Unknown action, expected begin or end");
+                return;
+            }
+            sendStatus(resp, db);
+        } catch (IllegalArgumentException ex) {
+            // includes NumberFormatException
+            sendError(resp, 400, ex.getMessage());
+        } catch (IllegalStateException ex) {
+            sendError(resp, 409, ex.getMessage());
+        } catch (IOException | RuntimeException | JSONException ex) {
+            logger.warn("Servlet failure", ex);
+            sendError(resp, 500, "Internal server failure");
+        }
+    }
+
+    private LuceneDatabase luceneDatabase(HttpServletResponse resp) throws IOException {
+        Database db = this.db;
+        if (db == null) {
+            sendError(resp, 503, "Classification database is not ready");
+            return null;
+        }
+        if (!(db instanceof LuceneDatabase)) {
+            sendError(resp, 501, "Bulk ingest is not supported by this database");
+            return null;
+        }
+        return (LuceneDatabase) db;
+    }
+
+    private static void sendStatus(HttpServletResponse resp, LuceneDatabase db) throws IOException, JSONException {
+        JSONObject o = new JSONObject();
+        o.put("bulkIngest", db.isBulkIngesting());
+        o.put("merging", db.isMerging());
+        resp.setStatus(200);
+        resp.getWriter().write(o.toString());
+    }
+
+    private static void sendError(HttpServletResponse resp, int code, String message) throws IOException {
+        JSONObject o = new JSONObject();
+        try {
+            o.put("error", message);
+        } catch (JSONException e) {}
+        resp.setStatus(code);
+        resp.getWriter().write(o.toString());
+    }
+}
@@ -18,95 +18,482 @@
  */
 package pt.ua.dicoogle.classdb.ws;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.stream.StreamSupport;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import pt.ua.dicoogle.classdb.ClassificationIndexer;
+import pt.ua.dicoogle.classdb.ClassifierInvoker;
+import pt.ua.dicoogle.classdb.ClassifierUnavailableException;
+import pt.ua.dicoogle.classdb.database.Database;
+import pt.ua.dicoogle.classdb.database.DatabaseWriter;
+import pt.ua.dicoogle.classdb.database.struct.DatabaseItem;
+import pt.ua.dicoogle.classification.api.PredictionIdentifier;
 import pt.ua.dicoogle.sdk.QueryInterface;
 import pt.ua.dicoogle.sdk.core.DicooglePlatformInterface;
+import pt.ua.dicoogle.sdk.datastructs.SearchResult;
 
-/**
+/** A web servlet for classifying an item. Predictions already in the classification database are
+ * served directly, unless fresh predictions are requested. Fresh predictions are written back to
+ * the database in the background.
+ *
  * @author Eduardo Pinho <eduardopinho@ua.pt>
  */
 public class ClassifyWebServlet extends HttpServlet {
     private static final Logger logger = LoggerFactory.getLogger(ClassifyWebServlet.class);
 
+    private static final int DEFAULT_BATCH_PARALLELISM = 4;
+    private static final int MAX_BATCH_PARALLELISM = 16;
+    private static final int MAX_BATCH_SIZE = 10000;
+
     private DicooglePlatformInterface platform;
+    private volatile ClassificationIndexer indexer;
+    private volatile Database db;
+    private volatile ClassifierInvoker invoker = new ClassifierInvoker();
+    private final ExecutorService batchExecutor = Executors.newFixedThreadPool(MAX_BATCH_PARALLELISM, r -> {
+        Thread t = new Thread(r, "class-db-batch-classify");
+        t.setDaemon(true);
+        return t;
+    });
+    private final ExecutorService writeBackExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "class-db-write-back");
+        t.setDaemon(true);
+        return t;
+    });
 
     public void setPlatformProxy(DicooglePlatformInterface platform) {
         this.platform = platform;
     }
 
+    public void setClassifierInvoker(ClassifierInvoker invoker) {
+        this.invoker = invoker;
+    }
+
+    /** Share the indexer's classifiers, so that they are not looked up in the platform on every request. */
+    public void setIndexer(ClassificationIndexer indexer) {
+        this.indexer = indexer;
+    }
+
+    public void setDatabase(Database db) {
+        this.db = db;
+    }
+
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
         try {
-            if (!req.getRequestURI().startsWith("/classification/classify/")) {
-                sendError(resp, 404, "Not Found");
-                return;
-            }
-            String requestURI = req.getRequestURI().substring("/classification/classify/".length());
-            String[] resArr = requestURI.split("/");
-
-            String classifierName;
-            String criterion;
-            try {
-                classifierName = resArr[0];
-                criterion = resArr[1];
-            } catch (ArrayIndexOutOfBoundsException ex) {
-                sendError(resp, 400, "Bad path to classifier/criterion");
+            String[] endpoint = parseEndpoint(req, resp);
+            if (endpoint == null) {
                 return;
             }
+            String classifierName = endpoint[0];
+            String criterion = endpoint[1];
             String data = req.getParameter("uri");
             if (data == null) {
                 sendError(resp, 400, "Missing uri parameter");
                 return;
             }
+            boolean fresh = Boolean.parseBoolean(req.getParameter("fresh"));
+            URI item = toItem(data);
+
+            long ctime = System.currentTimeMillis();
+
+            final Database db = this.db;
+            if (!fresh) {
+                Map<String, Object> out = this.lookup(db, item, classifierName, criterion);
+                if (!out.isEmpty()) {
+                    writeResults(resp, out, true, System.currentTimeMillis() - ctime);
+                    return;
+                }
+            }
 
             // use query provider as a classifier
-            QueryInterface classifier = platform.getQueryProviderByName(classifierName, true);
+            QueryInterface classifier = this.classifier(classifierName);
+            if (classifier == null) {
+                sendError(resp, 400, String.format("No such classifier named `%s`", classifierName));
+                return;
+            }
+
+            List<SearchResult> results = this.classify(classifierName, classifier, criterion, item, data);
+            long etime = System.currentTimeMillis() - ctime;
+            writeResults(resp, toResultMap(results), false, etime);
+
+            if (db != null && item != null) {
+                this.writeBack(db, item, classifierName, criterion, results);
+            }
+
+        } catch (ClassifierUnavailableException ex) {
+            sendError(resp, 503, ex.getMessage());
+        } catch (RuntimeException|JSONException ex) {
+            logger.warn("Servlet failure", ex);
+            sendError(resp, 500, "Internal server failure");
+        }
+    }
+
+    /** Classify multiple items with the same classifier and criterion. The request body is a JSON array
+     * of item URIs, or an object with that array in "uris". Results are streamed as they become available,
+     * one JSON object per line, followed by a final summary line.
+     */
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        try {
+            String[] endpoint = parseEndpoint(req, resp);
+            if (endpoint == null) {
+                return;
+            }
+            String classifierName = endpoint[0];
+            String criterion = endpoint[1];
+
+            List<String> uris;
+            try {
+                uris = parseUris(req);
+            } catch (JSONException ex) {
+                sendError(resp, 400, "Bad request body: must be a JSON array of URIs or an object with \"uris\"");
+                return;
+            }
+            if (uris.size() > MAX_BATCH_SIZE) {
+                sendError(resp, 400, "Too many items: at most " + MAX_BATCH_SIZE + " per request");
+                return;
+            }
+            int parallelism = DEFAULT_BATCH_PARALLELISM;
+            String qParallelism = req.getParameter("parallelism");
+            if (qParallelism != null) {
+                try {
+                    parallelism = Integer.parseInt(qParallelism);
+                    if (parallelism < 1 || parallelism > MAX_BATCH_PARALLELISM) {
+                        throw new NumberFormatException();
+                    }
+                } catch (NumberFormatException ex) {
+                    sendError(resp, 400, "Bad parallelism parameter: must be an integer between 1 and "
+                            + MAX_BATCH_PARALLELISM);
+                    return;
+                }
+            }
+            boolean fresh = Boolean.parseBoolean(req.getParameter("fresh"));
+            boolean persist = Boolean.parseBoolean(req.getParameter("persist"));
+
+            QueryInterface classifier = this.classifier(classifierName);
             if (classifier == null) {
                 sendError(resp, 400, String.format("No such classifier named `%s`", classifierName));
                 return;
             }
+            final Database db = this.db;
+            if (persist && db == null) {
+                sendError(resp, 503, "Classification database is not ready");
+                return;
+            }
 
             long ctime = System.currentTimeMillis();
+            resp.setStatus(200);
+            resp.setContentType("application/x-ndjson");
+            PrintWriter out = resp.getWriter();
 
-            Map<String, Object> out = StreamSupport.stream(classifier.query(criterion, data).spliterator(), false)
-                    .filter(sr -> sr.getURI().getScheme().equalsIgnoreCase("class"))
-                    .collect(HashMap<String,Object>::new, (m, searchResult) -> {
-                        URI uri = searchResult.getURI();
-                        double score = searchResult.getScore();
-                        if (Double.isFinite(score)) {
-                            m.put(uri.toString(), searchResult.getScore());
-                        } else {
-                            m.put(uri.toString(), Double.toString(score));
+            // the response is committed from here on, so failures can only be reported in the stream
+            CompletionService<BatchOutcome> completion = new ExecutorCompletionService<>(this.batchExecutor);
+            Iterator<String> pending = uris.iterator();
+            int running = 0;
+            int nErrors = 0;
+            int nStored = 0;
+            DatabaseWriter writer = null;
+            try {
+                writer = persist ? db.createWriter() : null;
+                // keep at most `parallelism` items of this request in progress
+                while (running < parallelism && pending.hasNext()) {
+                    completion.submit(this.batchTask(db, classifierName, classifier, criterion, pending.next(), fresh));
+                    running++;
+                }
+                while (running > 0) {
+                    BatchOutcome outcome;
+                    try {
+                        outcome = completion.take().get();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        logger.warn("Batch classification interrupted");
+                        break;
+                    } catch (ExecutionException ex) {
+                        // tasks handle their own failures
+                        throw new IllegalStateException(ex.getCause());
+                    }
+                    running--;
+                    if (pending.hasNext()) {
+                        completion.submit(this.batchTask(db, classifierName, classifier, criterion, pending.next(), fresh));
+                        running++;
+                    }
+
+                    JSONObject o = new JSONObject();
+                    o.put("uri", outcome.uri);
+                    if (outcome.error != null) {
+                        nErrors++;
+                        o.put("error", outcome.error);
+                    } else {
+                        o.put("results", new JSONObject(toResultMap(outcome.results)));
+                        o.put("cached", outcome.cached);
+                        if (writer != null && !outcome.cached && outcome.item != null) {
+                            try {
+                                nStored += store(writer, outcome.item, classifierName, criterion, outcome.results);
+                            } catch (IOException|RuntimeException ex) {
+                                logger.warn("Failed to store predictions of {}", outcome.uri, ex);
+                                nErrors++;
+                                o.put("error", "Failed to store predictions");
+                            }
                         }
-                    }, Map::putAll);
-            long etime = System.currentTimeMillis() - ctime;
-            JSONObject o = new JSONObject();
-            o.put("results", new JSONObject(out));
-            o.put("elapsedTime", etime);
-            resp.setStatus(200);
-            resp.getWriter().write(o.toString());
+                    }
+                    writeLine(out, o);
+                }
+            } catch (IOException|RuntimeException|JSONException ex) {
+                logger.warn("Servlet failure", ex);
+                nErrors++;
+                writeLine(out, errorLine("Internal server failure"));
+            }
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException|RuntimeException ex) {
+                    logger.warn("Failed to commit batch predictions", ex);
+                    nErrors++;
+                    nStored = 0;
+                    writeLine(out, errorLine("Failed to store predictions"));
+                }
+            }
+
+            JSONObject summary = new JSONObject();
+            summary.put("done", true);
+            summary.put("count", uris.size());
+            summary.put("errors", nErrors);
+            summary.put("stored", nStored);
+            summary.put("elapsedTime", System.currentTimeMillis() - ctime);
+            writeLine(out, summary);
 
         } catch (RuntimeException|JSONException ex) {
             logger.warn("Servlet failure", ex);
-            sendError(resp, 500, "Internal server failure");
+            if (!resp.isCommitted()) {
+                sendError(resp, 500, "Internal server failure");
+            }
+        }
+    }
+
+    private static int store(DatabaseWriter writer, URI item, String classifierName, String criterion,
+                             List<SearchResult> results) throws IOException {
+        writer.removePredictions(item, classifierName, criterion);
+        List<DatabaseItem> dbItems = toDatabaseItems(item, results);
+        for (DatabaseItem dbItem : dbItems) {
+            writer.add(dbItem);
+        }
+        return dbItems.size();
+    }
+
+    private static void writeLine(PrintWriter out, JSONObject o) {
+        out.write(o.toString());
+        out.write('\n');
+        out.flush();
+    }
+
+    private static JSONObject errorLine(String message) {
+        JSONObject o = new JSONObject();
+        try {
+            o.put("error", message);
+        } catch (JSONException e) {
+            throw new IllegalArgumentException(e);
+        }
+        return o;
+    }
+
+    private Callable<BatchOutcome> batchTask(Database db, String classifierName, QueryInterface classifier,
+                                             String criterion, String data, boolean fresh) {
+        return () -> {
+            URI item = toItem(data);
+            try {
+                if (!fresh) {
+                    List<SearchResult> stored = this.lookupResults(db, item, classifierName, criterion);
+                    if (!stored.isEmpty()) {
+                        return new BatchOutcome(data, item, stored, true, null);
+                    }
+                }
+                List<SearchResult> results = this.classify(classifierName, classifier, criterion, item, data);
+                return new BatchOutcome(data, item, results, false, null);
+            } catch (IOException|RuntimeException ex) {
+                logger.warn("Failed to classify {}", data, ex);
+                return new BatchOutcome(data, item, null, false, "Classification failed");
+            }
+        };
+    }
+
+    private static final class BatchOutcome {
+        final String uri;
+        final URI item;
+        final List<SearchResult> results;
+        final boolean cached;
+        final String error;
+
+        BatchOutcome(String uri, URI item, List<SearchResult> results, boolean cached, String error) {
+            this.uri = uri;
+            this.item = item;
+            this.results = results;
+            this.cached = cached;
+            this.error = error;
+        }
+    }
+
+    private static String[] parseEndpoint(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        if (!req.getRequestURI().startsWith("/classification/classify/")) {
+            sendError(resp, 404, "Not Found");
+            return null;
+        }
+        String requestURI = req.getRequestURI().substring("/classification/classify/".length());
+        String[] resArr = requestURI.split("/");
+        if (resArr.length < 2) {
+            sendError(resp, 400, "Bad path to classifier/criterion");
+            return null;
+        }
+        return resArr;
+    }
+
+    private static List<String> parseUris(HttpServletRequest req) throws IOException, JSONException {
+        StringBuilder body = new StringBuilder();
+        try (BufferedReader reader = req.getReader()) {
+            char[] buf = new char[4096];
+            int n;
+            while ((n = reader.read(buf)) != -1) {
+                body.append(buf, 0, n);
+            }
+        }
+        Object value = new JSONTokener(body.toString()).nextValue();
+        JSONArray array;
+        if (value instanceof JSONArray) {
+            array = (JSONArray) value;
+        } else if (value instanceof JSONObject) {
+            array = ((JSONObject) value).getJSONArray("uris");
+        } else {
+            throw new JSONException("Expected array or object");
+        }
+        List<String> uris = new ArrayList<>(array.length());
+        for (int i = 0; i < array.length(); i++) {
+            uris.add(array.getString(i));
+        }
+        return uris;
+    }
+
+    private static URI toItem(String data) {
+        try {
+            return new URI(data);
+        } catch (URISyntaxException ex) {
+            // not usable with the database, but the classifier may still accept it
+            return null;
         }
     }
 
+    private List<SearchResult> classify(String classifierName, QueryInterface classifier, String criterion, URI item,
+                                        String data) {
+        // as the indexer does, so that both share the classification of an item in progress
+        List<SearchResult> results = item != null
+                ? this.invoker.classify(classifierName, classifier, criterion, item)
+                : this.invoker.classify(classifierName, classifier, criterion, data);
+        return results.stream()
+                .filter(sr -> sr.getURI().getScheme().equalsIgnoreCase("class"))
+                .collect(Collectors.toList());
+    }
+
+    private Map<String, Object> lookup(Database db, URI item, String classifierName, String criterion) throws IOException {
+        return toResultMap(this.lookupResults(db, item, classifierName, criterion));
+    }
+
+    private List<SearchResult> lookupResults(Database db, URI item, String classifierName, String criterion) throws IOException {
+        if (db == null || item == null) {
+            return Collections.emptyList();
+        }
+        return db.predictionsOf(item, classifierName, criterion)
+                .map(dbItem -> new SearchResult(dbItem.predictionIdentifier().toURI(), dbItem.score(), new HashMap<>()))
+                .collect(Collectors.toList());
+    }
+
+    private static Map<String, Object> toResultMap(List<SearchResult> results) {
+        Map<String, Object> out = new HashMap<>();
+        for (SearchResult searchResult : results) {
+            putScore(out, searchResult.getURI(), searchResult.getScore());
+        }
+        return out;
+    }
+
+    private QueryInterface classifier(String name) {
+        ClassificationIndexer indexer = this.indexer;
+        return indexer != null ? indexer.getClassifier(name) : this.platform.getQueryProviderByName(name, true);
+    }
+
+    private static List<DatabaseItem> toDatabaseItems(URI item, List<SearchResult> results) {
+        List<DatabaseItem> items = new ArrayList<>(results.size());
+        for (SearchResult sr : results) {
+            if (sr.getScore() >= 0 && sr.getScore() <= 1) {
+                items.add(DatabaseItem.of(item, PredictionIdentifier.decompose(sr.getURI()), sr.getScore()));
+            }
+        }
+        return items;
+    }
+
+    private void writeBack(Database db, URI item, String classifierName, String criterion,
+                           List<SearchResult> results) {
+        this.writeBackExecutor.execute(() -> {
+            try {
+                List<DatabaseItem> items = toDatabaseItems(item, results);
+                if (items.isEmpty()) {
+                    return;
+                }
+                try (DatabaseWriter writer = db.createWriter()) {
+                    // the classes predicted before may not be predicted anymore
+                    writer.removePredictions(item, classifierName, criterion);
+                    for (DatabaseItem dbItem : items) {
+                        writer.add(dbItem);
+                    }
+                }
+            } catch (IOException|RuntimeException e) {
+                logger.warn("Failed to store predictions of {}", item, e);
+            }
+        });
+    }
+
+    private static void putScore(Map<String, Object> m, URI uri, double score) {
+        if (Double.isFinite(score)) {
+            m.put(uri.toString(), score);
+        } else {
+            m.put(uri.toString(), Double.toString(score));
+        }
+    }
+
+    private static void writeResults(HttpServletResponse resp, Map<String, Object> out, boolean cached, long etime)
+            throws IOException, JSONException {
+        JSONObject o = new JSONObject();
+        o.put("results", new JSONObject(out));
+        o.put("cached", cached);
+        o.put("elapsedTime", etime);
+        resp.setStatus(200);
+        resp.getWriter().write(o.toString());
+    }
+
     private static void sendError(HttpServletResponse resp, int code, String message) throws IOException {
         JSONObject o = new JSONObject();
         try {
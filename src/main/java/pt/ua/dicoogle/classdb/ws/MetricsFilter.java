@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.ws;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import pt.ua.dicoogle.classdb.events.FlightEvents;
+import pt.ua.dicoogle.classdb.events.ServletEvent;
+import pt.ua.dicoogle.classdb.metrics.Histogram;
+import pt.ua.dicoogle.classdb.metrics.Metrics;
+
+/** A servlet filter recording the number and latency of requests to the class-db web services,
+ * by servlet path, method and response status. Requests are also reported as flight recorder events.
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public class MetricsFilter implements Filter {
+
+    @Override
+    public void init(FilterConfig filterConfig) {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        if (!(request instanceof HttpServletRequest)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        HttpServletRequest req = (HttpServletRequest) request;
+        ServletEvent event = FlightEvents.servlet();
+        long start = System.nanoTime();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            int status = ((HttpServletResponse) response).getStatus();
+            Histogram h = Metrics.getDefault().histogram("classdb_http_request_seconds",
+                    "Latency of requests to the class-db web services",
+                    "path", req.getServletPath(), "method", req.getMethod(), "status", Integer.toString(status));
+            h.observe(System.nanoTime() - start);
+            if (event != null) {
+                event.finish(req.getServletPath(), req.getMethod(), status);
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
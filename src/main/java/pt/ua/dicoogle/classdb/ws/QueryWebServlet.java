@@ -97,30 +97,53 @@ public class QueryWebServlet extends HttpServlet {
 
             // use database directly
             if (this.db == null) {
-                this.sendError(resp, 500, "Classification database is not ready");
+                this.sendError(resp, 503, "Classification database is not ready");
                 return;
             }
 
             long ctime = System.currentTimeMillis();
 
-            Stream<DatabaseItem> resultStream = this.db.search(query, qp.build());
+            if (Boolean.parseBoolean(req.getParameter("count"))) {
+                long count = this.db.count(query, qp.build());
+                JSONObject o = new JSONObject();
+                o.put("count", count);
+                o.put("elapsedTime", System.currentTimeMillis() - ctime);
+                resp.setStatus(200);
+                resp.getWriter().write(o.toString());
+                return;
+            }
+            if (Boolean.parseBoolean(req.getParameter("exists"))) {
+                boolean exists = this.db.exists(query, qp.build());
+                JSONObject o = new JSONObject();
+                o.put("exists", exists);
+                o.put("elapsedTime", System.currentTimeMillis() - ctime);
+                resp.setStatus(200);
+                resp.getWriter().write(o.toString());
+                return;
+            }
 
             JSONObject o = new JSONObject();
-            o.put("results", resultStream
-                    .map(item -> {
-                        JSONObject p = new JSONObject();
-                        try {
-                            p.put("item", item.item());
-                            p.put("classifierName", item.classifierName());
-                            p.put("criterion", item.criterion());
-                            p.put("prediction", item.predictedClass());
-                            p.put("score", item.score());
-                        } catch (JSONException e) {
-                            logger.warn("JSON problem", e);
-                        }
-                        return p;
-                    }).collect(Collectors.toList())
-            );
+            // closing the stream concludes the query's profile
+            try (Stream<DatabaseItem> resultStream = this.db.search(query, qp.build())) {
+                o.put("results", resultStream
+                        .map(item -> {
+                            JSONObject p = new JSONObject();
+                            try {
+                                p.put("item", item.item());
+                                p.put("classifierName", item.classifierName());
+                                p.put("criterion", item.criterion());
+                                p.put("prediction", item.predictedClass());
+                                p.put("score", item.score());
+                                if (item.modelVersion() != null) {
+                                    p.put("modelVersion", item.modelVersion());
+                                }
+                            } catch (JSONException e) {
+                                logger.warn("JSON problem", e);
+                            }
+                            return p;
+                        }).collect(Collectors.toList())
+                );
+            }
             long etime = System.currentTimeMillis() - ctime;
             o.put("elapsedTime", etime);
             resp.setStatus(200);
@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.ws;
+
+import java.io.IOException;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import pt.ua.dicoogle.classdb.ClassificationIndexer;
+import pt.ua.dicoogle.classdb.ReclassificationJob;
+
+/** A web servlet for reclassifying the items with predictions by outdated classifier models.
+ * <ul>
+ * <li><code>GET</code>: report the progress of the last reclassification;</li>
+ * <li><code>POST</code>: start a reclassification in the background, or with <code>skipped=true</code>,
+ * catch up on the endpoints skipped while their classifier was unavailable. Classifiers are looked up
+ * again in the platform first;</li>
+ * <li><code>DELETE</code>: cancel the ongoing reclassification.</li>
+ * </ul>
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public class ReclassifyWebServlet extends HttpServlet {
+    private static final Logger logger = LoggerFactory.getLogger(ReclassifyWebServlet.class);
+
+    private volatile ClassificationIndexer indexer;
+
+    public void setIndexer(ClassificationIndexer indexer) {
+        this.indexer = indexer;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        ClassificationIndexer indexer = this.indexer;
+        if (indexer == null) {
+            sendError(resp, 503, "Indexer is not ready");
+            return;
+        }
+        ReclassificationJob job = indexer.getReclassification();
+        if (job == null) {
+            sendError(resp, 404, "No reclassification was started");
+            return;
+        }
+        this.sendStatus(resp, 200, job);
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        ClassificationIndexer indexer = this.indexer;
+        if (indexer == null) {
+            sendError(resp, 503, "Indexer is not ready");
+            return;
+        }
+        ReclassificationJob job;
+        try {
+            job = Boolean.parseBoolean(req.getParameter("skipped"))
+                    ? indexer.startCatchUp()
+                    : indexer.startReclassification();
+        } catch (IllegalStateException ex) {
+            sendError(resp, 409, ex.getMessage());
+            return;
+        }
+        this.sendStatus(resp, 202, job);
+    }
+
+    @Override
+    protected void doDelete(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        ClassificationIndexer indexer = this.indexer;
+        ReclassificationJob job = indexer != null ? indexer.getReclassification() : null;
+        if (job == null || !job.isActive()) {
+            sendError(resp, 404, "No reclassification in progress");
+            return;
+        }
+        job.cancel();
+        this.sendStatus(resp, 200, job);
+    }
+
+    private void sendStatus(HttpServletResponse resp, int code, ReclassificationJob job) throws IOException {
+        try {
+            JSONObject versions = new JSONObject();
+            for (Map.Entry<String, String> e : job.getModelVersions().entrySet()) {
+                versions.put(e.getKey(), e.getValue());
+            }
+            JSONObject o = new JSONObject();
+            o.put("state", job.getState().name());
+            o.put("modelVersions", versions);
+            o.put("total", job.getTotal());
+            o.put("processed", job.getProcessed());
+            o.put("failed", job.getFailed());
+            o.put("predictions", job.getPredictions());
+            o.put("progress", job.getProgress());
+            o.put("elapsedTime", job.getElapsedMs());
+            double rate = job.getRate();
+            o.put("rate", Double.isNaN(rate) ? JSONObject.NULL : rate);
+            o.put("eta", job.getEtaMs());
+            resp.setStatus(code);
+            resp.getWriter().write(o.toString());
+        } catch (RuntimeException | JSONException ex) {
+            logger.warn("Servlet failure", ex);
+            sendError(resp, 500, "Internal server failure");
+        }
+    }
+
+    private static void sendError(HttpServletResponse resp, int code, String message) throws IOException {
+        JSONObject o = new JSONObject();
+        try {
+            o.put("error", message);
+        } catch (JSONException e) {}
+        resp.setStatus(code);
+        resp.getWriter().write(o.toString());
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.ws;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import pt.ua.dicoogle.classdb.database.QueryProfile;
+import pt.ua.dicoogle.classdb.database.SlowQueryLog;
+
+/** A web servlet listing the most recent slow queries, with their execution profile.
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public class SlowQueryWebServlet extends HttpServlet {
+    private static final Logger logger = LoggerFactory.getLogger(SlowQueryWebServlet.class);
+
+    private volatile SlowQueryLog log;
+
+    public void setSlowQueryLog(SlowQueryLog log) {
+        this.log = log;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        SlowQueryLog log = this.log;
+        if (log == null) {
+            sendError(resp, 500, "Slow query log is not available");
+            return;
+        }
+        try {
+            JSONArray queries = new JSONArray();
+            for (QueryProfile p : log.recent()) {
+                JSONObject params = new JSONObject();
+                params.put("nresults", p.getParameters().getNumberOfResults());
+                params.put("threshold", p.getParameters().getThreshold());
+                params.put("onlybest", p.getParameters().isOnlyBest());
+
+                JSONObject q = new JSONObject();
+                q.put("timestamp", p.getTimestamp());
+                q.put("operation", p.getOperation());
+                q.put("query", p.getQuery());
+                q.put("parsedQuery", p.getParsedQuery());
+                q.put("params", params);
+                q.put("hits", p.getHits());
+                q.put("results", p.getResults());
+                q.put("elapsedTime", p.getTotalMs());
+                q.put("parseTime", p.getParseMs());
+                q.put("collectTime", p.getCollectMs());
+                q.put("loadTime", p.getLoadMs());
+                q.put("groupTime", p.getGroupMs());
+                queries.put(q);
+            }
+            JSONObject o = new JSONObject();
+            o.put("threshold", log.getThreshold());
+            o.put("count", log.count());
+            o.put("queries", queries);
+            resp.setStatus(200);
+            resp.getWriter().write(o.toString());
+        } catch (RuntimeException | JSONException ex) {
+            logger.warn("Servlet failure", ex);
+            sendError(resp, 500, "Internal server failure");
+        }
+    }
+
+    private static void sendError(HttpServletResponse resp, int code, String message) throws IOException {
+        JSONObject o = new JSONObject();
+        try {
+            o.put("error", message);
+        } catch (JSONException e) {}
+        resp.setStatus(code);
+        resp.getWriter().write(o.toString());
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.ws;
+
+import java.io.IOException;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import pt.ua.dicoogle.classdb.database.Database;
+import pt.ua.dicoogle.classdb.database.lucene.IndexStats;
+import pt.ua.dicoogle.classdb.database.lucene.LuceneDatabase;
+
+/** A web servlet reporting the health and statistics of the classification index.
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public class StatsWebServlet extends HttpServlet {
+    private static final Logger logger = LoggerFactory.getLogger(StatsWebServlet.class);
+
+    private volatile Database db;
+
+    public void setDatabase(Database db) {
+        this.db = db;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        Database db = this.db;
+        if (db == null) {
+            sendError(resp, 503, "Classification database is not ready");
+            return;
+        }
+        if (!(db instanceof LuceneDatabase)) {
+            sendError(resp, 501, "Statistics are not supported by this database");
+            return;
+        }
+        try {
+            long ctime = System.currentTimeMillis();
+            IndexStats stats = ((LuceneDatabase) db).stats();
+
+            JSONArray segments = new JSONArray();
+            for (IndexStats.Segment s : stats.getSegments()) {
+                JSONObject o = new JSONObject();
+                o.put("name", s.getName());
+                o.put("docs", s.getDocCount());
+                o.put("deletedDocs", s.getDeletedDocs());
+                o.put("bytes", s.getSizeBytes());
+                o.put("compound", s.isCompound());
+                segments.put(o);
+            }
+
+            JSONObject counts = new JSONObject();
+            for (Map.Entry<String, Map<String, Long>> e : stats.getCounts().entrySet()) {
+                JSONObject criteria = new JSONObject();
+                for (Map.Entry<String, Long> c : e.getValue().entrySet()) {
+                    criteria.put(c.getKey(), c.getValue());
+                }
+                counts.put(e.getKey(), criteria);
+            }
+
+            JSONObject reader = new JSONObject();
+            reader.put("generation", stats.getReaderGeneration());
+            reader.put("version", stats.getReaderVersion());
+            reader.put("current", stats.isReaderCurrent());
+            reader.put("staleness", stats.getReaderStaleness());
+
+            JSONObject writer = new JSONObject();
+            writer.put("pendingDocs", stats.getPendingDocs());
+            writer.put("pendingBytes", stats.getPendingBytes());
+            writer.put("uncommittedChanges", stats.hasUncommittedChanges());
+
+            JSONObject o = new JSONObject();
+            o.put("docs", stats.getNumDocs());
+            o.put("maxDoc", stats.getMaxDoc());
+            o.put("deletedDocs", stats.getDeletedDocs());
+            o.put("deletedRatio", stats.getDeletedRatio());
+            o.put("diskBytes", stats.getDiskBytes());
+            o.put("commitGeneration", stats.getLastCommitGeneration());
+            o.put("segments", segments);
+            o.put("reader", reader);
+            o.put("writer", writer);
+            o.put("counts", counts);
+            o.put("elapsedTime", System.currentTimeMillis() - ctime);
+            resp.setStatus(200);
+            resp.getWriter().write(o.toString());
+        } catch (IOException | RuntimeException | JSONException ex) {
+            logger.warn("Servlet failure", ex);
+            sendError(resp, 500, "Internal server failure");
+        }
+    }
+
+    private static void sendError(HttpServletResponse resp, int code, String message) throws IOException {
+        JSONObject o = new JSONObject();
+        try {
+            o.put("error", message);
+        } catch (JSONException e) {}
+        resp.setStatus(code);
+        resp.getWriter().write(o.toString());
+    }
+}
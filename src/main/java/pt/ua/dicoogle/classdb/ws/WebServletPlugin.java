@@ -18,15 +18,23 @@
  */
 package pt.ua.dicoogle.classdb.ws;
 
+import java.util.EnumSet;
+
+import javax.servlet.DispatcherType;
 import javax.servlet.MultipartConfigElement;
 
 import org.eclipse.jetty.server.handler.HandlerList;
+import org.eclipse.jetty.servlet.FilterHolder;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import pt.ua.dicoogle.classdb.ClassificationIndexer;
+import pt.ua.dicoogle.classdb.ClassifierInvoker;
 import pt.ua.dicoogle.classdb.database.Database;
+import pt.ua.dicoogle.classdb.database.SlowQueryLog;
+import pt.ua.dicoogle.classdb.metrics.Metrics;
 import pt.ua.dicoogle.sdk.JettyPluginInterface;
 import pt.ua.dicoogle.sdk.core.DicooglePlatformInterface;
 import pt.ua.dicoogle.sdk.core.PlatformCommunicatorInterface;
@@ -44,16 +52,45 @@ public class WebServletPlugin implements JettyPluginInterface, PlatformCommunica
     private Database db;
     private final ClassifyWebServlet wsClassify;
     private final QueryWebServlet wsQuery;
+    private final AggregateWebServlet wsAggregate;
+    private final MetricsWebServlet wsMetrics;
+    private final SlowQueryWebServlet wsSlowQueries;
+    private final StatsWebServlet wsStats;
+    private final BulkIngestWebServlet wsBulkIngest;
+    private final ReclassifyWebServlet wsReclassify;
 
     public WebServletPlugin() {
         this.wsClassify = new ClassifyWebServlet();
         this.wsQuery = new QueryWebServlet();
+        this.wsAggregate = new AggregateWebServlet();
+        this.wsMetrics = new MetricsWebServlet(Metrics.getDefault());
+        this.wsSlowQueries = new SlowQueryWebServlet();
+        this.wsStats = new StatsWebServlet();
+        this.wsBulkIngest = new BulkIngestWebServlet();
+        this.wsReclassify = new ReclassifyWebServlet();
         this.enabled = true;
     }
 
+    public void setClassifierInvoker(ClassifierInvoker invoker) {
+        this.wsClassify.setClassifierInvoker(invoker);
+    }
+
+    public void setIndexer(ClassificationIndexer indexer) {
+        this.wsReclassify.setIndexer(indexer);
+        this.wsClassify.setIndexer(indexer);
+    }
+
+    public void setSlowQueryLog(SlowQueryLog log) {
+        this.wsSlowQueries.setSlowQueryLog(log);
+    }
+
     public void setDatabase(Database db) {
         this.db = db;
         this.wsQuery.setDatabase(db);
+        this.wsClassify.setDatabase(db);
+        this.wsAggregate.setDatabase(db);
+        this.wsStats.setDatabase(db);
+        this.wsBulkIngest.setDatabase(db);
     }
 
     @Override
@@ -111,6 +148,26 @@ public class WebServletPlugin implements JettyPluginInterface, PlatformCommunica
         ServletHolder queryServletHolder = new ServletHolder(this.wsQuery);
         handler.addServlet(queryServletHolder, "/query");
 
+        ServletHolder aggregateServletHolder = new ServletHolder(this.wsAggregate);
+        handler.addServlet(aggregateServletHolder, "/aggregate");
+
+        ServletHolder metricsServletHolder = new ServletHolder(this.wsMetrics);
+        handler.addServlet(metricsServletHolder, "/metrics");
+
+        ServletHolder slowQueriesServletHolder = new ServletHolder(this.wsSlowQueries);
+        handler.addServlet(slowQueriesServletHolder, "/slow-queries");
+
+        ServletHolder statsServletHolder = new ServletHolder(this.wsStats);
+        handler.addServlet(statsServletHolder, "/stats");
+
+        ServletHolder bulkIngestServletHolder = new ServletHolder(this.wsBulkIngest);
+        handler.addServlet(bulkIngestServletHolder, "/bulk/*");
+
+        ServletHolder reclassifyServletHolder = new ServletHolder(this.wsReclassify);
+        handler.addServlet(reclassifyServletHolder, "/reclassify");
+
+        handler.addFilter(new FilterHolder(new MetricsFilter()), "/*", EnumSet.of(DispatcherType.REQUEST));
+
         HandlerList l = new HandlerList();
         l.addHandler(handler);
 
@@ -0,0 +1,205 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import pt.ua.dicoogle.classdb.load.FakeClassifier;
+import pt.ua.dicoogle.sdk.datastructs.SearchResult;
+
+/**
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public class ClassifierInvokerTest {
+
+    @Test
+    public void timeoutOpensCircuit() {
+        ClassifierInvoker invoker = new ClassifierInvoker();
+        invoker.configure(new ClassifierInvoker.CallPolicy(50, 0), Collections.emptyMap(), 2, 60_000);
+        AtomicInteger calls = new AtomicInteger();
+        FakeClassifier hung = new FakeClassifier("hung", 2, 10_000, 0, 0) {
+            @Override
+            public Iterable<SearchResult> query(String criterion, Object... parameters) {
+                calls.incrementAndGet();
+                return super.query(criterion, parameters);
+            }
+        };
+
+        for (int i = 0; i < 2; i++) {
+            long t = System.nanoTime();
+            try {
+                invoker.classify("hung", hung, "organ", "file:/" + i);
+                fail("expected the call to time out");
+            } catch (ClassifierUnavailableException e) {
+                assertEquals("hung", e.getClassifierName());
+            }
+            assertTrue((System.nanoTime() - t) / 1_000_000 < 5_000);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, invoker.circuitState("hung"));
+        try {
+            invoker.classify("hung", hung, "organ", "file:/2");
+            fail("expected the call to be rejected");
+        } catch (ClassifierUnavailableException e) {
+            // rejected without calling the classifier
+        }
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void hedgedCallTakesFirstOutcome() {
+        AtomicInteger calls = new AtomicInteger();
+        FakeClassifier slow = new FakeClassifier("slow", 2, 10_000, 0, 0);
+        FakeClassifier fast = new FakeClassifier("fast", 2, 0, 0, 0);
+        FakeClassifier flaky = new FakeClassifier("flaky", 2, 0, 0, 0) {
+            @Override
+            public Iterable<SearchResult> query(String criterion, Object... parameters) {
+                // the first call hangs, the hedged one answers right away
+                return calls.getAndIncrement() == 0
+                        ? slow.query(criterion, parameters)
+                        : fast.query(criterion, parameters);
+            }
+        };
+        ClassifierInvoker invoker = new ClassifierInvoker();
+        invoker.configure(ClassifierInvoker.CallPolicy.UNBOUNDED,
+                Collections.singletonMap("flaky", new ClassifierInvoker.CallPolicy(5_000, 50)), 5, 60_000);
+
+        long t = System.nanoTime();
+        List<SearchResult> results = invoker.classify("flaky", flaky, "organ", "file:/0");
+        assertTrue((System.nanoTime() - t) / 1_000_000 < 5_000);
+        assertEquals(2, results.size());
+        assertEquals(2, calls.get());
+        assertEquals(CircuitBreaker.State.CLOSED, invoker.circuitState("flaky"));
+    }
+
+    @Test
+    public void errorInTrialReopensCircuit() {
+        ClassifierInvoker invoker = new ClassifierInvoker();
+        invoker.configure(ClassifierInvoker.CallPolicy.UNBOUNDED, Collections.emptyMap(), 1, 0);
+        AtomicInteger calls = new AtomicInteger();
+        FakeClassifier broken = new FakeClassifier("broken", 2, 0, 0, 0) {
+            @Override
+            public Iterable<SearchResult> query(String criterion, Object... parameters) {
+                if (calls.getAndIncrement() == 0) {
+                    throw new IllegalStateException("first call fails");
+                }
+                throw new AssertionError("trial call fails with an error");
+            }
+        };
+        try {
+            invoker.classify("broken", broken, "organ", "file:/0");
+            fail("expected the call to fail");
+        } catch (IllegalStateException e) {
+            assertEquals(CircuitBreaker.State.OPEN, invoker.circuitState("broken"));
+        }
+        try {
+            invoker.classify("broken", broken, "organ", "file:/0");
+            fail("expected the trial call to fail");
+        } catch (AssertionError e) {
+            assertEquals(CircuitBreaker.State.OPEN, invoker.circuitState("broken"));
+        }
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void interruptedCallerIsNotAFailure() {
+        ClassifierInvoker invoker = new ClassifierInvoker();
+        invoker.configure(new ClassifierInvoker.CallPolicy(5_000, 0), Collections.emptyMap(), 1, 60_000);
+        FakeClassifier slow = new FakeClassifier("slow", 2, 1_000, 0, 0);
+        Thread.currentThread().interrupt();
+        try {
+            invoker.classify("slow", slow, "organ", "file:/0");
+            fail("expected the call to be interrupted");
+        } catch (ClassifierUnavailableException e) {
+            assertTrue(Thread.interrupted());
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, invoker.circuitState("slow"));
+    }
+
+    @Test(timeout = 10_000)
+    public void servletAndIndexerShareCall() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        FakeClassifier organs = new FakeClassifier("organs", 2, 0, 0, 0) {
+            @Override
+            public Iterable<SearchResult> query(String criterion, Object... parameters) {
+                calls.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.query(criterion, parameters);
+            }
+        };
+        ClassifierInvoker invoker = new ClassifierInvoker();
+        List<List<SearchResult>> results = Collections.synchronizedList(new ArrayList<>());
+        // the indexer passes the item's URI, the servlet passes the request's data
+        Thread indexer = new Thread(() -> results.add(
+                invoker.classify("organs", organs, "liver", URI.create("file:/0"))));
+        Thread servlet = new Thread(() -> results.add(
+                invoker.classify("organs", organs, "liver", (Object) "file:/0")));
+        indexer.start();
+        while (calls.get() == 0) {
+            Thread.sleep(1);
+        }
+        servlet.start();
+        // either joined the call in flight or blocked on a call of its own
+        while (servlet.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        assertEquals(1, calls.get());
+        release.countDown();
+        indexer.join();
+        servlet.join();
+        assertEquals(1, calls.get());
+        assertEquals(2, results.size());
+        assertEquals(results.get(0), results.get(1));
+    }
+
+    @Test
+    public void indexedItemsComeWithPredictions() {
+        AtomicInteger calls = new AtomicInteger();
+        FakeClassifier organs = new FakeClassifier("organs", 2, 0, 0, 0) {
+            @Override
+            public Iterable<SearchResult> query(String criterion, Object... parameters) {
+                // the indexer's protocol: the item, then its predictions so far
+                assertEquals(2, parameters.length);
+                assertEquals(URI.create("file:/0"), parameters[0]);
+                assertTrue(((Map<?, ?>) parameters[1]).isEmpty());
+                calls.incrementAndGet();
+                return super.query(criterion, parameters);
+            }
+        };
+        ClassifierInvoker invoker = new ClassifierInvoker();
+        assertEquals(2, invoker.classify("organs", organs, "liver", URI.create("file:/0")).size());
+        assertEquals(1, calls.get());
+    }
+}
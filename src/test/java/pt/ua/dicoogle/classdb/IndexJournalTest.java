@@ -0,0 +1,66 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+/**
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public class IndexJournalTest {
+
+    @Test
+    public void checkpointSurvivesReopen() throws Exception {
+        Path dir = Files.createTempDirectory("dicoogle-classdb");
+        Path file = dir.resolve("index.journal");
+
+        IndexJournal journal = new IndexJournal(file);
+        assertNull(journal.get("file:/a/1.dcm"));
+        journal.checkpoint("file:/a/1.dcm", 1000, URI.create("file:/a/1000.dcm"));
+        journal.checkpoint("file:/a/1.dcm", 2000, URI.create("file:/a/2000.dcm"));
+
+        IndexJournal.Checkpoint checkpoint = new IndexJournal(file).get("file:/a/1.dcm");
+        assertNotNull(checkpoint);
+        assertEquals(2000, checkpoint.getPosition());
+        assertEquals("file:/a/2000.dcm", checkpoint.getLastItem());
+
+        journal.finish("file:/a/1.dcm");
+        assertNull(new IndexJournal(file).get("file:/a/1.dcm"));
+    }
+
+    @Test
+    public void corruptJournalStartsOver() throws Exception {
+        Path dir = Files.createTempDirectory("dicoogle-classdb");
+        Path file = dir.resolve("index.journal");
+        Files.write(file, new byte[]{'t', '=', '\\', 'u', 'z'});
+
+        IndexJournal journal = new IndexJournal(file);
+        assertNull(journal.get("t"));
+        journal.checkpoint("t", 5, URI.create("file:/5.dcm"));
+        assertEquals(5, new IndexJournal(file).get("t").getPosition());
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.junit.Test;
+
+import pt.ua.dicoogle.classdb.database.lucene.IndexConfig;
+
+/**
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public class IndexSettingsTest {
+
+    @Test
+    public void defaults() {
+        HierarchicalConfiguration conf = new HierarchicalConfiguration();
+        conf.setThrowExceptionOnMissing(true);
+        IndexConfig config = ClassificationDatabaseSet.parseIndexConfig(conf);
+        assertEquals(IndexConfig.DEFAULT.toString(), config.toString());
+    }
+
+    @Test
+    public void custom() {
+        HierarchicalConfiguration conf = new HierarchicalConfiguration();
+        conf.setThrowExceptionOnMissing(true);
+        conf.addProperty("index.directory", "nio");
+        conf.addProperty("index.ram-buffer-mb", "128");
+        conf.addProperty("index.merge-policy", "log-byte-size");
+        conf.addProperty("index.merge-factor", "20");
+        conf.addProperty("index.merge-threads", "2");
+        IndexConfig config = ClassificationDatabaseSet.parseIndexConfig(conf);
+        assertEquals(IndexConfig.DirectoryType.NIO, config.getDirectoryType());
+        assertEquals(128, config.getRamBufferMB(), 0);
+        assertEquals(IndexConfig.MergePolicyType.LOG_BYTE_SIZE, config.getMergePolicy());
+        assertEquals(20, config.getMergeFactor());
+        assertEquals(2, config.getMergeThreads());
+        assertEquals(IndexConfig.DEFAULT.getMaxBufferedDocs(), config.getMaxBufferedDocs());
+    }
+
+    @Test
+    public void unknownDirectory() {
+        HierarchicalConfiguration conf = new HierarchicalConfiguration();
+        conf.addProperty("index.directory", "floppy");
+        conf.addProperty("index.merge-factor", "20");
+        IndexConfig config = ClassificationDatabaseSet.parseIndexConfig(conf);
+        assertEquals(IndexConfig.DEFAULT.getDirectoryType(), config.getDirectoryType());
+        assertEquals(20, config.getMergeFactor());
+    }
+
+    @Test
+    public void mistypedMergePolicy() {
+        HierarchicalConfiguration conf = new HierarchicalConfiguration();
+        conf.addProperty("index.merge-policy", "log-bytesize");
+        conf.addProperty("index.segments-per-tier", "five");
+        conf.addProperty("index.merge-factor", "1");
+        conf.addProperty("index.ram-buffer-mb", "128");
+        conf.addProperty("index.merge-threads", "2");
+        IndexConfig config = ClassificationDatabaseSet.parseIndexConfig(conf);
+        assertEquals(IndexConfig.DEFAULT.getMergePolicy(), config.getMergePolicy());
+        assertEquals(IndexConfig.DEFAULT.getSegmentsPerTier(), config.getSegmentsPerTier(), 0);
+        assertEquals(IndexConfig.DEFAULT.getMergeFactor(), config.getMergeFactor());
+        assertEquals(128, config.getRamBufferMB(), 0);
+        assertEquals(2, config.getMergeThreads());
+    }
+
+    @Test
+    public void noFlushTrigger() {
+        HierarchicalConfiguration conf = new HierarchicalConfiguration();
+        conf.addProperty("index.ram-buffer-mb", "-1");
+        IndexConfig config = ClassificationDatabaseSet.parseIndexConfig(conf);
+        assertEquals(IndexConfig.DEFAULT.getRamBufferMB(), config.getRamBufferMB(), 0);
+    }
+
+    @Test
+    public void documentFlushTrigger() {
+        HierarchicalConfiguration conf = new HierarchicalConfiguration();
+        conf.addProperty("index.ram-buffer-mb", "-1");
+        conf.addProperty("index.max-buffered-docs", "1000");
+        IndexConfig config = ClassificationDatabaseSet.parseIndexConfig(conf);
+        assertEquals(-1, config.getRamBufferMB(), 0);
+        assertEquals(1000, config.getMaxBufferedDocs());
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public class ProgressEstimatorTest {
+
+    @Test
+    public void smoothedRateAndEta() {
+        AtomicLong clock = new AtomicLong();
+        ProgressEstimator estimator = new ProgressEstimator(0.5, 1000, clock::get);
+        assertEquals(-1, estimator.getProgress(), 0);
+        assertTrue(Double.isNaN(estimator.getRate()));
+        assertEquals(-1, estimator.getEtaMs());
+
+        // 10 items per second
+        for (int i = 0; i < 10; i++) {
+            clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+            estimator.advance();
+        }
+        assertEquals(10, estimator.getRate(), 1e-9);
+        estimator.setTotal(100);
+        assertEquals(0.1f, estimator.getProgress(), 1e-6);
+        assertEquals(9000, estimator.getEtaMs());
+
+        // then 30 items per second, which only weighs in half
+        for (int i = 0; i < 30; i++) {
+            clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000) / 30);
+            estimator.advance();
+        }
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(10));
+        estimator.advance();
+        assertEquals(20, estimator.getRate(), 1);
+        assertEquals(41, estimator.getDone());
+    }
+
+    @Test
+    public void skippedItemsDoNotCountTowardsRate() {
+        AtomicLong clock = new AtomicLong();
+        ProgressEstimator estimator = new ProgressEstimator(1, 1000, clock::get);
+        estimator.setTotal(1000);
+        estimator.skip(500);
+        assertEquals(0.5f, estimator.getProgress(), 1e-6);
+        for (int i = 0; i < 5; i++) {
+            clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(200));
+            estimator.advance();
+        }
+        assertEquals(5, estimator.getRate(), 1e-9);
+        assertEquals(99_000, estimator.getEtaMs());
+    }
+}
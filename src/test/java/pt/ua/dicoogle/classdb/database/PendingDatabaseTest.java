@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.database;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+import pt.ua.dicoogle.classdb.database.lucene.LuceneDatabase;
+
+/**
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public class PendingDatabaseTest {
+
+    @Test
+    public void await() throws Exception {
+        Path dir = Files.createTempDirectory("dicoogle-classdb");
+        try (Database db = new LuceneDatabase(dir)) {
+            PendingDatabase pending = new PendingDatabase();
+            assertFalse(pending.isReady());
+            assertNull(pending.getNow());
+            assertNull(pending.await(10));
+
+            Thread opener = new Thread(() -> {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                pending.complete(db);
+            });
+            opener.start();
+            assertSame(db, pending.await(5000));
+            assertTrue(pending.isReady());
+            assertSame(db, pending.getNow());
+            opener.join();
+        }
+    }
+
+    @Test
+    public void failed() {
+        PendingDatabase pending = new PendingDatabase();
+        pending.fail(new IOException("no index"));
+        assertTrue(pending.isFailed());
+        assertFalse(pending.isReady());
+        assertNull(pending.await(5000));
+    }
+}
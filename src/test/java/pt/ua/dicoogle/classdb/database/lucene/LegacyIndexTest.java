@@ -0,0 +1,232 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.database.lucene;
+
+import org.apache.lucene.analysis.core.SimpleAnalyzer;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.SortedNumericDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.NumericUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import pt.ua.dicoogle.classdb.database.DatabaseReader;
+import pt.ua.dicoogle.classdb.database.struct.Aggregation;
+import pt.ua.dicoogle.classdb.database.struct.DatabaseItem;
+import pt.ua.dicoogle.classdb.database.struct.DatabaseItemImpl;
+import pt.ua.dicoogle.classdb.database.struct.Facet;
+import pt.ua.dicoogle.classdb.database.struct.QueryParameters;
+import pt.ua.dicoogle.classdb.database.struct.QueryParametersBuilder;
+import pt.ua.dicoogle.classdb.database.struct.ResultBatch;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static pt.ua.dicoogle.classdb.database.lucene.LuceneDatabase.FIELD_CLASSIFICATION_ID;
+import static pt.ua.dicoogle.classdb.database.lucene.LuceneDatabase.FIELD_CLASSIFIER_NAME;
+import static pt.ua.dicoogle.classdb.database.lucene.LuceneDatabase.FIELD_CONTENTS;
+import static pt.ua.dicoogle.classdb.database.lucene.LuceneDatabase.FIELD_CRITERION;
+import static pt.ua.dicoogle.classdb.database.lucene.LuceneDatabase.FIELD_PREDICTED_CLASS;
+import static pt.ua.dicoogle.classdb.database.lucene.LuceneDatabase.FIELD_PROBABILITY;
+import static pt.ua.dicoogle.classdb.database.lucene.LuceneDatabase.FIELD_SCORE;
+import static pt.ua.dicoogle.classdb.database.lucene.LuceneDatabase.FIELD_URI;
+
+/**
+ * Tests against an index written with the original field layout, in which none of the
+ * fields had sorted doc values.
+ *
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public class LegacyIndexTest {
+
+    private static final List<DatabaseItem> TEST_LIST = Arrays.asList(
+            new DatabaseItemImpl("file://dataset/1.dcm", "a-classifier", "liver", "true", 0.85),
+            new DatabaseItemImpl("file://dataset/1.dcm", "a-classifier", "liver", "false", 0.15),
+            new DatabaseItemImpl("file://dataset/2.dcm", "convnet", "liver", "true", 0.3),
+            new DatabaseItemImpl("file://dataset/2.dcm", "convnet", "liver", "false", 0.7),
+            new DatabaseItemImpl("file://dataset/3.dcm", "convnet", "pancreas", "true", 0.9),
+            new DatabaseItemImpl("file://dataset/3.dcm", "convnet", "pancreas", "false", 0.1)
+    );
+
+    private Path dbPath;
+    private LuceneDatabase database;
+
+    @Before
+    public void init() throws IOException {
+        this.dbPath = Files.createTempDirectory("dicoogle-classdb");
+        writeLegacyIndex(dbPath, TEST_LIST);
+        this.database = new LuceneDatabase(dbPath);
+    }
+
+    /** Writes the given items the way the database did before any field had doc values. */
+    static void writeLegacyIndex(Path path, Collection<DatabaseItem> items) throws IOException {
+        IndexWriterConfig config = new IndexWriterConfig(new SimpleAnalyzer());
+        try (FSDirectory dir = FSDirectory.open(path); IndexWriter writer = new IndexWriter(dir, config)) {
+            for (DatabaseItem dbItem : items) {
+                String uri = dbItem.item().toString();
+                String classificationId = uri + '|' + dbItem.predictionIdentifier();
+                String classifierCrit = dbItem.classifierName() + '/' + dbItem.criterion();
+                List<IndexableField> doc = Arrays.asList(
+                        new StringField(FIELD_URI, uri, Field.Store.YES),
+                        new StringField(FIELD_CLASSIFICATION_ID, classificationId, Field.Store.NO),
+                        new StringField(FIELD_CLASSIFIER_NAME, dbItem.classifierName(), Field.Store.YES),
+                        new StringField(FIELD_CRITERION, dbItem.criterion(), Field.Store.YES),
+                        new StringField(FIELD_PREDICTED_CLASS, dbItem.predictedClass(), Field.Store.YES),
+                        new StringField(dbItem.criterion(), dbItem.predictedClass(), Field.Store.NO),
+                        new StringField(classifierCrit, dbItem.predictedClass(), Field.Store.NO),
+                        new StoredField(FIELD_PROBABILITY, dbItem.score()),
+                        new SortedNumericDocValuesField(FIELD_SCORE, NumericUtils.doubleToSortableLong(dbItem.score())),
+                        new TextField(FIELD_CONTENTS, uri + ' ' + dbItem.classifierName(), Field.Store.NO)
+                );
+                writer.updateDocument(new Term(FIELD_CLASSIFICATION_ID, classificationId), doc);
+            }
+        }
+    }
+
+    @Test
+    public void warmUp() throws IOException {
+        database.warmUp(Collections.singletonList("liver:true"), true);
+        assertTrue(database.stats().isReaderCurrent());
+    }
+
+    @Test
+    public void searchBatches() throws IOException {
+        DatabaseReader reader = database.createReader();
+        List<DatabaseItem> all = ResultBatch.items(reader.searchBatches("liver:(false OR true)",
+                new QueryParameters(), 3))
+                .collect(Collectors.toList());
+        assertEquals(reader.search("liver:(false OR true)", new QueryParameters()).collect(Collectors.toList()), all);
+        assertEquals(4, all.size());
+
+        List<DatabaseItem> best = ResultBatch.items(reader.searchBatches("liver:(false OR true)",
+                new QueryParametersBuilder().setOnlyBest(true).build(), 3))
+                .collect(Collectors.toList());
+        assertEquals(Arrays.asList(
+                new DatabaseItemImpl("file://dataset/1.dcm", "a-classifier", "liver", "true", 0.85),
+                new DatabaseItemImpl("file://dataset/2.dcm", "convnet", "liver", "false", 0.7)
+        ), best);
+    }
+
+    @Test
+    public void searchBatchesMixedSegments() throws IOException {
+        database.add(new DatabaseItemImpl("file://dataset/4.dcm", "convnet", "liver", "true", 0.95));
+        DatabaseReader reader = database.createReader();
+        List<DatabaseItem> good = ResultBatch.items(reader.searchBatches("liver:(false OR true)",
+                new QueryParametersBuilder().setThreshold(0.5f).build(), 2))
+                .collect(Collectors.toList());
+        assertEquals(Arrays.asList(
+                new DatabaseItemImpl("file://dataset/4.dcm", "convnet", "liver", "true", 0.95),
+                new DatabaseItemImpl("file://dataset/1.dcm", "a-classifier", "liver", "true", 0.85),
+                new DatabaseItemImpl("file://dataset/2.dcm", "convnet", "liver", "false", 0.7)
+        ), good);
+    }
+
+    @Test
+    public void countOnlyBest() throws IOException {
+        DatabaseReader reader = database.createReader();
+        QueryParameters best = new QueryParametersBuilder().setOnlyBest(true).build();
+        assertEquals(2, reader.count("liver:(false OR true)", best));
+        assertEquals(1, reader.count("liver:(false OR true)", new QueryParametersBuilder()
+                .setOnlyBest(true)
+                .setThreshold(0.8f)
+                .build()));
+
+        database.add(new DatabaseItemImpl("file://dataset/4.dcm", "convnet", "liver", "true", 0.95));
+        database.add(new DatabaseItemImpl("file://dataset/4.dcm", "convnet", "liver", "false", 0.05));
+        assertEquals(3, database.createReader().count("liver:(false OR true)", best));
+    }
+
+    @Test
+    public void aggregate() throws IOException {
+        DatabaseReader reader = database.createReader();
+        Aggregation byClassifier = reader.aggregate("*:*", new QueryParameters(),
+                Collections.singletonList(Facet.CLASSIFIER), 2);
+        assertEquals(TEST_LIST.size(), byClassifier.getTotalCount());
+        assertEquals(Collections.singletonList("convnet"), byClassifier.getBuckets().get(0).getKey());
+        assertEquals(4, byClassifier.getBuckets().get(0).getCount());
+
+        database.add(new DatabaseItemImpl("file://dataset/4.dcm", "convnet", "liver", "false", 0.6));
+        Aggregation best = database.createReader().aggregate("liver:(false OR true)",
+                new QueryParametersBuilder().setOnlyBest(true).build(),
+                Arrays.asList(Facet.CRITERION, Facet.PREDICTION), 2);
+        assertEquals(3, best.getTotalCount());
+        assertEquals(Arrays.asList("liver", "false"), best.getBuckets().get(0).getKey());
+        assertEquals(2, best.getBuckets().get(0).getCount());
+    }
+
+    @Test
+    public void outdatedItems() throws IOException {
+        // legacy predictions have no model version, so they are all outdated
+        Map<String, String> versions = new HashMap<>();
+        versions.put("convnet", "1");
+        Set<URI> convnet = new HashSet<>(Arrays.asList(URI.create("file://dataset/2.dcm"),
+                URI.create("file://dataset/3.dcm")));
+        assertEquals(convnet, database.createReader().outdatedItems(versions).collect(Collectors.toSet()));
+
+        // each item once, even when it is also in a segment with doc values
+        database.add(new DatabaseItemImpl(URI.create("file://dataset/2.dcm"), "convnet", "pancreas", "true", 0.4, "0"));
+        List<URI> outdated = database.createReader().outdatedItems(versions).collect(Collectors.toList());
+        assertEquals(2, outdated.size());
+        assertEquals(convnet, new HashSet<>(outdated));
+
+        versions.put("a-classifier", "1");
+        assertEquals(3, database.createReader().outdatedItems(versions).count());
+    }
+
+    @After
+    public void cleanUp() throws IOException {
+        database.close();
+        Files.walkFileTree(dbPath, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -24,12 +24,18 @@ import org.junit.Test;
 import pt.ua.dicoogle.classdb.database.Database;
 import pt.ua.dicoogle.classdb.database.DatabaseReader;
 import pt.ua.dicoogle.classdb.database.DatabaseWriter;
+import pt.ua.dicoogle.classdb.database.QueryProfile;
+import pt.ua.dicoogle.classdb.database.SlowQueryLog;
+import pt.ua.dicoogle.classdb.database.struct.Aggregation;
 import pt.ua.dicoogle.classdb.database.struct.DatabaseItem;
 import pt.ua.dicoogle.classdb.database.struct.DatabaseItemImpl;
+import pt.ua.dicoogle.classdb.database.struct.Facet;
 import pt.ua.dicoogle.classdb.database.struct.QueryParameters;
 import pt.ua.dicoogle.classdb.database.struct.QueryParametersBuilder;
+import pt.ua.dicoogle.classdb.database.struct.ResultBatch;
 
 import java.io.IOException;
+import java.net.URI;
 import java.nio.file.FileVisitResult;
 import java.nio.file.FileVisitor;
 import java.nio.file.Files;
@@ -37,10 +43,16 @@ import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 /**
  * @author Eduardo Pinho <eduardopinho@ua.pt>
@@ -244,6 +256,257 @@ public class LuceneDatabaseTest {
         assertEquals(TEST_NEGATIVE_LIVER_LIST, liverPreds);
     }
 
+    @Test
+    public void slowQueryLog() throws IOException {
+        writeTestData();
+        // every query is slow
+        SlowQueryLog log = new SlowQueryLog(0, 2);
+        ((LuceneDatabase) database).setSlowQueryLog(log);
+
+        Collection<DatabaseItem> liverPreds = database.search("liver:(false OR true)", new QueryParametersBuilder()
+                .setOnlyBest(true)
+                .build())
+                .collect(Collectors.toList());
+        assertEquals(TEST_GOOD_LIVER_LIST, liverPreds);
+
+        List<QueryProfile> recent = log.recent();
+        assertEquals(1, recent.size());
+        QueryProfile profile = recent.get(0);
+        assertEquals("search", profile.getOperation());
+        assertEquals("liver:(false OR true)", profile.getQuery());
+        assertTrue(profile.getParameters().isOnlyBest());
+        assertEquals(TEST_ALL_LIVER_LIST.size(), profile.getHits());
+        assertEquals(TEST_GOOD_LIVER_LIST.size(), profile.getResults());
+        assertTrue(profile.getTotalNanos() >= 0);
+
+        database.count("liver:true", QueryParameters.DEFAULT);
+        database.exists("liver:true", QueryParameters.DEFAULT);
+        recent = log.recent();
+        assertEquals(2, recent.size());
+        assertEquals("exists", recent.get(0).getOperation());
+        assertEquals("count", recent.get(1).getOperation());
+        assertEquals(3, log.count());
+
+        // a stream which is closed before being exhausted is profiled as well
+        try (Stream<DatabaseItem> s = database.search("liver:(false OR true)", QueryParameters.DEFAULT)) {
+            assertTrue(s.findFirst().isPresent());
+        }
+        QueryProfile partial = log.recent().get(0);
+        assertEquals("search", partial.getOperation());
+        assertEquals(1, partial.getResults());
+        assertTrue(partial.getTotalMs() >= partial.getParseMs() + partial.getCollectMs());
+        assertEquals(4, log.count());
+    }
+
+    @Test
+    public void stats() throws IOException {
+        LuceneDatabase db = (LuceneDatabase) database;
+        IndexStats empty = db.stats();
+        assertEquals(0, empty.getNumDocs());
+        assertEquals(-1, empty.getLastCommitGeneration());
+
+        writeTestData();
+        // replace one prediction
+        database.add(TEST_LIST.get(0));
+        database.search("liver");
+
+        IndexStats stats = db.stats();
+        assertEquals(TEST_LIST.size(), stats.getNumDocs());
+        assertEquals(stats.getMaxDoc() - stats.getNumDocs(), stats.getDeletedDocs());
+        assertTrue(stats.getDiskBytes() > 0);
+        assertFalse(stats.getSegments().isEmpty());
+        assertEquals(stats.getMaxDoc(), stats.getSegments().stream().mapToInt(IndexStats.Segment::getDocCount).sum());
+        assertTrue(stats.isReaderCurrent());
+        assertEquals(0, stats.getReaderStaleness());
+        assertFalse(stats.hasUncommittedChanges());
+
+        assertEquals(3, stats.getCounts().size());
+        assertEquals(Long.valueOf(2), stats.getCounts().get("a-classifier").get("aorta"));
+        assertEquals(Long.valueOf(2), stats.getCounts().get("a-classifier").get("liver"));
+        assertEquals(Long.valueOf(2), stats.getCounts().get("convnet").get("pancreas"));
+        assertEquals(Long.valueOf(2), stats.getCounts().get("bad").get("liver"));
+    }
+
+    @Test
+    public void bulkIngest() throws IOException {
+        LuceneDatabase db = (LuceneDatabase) database;
+        QueryParameters all = new QueryParametersBuilder().setThreshold(0.f).build();
+        database.add(TEST_LIST.get(0));
+        assertEquals(1, database.count("*:*", all));
+
+        db.beginBulkIngest(LuceneDatabase.DEFAULT_BULK_RAM_BUFFER_MB);
+        assertTrue(db.isBulkIngesting());
+        writeTestData();
+        // queries are served from the index as it was before the ingest
+        assertEquals(1, database.count("*:*", all));
+        assertTrue(db.stats().hasUncommittedChanges());
+
+        db.endBulkIngest(1);
+        assertFalse(db.isBulkIngesting());
+        assertEquals(TEST_LIST.size(), database.count("*:*", all));
+    }
+
+    @Test
+    public void warmUp() throws IOException {
+        LuceneDatabase db = (LuceneDatabase) database;
+        // an empty index has nothing to warm up
+        db.warmUp(Collections.singletonList("liver:true"), true);
+
+        writeTestData();
+        db.warmUp(Arrays.asList("liver:true", "convnet", "liver:("), true);
+        assertTrue(db.stats().isReaderCurrent());
+    }
+
+    @Test
+    public void searchBatches() throws IOException {
+        writeTestData();
+
+        DatabaseReader reader = database.createReader();
+        List<ResultBatch> batches = reader.searchBatches("liver:(false OR true)", new QueryParameters(), 4)
+                .collect(Collectors.toList());
+        assertEquals(2, batches.size());
+        assertEquals(4, batches.get(0).size());
+        assertEquals(2, batches.get(1).size());
+        assertEquals(TEST_ALL_LIVER_LIST, ResultBatch.items(batches.stream()).collect(Collectors.toList()));
+
+        Collection<DatabaseItem> best = ResultBatch.items(reader.searchBatches("liver:(false OR true)",
+                new QueryParametersBuilder().setOnlyBest(true).build(), 2))
+                .collect(Collectors.toList());
+        assertEquals(TEST_GOOD_LIVER_LIST, best);
+
+        Collection<DatabaseItem> good = ResultBatch.items(reader.searchBatches("liver:false OR liver:true",
+                new QueryParametersBuilder().setThreshold(0.5f).build(), 100))
+                .collect(Collectors.toList());
+        assertEquals(TEST_GOOD_LIVER_LIST, good);
+    }
+
+    @Test
+    public void predictionsOf() throws IOException {
+        writeTestData();
+
+        DatabaseReader reader = database.createReader();
+        Collection<DatabaseItem> preds = reader.predictionsOf(URI.create("file://dataset/1.dcm"), "a-classifier", "liver")
+                .collect(Collectors.toList());
+        assertEquals(Arrays.asList(
+                new DatabaseItemImpl("file://dataset/1.dcm", "a-classifier", "liver", "true", 0.85),
+                new DatabaseItemImpl("file://dataset/1.dcm", "a-classifier", "liver", "false", 0.15)
+        ), preds);
+
+        assertEquals(0, reader.predictionsOf(URI.create("file://dataset/1.dcm"), "convnet", "liver").count());
+    }
+
+    @Test
+    public void predictionsOfBySearch() throws IOException {
+        writeTestData();
+
+        // only the methods without a default implementation
+        DatabaseReader lucene = database.createReader();
+        DatabaseReader reader = new DatabaseReader() {
+            @Override
+            public Stream<DatabaseItem> search(String query, QueryParameters params) throws IOException {
+                return lucene.search(query, params);
+            }
+
+            @Override
+            public Stream<URI> outdatedItems(Map<String, String> modelVersions) throws IOException {
+                return lucene.outdatedItems(modelVersions);
+            }
+        };
+        for (DatabaseItem item : TEST_LIST) {
+            assertEquals(
+                    lucene.predictionsOf(item.item(), item.classifierName(), item.criterion()).collect(Collectors.toList()),
+                    reader.predictionsOf(item.item(), item.classifierName(), item.criterion()).collect(Collectors.toList()));
+        }
+        assertEquals(0, reader.predictionsOf(URI.create("file://dataset/1.dcm"), "convnet", "liver").count());
+    }
+
+    @Test
+    public void isClassified() throws IOException {
+        writeTestData();
+        database.add(new DatabaseItemImpl(URI.create("file://dataset/9.dcm"), "convnet", "liver", "true", 0.5, "2"));
+
+        URI item = URI.create("file://dataset/1.dcm");
+        assertTrue(database.isClassified(item, "a-classifier", "liver", null));
+        assertFalse(database.isClassified(item, "a-classifier", "liver", "2"));
+        assertFalse(database.isClassified(item, "convnet", "liver", null));
+        assertFalse(database.isClassified(URI.create("file://dataset/4.dcm"), "a-classifier", "liver", null));
+
+        URI versioned = URI.create("file://dataset/9.dcm");
+        assertTrue(database.isClassified(versioned, "convnet", "liver", "2"));
+        assertFalse(database.isClassified(versioned, "convnet", "liver", "1"));
+        assertEquals("2", database.predictionsOf(versioned, "convnet", "liver").findFirst().get().modelVersion());
+    }
+
+    @Test
+    public void count() throws IOException {
+        writeTestData();
+
+        DatabaseReader reader = database.createReader();
+        assertEquals(TEST_ALL_LIVER_LIST.size(), reader.count("liver:(false OR true)", new QueryParameters()));
+        assertEquals(TEST_GOOD_LIVER_LIST.size(), reader.count("liver:(false OR true)", new QueryParametersBuilder()
+                .setThreshold(0.5f)
+                .build()));
+        assertEquals(TEST_GOOD_LIVER_LIST.size(), reader.count("liver:(false OR true)", new QueryParametersBuilder()
+                .setOnlyBest(true)
+                .build()));
+        assertEquals(2, reader.count("liver:(false OR true)", new QueryParametersBuilder()
+                .setOnlyBest(true)
+                .setThreshold(0.8f)
+                .build()));
+        assertEquals(0, reader.count("liver:maybe", new QueryParameters()));
+    }
+
+    @Test
+    public void exists() throws IOException {
+        writeTestData();
+
+        DatabaseReader reader = database.createReader();
+        assertTrue(reader.exists("convnet\\/pancreas:true", new QueryParameters()));
+        assertFalse(reader.exists("convnet\\/pancreas:true", new QueryParametersBuilder()
+                .setThreshold(0.5f)
+                .build()));
+        assertFalse(reader.exists("aorta:maybe", new QueryParameters()));
+    }
+
+    @Test
+    public void aggregate() throws IOException {
+        writeTestData();
+
+        DatabaseReader reader = database.createReader();
+        Aggregation byPrediction = reader.aggregate("liver:(false OR true)", new QueryParameters(),
+                Arrays.asList(Facet.CRITERION, Facet.PREDICTION), 2);
+        assertEquals(TEST_ALL_LIVER_LIST.size(), byPrediction.getTotalCount());
+        List<Aggregation.Bucket> buckets = byPrediction.getBuckets();
+        assertEquals(2, buckets.size());
+        for (Aggregation.Bucket b : buckets) {
+            assertEquals("liver", b.getKey().get(0));
+            assertEquals(3, b.getCount());
+            if ("true".equals(b.getKey().get(1))) {
+                assertArrayEquals(new long[]{1, 2}, b.getHistogram());
+            } else {
+                assertArrayEquals(new long[]{2, 1}, b.getHistogram());
+            }
+        }
+
+        Aggregation bestByPrediction = reader.aggregate("liver:(false OR true)", new QueryParametersBuilder()
+                        .setOnlyBest(true)
+                        .build(),
+                Arrays.asList(Facet.PREDICTION), 10);
+        List<Aggregation.Bucket> bestBuckets = bestByPrediction.getBuckets();
+        assertEquals(2, bestBuckets.size());
+        assertEquals(Arrays.asList("true"), bestBuckets.get(0).getKey());
+        assertEquals(2, bestBuckets.get(0).getCount());
+        assertEquals(Arrays.asList("false"), bestBuckets.get(1).getKey());
+        assertEquals(1, bestBuckets.get(1).getCount());
+
+        Aggregation byClassifier = reader.aggregate("*:*", new QueryParametersBuilder()
+                        .setThreshold(0.5f)
+                        .build(),
+                Arrays.asList(Facet.CLASSIFIER), 10);
+        assertEquals(TEST_LIST.stream().filter(item -> item.score() > 0.5).count(), byClassifier.getTotalCount());
+        assertEquals(Arrays.asList("a-classifier"), byClassifier.getBuckets().get(0).getKey());
+    }
+
     @After
     public void cleanUp() throws IOException {
         database.close();
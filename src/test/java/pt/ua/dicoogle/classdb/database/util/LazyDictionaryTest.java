@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.database.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public class LazyDictionaryTest {
+
+    @Test
+    public void resolveOnceUnderContention() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        LazyDictionary<String, String> dict = new LazyDictionary<>(k -> {
+            calls.incrementAndGet();
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return k.toUpperCase();
+        });
+        String[] outcomes = new String[4];
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < outcomes.length; i++) {
+            final int k = i;
+            threads.add(new Thread(() -> outcomes[k] = dict.get("a")));
+        }
+        threads.get(0).start();
+        started.await();
+        for (Thread t : threads.subList(1, threads.size())) {
+            t.start();
+        }
+        // wait until all other threads are blocked on the ongoing resolution
+        for (Thread t : threads.subList(1, threads.size())) {
+            while (t.getState() != Thread.State.BLOCKED && t.getState() != Thread.State.WAITING) {
+                Thread.sleep(1);
+            }
+        }
+        release.countDown();
+        for (Thread t : threads) {
+            t.join(5000);
+        }
+
+        for (String outcome : outcomes) {
+            assertEquals("A", outcome);
+        }
+        assertEquals(1, calls.get());
+        assertEquals("A", dict.get("a"));
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void missingValuesExpire() {
+        AtomicLong clock = new AtomicLong();
+        AtomicInteger calls = new AtomicInteger();
+        LazyDictionary<String, String> dict = new LazyDictionary<>(k -> {
+            calls.incrementAndGet();
+            return k.startsWith("known") ? k : null;
+        }, 60, TimeUnit.SECONDS, clock::get);
+
+        assertNull(dict.get("unknown"));
+        assertEquals("known", dict.get("known"));
+        assertEquals(2, calls.get());
+
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(30));
+        assertNull(dict.get("unknown"));
+        assertEquals(2, calls.get());
+
+        // only missing values are resolved again
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(31));
+        assertNull(dict.get("unknown"));
+        assertEquals("known", dict.get("known"));
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    public void refresh() {
+        AtomicInteger calls = new AtomicInteger();
+        LazyDictionary<String, Integer> dict = new LazyDictionary<>(k -> calls.incrementAndGet());
+
+        assertEquals(1, (int) dict.get("a"));
+        assertEquals(2, (int) dict.get("b"));
+        assertEquals(1, (int) dict.get("a"));
+
+        dict.refresh("a");
+        assertEquals(3, (int) dict.get("a"));
+        assertEquals(2, (int) dict.get("b"));
+
+        dict.clear();
+        assertEquals(4, (int) dict.get("b"));
+        assertEquals(5, (int) dict.get("a"));
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.database.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public class PipelineTest {
+
+    @Test
+    public void allItemsGoThrough() throws Exception {
+        AtomicLong sum = new AtomicLong();
+        Pipeline<Integer> pipeline = Pipeline.<Integer>builder("test", 2)
+                .stage("square", 3, x -> (long) x * x)
+                .stage("format", 1, Object::toString)
+                .sink("sum", 2, s -> sum.addAndGet(Long.parseLong(s)));
+        for (int i = 1; i <= 200; i++) {
+            pipeline.submit(i);
+        }
+        pipeline.drain();
+        pipeline.close();
+        assertEquals(200L * 201 * 401 / 6, sum.get());
+
+        List<Pipeline.StageStats> stats = pipeline.stats();
+        assertEquals(3, stats.size());
+        assertEquals("square", stats.get(0).getName());
+        assertEquals(3, stats.get(0).getThreads());
+        assertEquals(2, stats.get(0).getQueueCapacity());
+        assertEquals(0, stats.get(0).getQueued());
+    }
+
+    @Test
+    public void slowStageHoldsBackSubmitter() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger consumed = new AtomicInteger();
+        Pipeline<Integer> pipeline = Pipeline.<Integer>builder("test", 1)
+                .stage("slow", 1, x -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return x;
+                })
+                .sink("count", 1, x -> consumed.incrementAndGet());
+        // one item in the stage, one in its queue
+        pipeline.submit(1);
+        pipeline.submit(2);
+        Thread submitter = new Thread(() -> {
+            try {
+                pipeline.submit(3);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        submitter.start();
+        submitter.join(300);
+        assertTrue("submitter should be blocked by a full pipeline", submitter.isAlive());
+        assertEquals(1, pipeline.stats().get(0).getBusy());
+
+        release.countDown();
+        submitter.join();
+        pipeline.drain();
+        pipeline.close();
+        assertEquals(3, consumed.get());
+    }
+
+    @Test
+    public void failureIsRethrown() throws Exception {
+        Pipeline<Integer> pipeline = Pipeline.<Integer>builder("test", 1)
+                .stage("fail", 1, x -> {
+                    if (x == 5) {
+                        throw new IllegalStateException("boom");
+                    }
+                    return x;
+                })
+                .sink("drop", 1, x -> {});
+        try {
+            for (int i = 0; i < 100; i++) {
+                pipeline.submit(i);
+            }
+            pipeline.drain();
+            fail("expected the pipeline to fail");
+        } catch (IllegalStateException e) {
+            assertEquals("boom", e.getCause().getMessage());
+        }
+        pipeline.close();
+    }
+
+    @Test(timeout = 10_000)
+    public void nullOutputFails() throws Exception {
+        Pipeline<Integer> pipeline = Pipeline.<Integer>builder("test", 1)
+                .stage("null", 1, x -> x == 5 ? null : x)
+                .sink("drop", 1, x -> {});
+        try {
+            for (int i = 0; i < 100; i++) {
+                pipeline.submit(i);
+            }
+            pipeline.drain();
+            fail("expected the pipeline to fail");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getCause() instanceof NullPointerException);
+        }
+        pipeline.close();
+    }
+}
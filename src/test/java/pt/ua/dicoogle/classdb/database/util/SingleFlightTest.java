@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.database.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public class SingleFlightTest {
+
+    @Test
+    public void coalesce() throws Exception {
+        SingleFlight<String, Integer> flight = new SingleFlight<>();
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        int[] outcomes = new int[4];
+
+        List<Thread> threads = new ArrayList<>();
+        threads.add(new Thread(() -> outcomes[0] = flight.execute("a", () -> {
+            calls.incrementAndGet();
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return 42;
+        })));
+        threads.get(0).start();
+        started.await();
+
+        for (int i = 1; i < outcomes.length; i++) {
+            final int k = i;
+            Thread t = new Thread(() -> outcomes[k] = flight.execute("a", calls::incrementAndGet));
+            threads.add(t);
+            t.start();
+        }
+        // wait until all followers are blocked on the ongoing flight
+        for (Thread t : threads.subList(1, threads.size())) {
+            while (t.getState() != Thread.State.WAITING) {
+                Thread.sleep(1);
+            }
+        }
+        release.countDown();
+        for (Thread t : threads) {
+            t.join(5000);
+        }
+
+        for (int outcome : outcomes) {
+            assertEquals(42, outcome);
+        }
+        assertEquals(1, calls.get());
+        assertEquals(0, flight.inFlightCount());
+
+        // a new flight takes place once the previous one is over
+        assertEquals(2, (int) flight.execute("a", calls::incrementAndGet));
+    }
+}
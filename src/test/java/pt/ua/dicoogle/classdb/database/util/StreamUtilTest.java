@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.database.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+/**
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public class StreamUtilTest {
+
+    private static final List<String> ELEMENTS = Arrays.asList("b3", "a1", "b1", "c2", "a0", "c5", "b2");
+    private static final Function<String, Character> KEY = s -> s.charAt(0);
+
+    @Test
+    public void firstOf() {
+        List<String> expected = Arrays.asList("b3", "a1", "c2");
+        assertEquals(expected, StreamUtil.firstOf(ELEMENTS.stream(), KEY).collect(Collectors.toList()));
+        assertEquals(expected, StreamUtil.firstOfStreaming(ELEMENTS.stream(), KEY).collect(Collectors.toList()));
+        assertEquals(Arrays.asList("b3", "a1"), StreamUtil.firstOfStreaming(ELEMENTS.stream(), KEY)
+                .limit(2)
+                .collect(Collectors.toList()));
+    }
+
+    @Test
+    public void bestOf() {
+        List<String> expected = Arrays.asList("b1", "a0", "c2");
+        assertEquals(expected, StreamUtil.bestOf(ELEMENTS.stream(), KEY).collect(Collectors.toList()));
+        assertEquals(expected, StreamUtil.bestOfStreaming(ELEMENTS.stream(), KEY, Comparator.naturalOrder())
+                .collect(Collectors.toList()));
+        assertEquals(Arrays.asList("a0", "b1", "c2"),
+                StreamUtil.bestOfExternal(ELEMENTS.stream(), KEY, Comparator.naturalOrder(), 2)
+                        .collect(Collectors.toList()));
+    }
+
+    @Test
+    public void sorted() {
+        List<String> sorted = StreamUtil.externalSort(ELEMENTS.stream(), KEY, 3).collect(Collectors.toList());
+        assertEquals(Arrays.asList("a1", "a0", "b3", "b1", "b2", "c2", "c5"), sorted);
+
+        assertEquals(Arrays.asList(Arrays.asList("a1", "a0"), Arrays.asList("b3", "b1", "b2"), Arrays.asList("c2", "c5")),
+                StreamUtil.sortedGroupBy(sorted.stream(), KEY).collect(Collectors.toList()));
+        assertEquals(Arrays.asList("a1", "b3", "c2"),
+                StreamUtil.firstOfSorted(sorted.stream(), KEY).collect(Collectors.toList()));
+        assertEquals(Arrays.asList("a0", "b1", "c2"),
+                StreamUtil.bestOfSorted(sorted.stream(), KEY, Comparator.naturalOrder()).collect(Collectors.toList()));
+    }
+}
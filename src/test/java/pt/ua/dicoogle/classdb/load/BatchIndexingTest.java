@@ -0,0 +1,142 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.load;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import pt.ua.dicoogle.classdb.ClassificationEndpointDescriptor;
+import pt.ua.dicoogle.classdb.ClassifierInvoker;
+import pt.ua.dicoogle.sdk.datastructs.IndexReport;
+import pt.ua.dicoogle.sdk.datastructs.SearchResult;
+
+/**
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public class BatchIndexingTest {
+
+    private static final int FILES = LoadDriver.Fixture.FILES;
+    private static final int BATCH_SIZE = 4;
+
+    private LoadDriver.Fixture fixture;
+    private final List<Integer> batches = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger singleCalls = new AtomicInteger();
+    private final AtomicInteger dependentCalls = new AtomicInteger();
+    private volatile boolean failBatches = false;
+    private volatile URI malformed = null;
+
+    @Before
+    public void init() throws Exception {
+        FakeClassifier organs = new FakeClassifier("organs", 2, 0, 0, 0) {
+            @Override
+            public Iterable<SearchResult> query(String criterion, Object... parameters) {
+                if (!(parameters[0] instanceof List)) {
+                    singleCalls.incrementAndGet();
+                    return super.query(criterion, parameters);
+                }
+                // batch protocol: a list of items, each result naming its item
+                List<?> items = (List<?>) parameters[0];
+                batches.add(items.size());
+                if (failBatches) {
+                    throw new IllegalStateException("Simulated batch failure");
+                }
+                List<SearchResult> results = new ArrayList<>();
+                for (Object item : items) {
+                    for (SearchResult rs : super.query(criterion, item)) {
+                        rs.getExtraData().put(ClassifierInvoker.ITEM_FIELD, item.toString());
+                        results.add(rs);
+                    }
+                    if (item.equals(malformed)) {
+                        // not a prediction URI
+                        HashMap<String, Object> extra = new HashMap<>();
+                        extra.put(ClassifierInvoker.ITEM_FIELD, item.toString());
+                        results.add(new SearchResult(null, 0.5, extra));
+                    }
+                }
+                return results;
+            }
+        };
+        FakeClassifier lesions = new FakeClassifier("lesions", 2, 0, 0, 0) {
+            @Override
+            public Iterable<SearchResult> query(String criterion, Object... parameters) {
+                // the predictions of the batched classifier must be there already
+                @SuppressWarnings("unchecked")
+                Map<URI, SearchResult> dependencies = (Map<URI, SearchResult>) parameters[1];
+                assertEquals(2, dependencies.size());
+                dependentCalls.incrementAndGet();
+                return super.query(criterion, parameters);
+            }
+        };
+        this.fixture = new LoadDriver.Fixture(organs, lesions);
+        this.fixture.indexer.setClassificationEndpoints(Arrays.asList(
+                new ClassificationEndpointDescriptor("organs", "liver", Collections.emptyList()),
+                new ClassificationEndpointDescriptor("lesions", "lesion", Collections.singletonList("liver"))));
+        this.fixture.indexer.setBatchSizes(Collections.singletonMap("organs", BATCH_SIZE), 60_000);
+    }
+
+    @Test
+    public void batchesKeepDependencyOrder() throws Exception {
+        assertEquals(FILES * 2 * 2, this.fixture.index());
+
+        assertEquals(Arrays.asList(4, 4, 2), this.batches);
+        assertEquals(0, this.singleCalls.get());
+        assertEquals(FILES, this.dependentCalls.get());
+        assertEquals(FILES * 2 * 2, this.fixture.db.stats().getNumDocs());
+    }
+
+    @Test
+    public void failedBatchesFallBackToSingleFiles() throws Exception {
+        this.failBatches = true;
+        assertEquals(FILES * 2 * 2, this.fixture.index());
+
+        // each batch is attempted once, then its files are classified one by one
+        assertEquals(Arrays.asList(4, 4, 2), this.batches);
+        assertEquals(FILES, this.singleCalls.get());
+        assertEquals(FILES, this.dependentCalls.get());
+        assertEquals(FILES * 2 * 2, this.fixture.db.stats().getNumDocs());
+    }
+
+    @Test
+    public void failedGroupsAreErrors() throws Exception {
+        // breaks the classification of the second group as a whole
+        this.malformed = URI.create("file:/load/5.dcm");
+        IndexReport report = this.fixture.indexReport();
+
+        assertEquals((FILES - BATCH_SIZE) * 2 * 2, report.getNIndexed());
+        assertEquals(BATCH_SIZE, report.getNErrors());
+        assertEquals((FILES - BATCH_SIZE) * 2 * 2, this.fixture.db.stats().getNumDocs());
+    }
+
+    @After
+    public void cleanUp() throws Exception {
+        this.fixture.close();
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.load;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import pt.ua.dicoogle.classification.api.PredictionIdentifier;
+import pt.ua.dicoogle.sdk.QueryInterface;
+import pt.ua.dicoogle.sdk.datastructs.SearchResult;
+import pt.ua.dicoogle.sdk.settings.ConfigurationHolder;
+
+/** A stand-in classifier for load tests. It takes a log-normally distributed amount of time to
+ * classify an item, fails at a given rate, and predicts one of a given number of classes with
+ * random scores that add up to 1.
+ *
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public class FakeClassifier implements QueryInterface {
+
+    private final String name;
+    private volatile int nClasses;
+    private final double medianLatencyMs;
+    private final double latencySigma;
+    private final double failureRate;
+    private final LatencyRecorder latencies = new LatencyRecorder();
+    private final AtomicLong failures = new AtomicLong();
+    private boolean enabled = true;
+    private ConfigurationHolder settings;
+
+    /**
+     * @param name the classifier's name
+     * @param nClasses the number of classes per criterion; with 2 classes these are "true" and "false"
+     * @param medianLatencyMs the median classification time, in milliseconds
+     * @param latencySigma the standard deviation of the logarithm of the classification time (0 for a fixed time)
+     * @param failureRate the probability of a classification to fail, between 0 and 1
+     */
+    public FakeClassifier(String name, int nClasses, double medianLatencyMs, double latencySigma, double failureRate) {
+        if (nClasses < 2) {
+            throw new IllegalArgumentException("At least 2 classes are required");
+        }
+        this.name = name;
+        this.nClasses = nClasses;
+        this.medianLatencyMs = medianLatencyMs;
+        this.latencySigma = latencySigma;
+        this.failureRate = failureRate;
+    }
+
+    @Override
+    public Iterable<SearchResult> query(String criterion, Object... parameters) {
+        long start = System.nanoTime();
+        try {
+            Random random = ThreadLocalRandom.current();
+            if (this.medianLatencyMs > 0) {
+                double ms = this.medianLatencyMs * Math.exp(this.latencySigma * random.nextGaussian());
+                TimeUnit.MICROSECONDS.sleep((long) (ms * 1000));
+            }
+            if (random.nextDouble() < this.failureRate) {
+                this.failures.incrementAndGet();
+                throw new IllegalStateException("Simulated classifier failure");
+            }
+
+            int n = this.nClasses;
+            double[] scores = new double[n];
+            double sum = 0;
+            for (int i = 0; i < scores.length; i++) {
+                scores[i] = random.nextDouble() + 1e-9;
+                sum += scores[i];
+            }
+            List<SearchResult> results = new ArrayList<>(n);
+            for (int i = 0; i < scores.length; i++) {
+                PredictionIdentifier id = new PredictionIdentifier(this.name, criterion, className(i, n));
+                results.add(new SearchResult(id.toURI(), scores[i] / sum, new HashMap<>()));
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } finally {
+            this.latencies.record(System.nanoTime() - start);
+        }
+    }
+
+    private static String className(int i, int n) {
+        if (n == 2) {
+            return i == 0 ? "true" : "false";
+        }
+        return "class" + i;
+    }
+
+    /** Change the number of classes, as a new model of the classifier would. */
+    public void setNumberOfClasses(int nClasses) {
+        if (nClasses < 2) {
+            throw new IllegalArgumentException("At least 2 classes are required");
+        }
+        this.nClasses = nClasses;
+    }
+
+    public LatencyRecorder getLatencies() {
+        return this.latencies;
+    }
+
+    public long getFailures() {
+        return this.failures.get();
+    }
+
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    @Override
+    public boolean enable() {
+        this.enabled = true;
+        return true;
+    }
+
+    @Override
+    public boolean disable() {
+        this.enabled = false;
+        return true;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    @Override
+    public void setSettings(ConfigurationHolder settings) {
+        this.settings = settings;
+    }
+
+    @Override
+    public ConfigurationHolder getSettings() {
+        return this.settings;
+    }
+}
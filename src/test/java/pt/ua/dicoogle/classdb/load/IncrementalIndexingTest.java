@@ -0,0 +1,232 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.load;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import pt.ua.dicoogle.classdb.CatchUpLog;
+import pt.ua.dicoogle.classdb.ClassificationEndpointDescriptor;
+import pt.ua.dicoogle.classdb.ClassificationIndexer;
+import pt.ua.dicoogle.classdb.IndexJournal;
+import pt.ua.dicoogle.classdb.ReclassificationJob;
+import pt.ua.dicoogle.classdb.database.lucene.LuceneDatabase;
+import pt.ua.dicoogle.classdb.database.struct.QueryParameters;
+import pt.ua.dicoogle.sdk.StorageInputStream;
+import pt.ua.dicoogle.sdk.datastructs.IndexReport;
+import pt.ua.dicoogle.sdk.datastructs.Report;
+import pt.ua.dicoogle.sdk.task.Task;
+
+/**
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public class IncrementalIndexingTest {
+
+    private static final int FILES = LoadDriver.Fixture.FILES;
+
+    private LoadDriver.Fixture fixture;
+    private LuceneDatabase db;
+    private FakeClassifier organs;
+    private FakeClassifier lesions;
+    private ClassificationIndexer indexer;
+
+    @Before
+    public void init() throws Exception {
+        this.fixture = new LoadDriver.Fixture();
+        this.db = this.fixture.db;
+        this.organs = this.fixture.organs;
+        this.lesions = this.fixture.lesions;
+        this.indexer = this.fixture.indexer;
+        this.indexer.setIncremental(true);
+    }
+
+    private static List<ClassificationEndpointDescriptor> endpoints(String organsVersion) {
+        return Arrays.asList(
+                new ClassificationEndpointDescriptor("organs", "liver", Collections.emptyList(), false, organsVersion),
+                new ClassificationEndpointDescriptor("lesions", "lesion", Collections.singletonList("liver"), false, "1"),
+                new ClassificationEndpointDescriptor("lesions", "cyst", Collections.emptyList(), false, "1"));
+    }
+
+    private long index() throws Exception {
+        return this.fixture.index();
+    }
+
+    @Test
+    public void skipUpToDate() throws Exception {
+        this.indexer.setClassificationEndpoints(endpoints("1"));
+        assertEquals(FILES * 3 * 2, this.index());
+        assertEquals(FILES, this.organs.getLatencies().count());
+        assertEquals(2 * FILES, this.lesions.getLatencies().count());
+
+        // nothing changed
+        assertEquals(0, this.index());
+        assertEquals(FILES, this.organs.getLatencies().count());
+        assertEquals(2 * FILES, this.lesions.getLatencies().count());
+
+        // a new organ model also outdates the lesion predictions which depend on it
+        this.indexer.setClassificationEndpoints(endpoints("2"));
+        assertEquals(FILES * 2 * 2, this.index());
+        assertEquals(2 * FILES, this.organs.getLatencies().count());
+        assertEquals(3 * FILES, this.lesions.getLatencies().count());
+        assertEquals(FILES * 3 * 2, this.db.stats().getNumDocs());
+    }
+
+    @Test
+    public void reclassify() throws Exception {
+        this.indexer.setIncremental(false);
+        this.indexer.setClassificationEndpoints(endpoints("1"));
+        this.index();
+
+        this.indexer.setClassificationEndpoints(endpoints("2"));
+        ReclassificationJob job = this.indexer.startReclassification();
+        while (job.isActive()) {
+            Thread.sleep(10);
+        }
+        assertEquals(ReclassificationJob.State.DONE, job.getState());
+        assertEquals(FILES, job.getTotal());
+        assertEquals(FILES, job.getProcessed());
+        assertEquals(0, job.getFailed());
+        assertEquals(FILES * 2 * 2, job.getPredictions());
+        assertEquals(2 * FILES, this.organs.getLatencies().count());
+        assertEquals(3 * FILES, this.lesions.getLatencies().count());
+
+        Map<String, String> versions = new HashMap<>();
+        versions.put("organs", "2");
+        versions.put("lesions", "1");
+        assertFalse(this.db.outdatedItems(versions).findAny().isPresent());
+        versions.put("lesions", "2");
+        assertEquals(FILES, this.db.outdatedItems(versions).count());
+    }
+
+    @Test
+    public void reclassifyChangedClasses() throws Exception {
+        this.indexer.setClassificationEndpoints(endpoints("1"));
+        this.index();
+        QueryParameters all = new QueryParameters();
+        assertEquals(FILES, this.db.count("organs\\/liver:true", all));
+
+        // the new organ model predicts other classes, none of the old ones may remain
+        this.organs.setNumberOfClasses(3);
+        this.indexer.setClassificationEndpoints(endpoints("2"));
+        ReclassificationJob job = this.indexer.startReclassification();
+        while (job.isActive()) {
+            Thread.sleep(10);
+        }
+        assertEquals(ReclassificationJob.State.DONE, job.getState());
+        assertEquals(0, this.db.count("organs\\/liver:(true OR false)", all));
+        assertEquals(FILES * (3 + 2 * 2), this.db.stats().getNumDocs());
+
+        Map<String, String> versions = new HashMap<>();
+        versions.put("organs", "2");
+        versions.put("lesions", "1");
+        assertFalse(this.db.outdatedItems(versions).findAny().isPresent());
+        URI item = this.db.search("*:*", all).findFirst().get().item();
+        assertTrue(this.db.isClassified(item, "organs", "liver", "2"));
+    }
+
+    @Test
+    public void resumeInterruptedTask() throws Exception {
+        Path journalFile = this.fixture.dir.resolveSibling(this.fixture.dir.getFileName() + ".journal");
+        IndexJournal journal = new IndexJournal(journalFile);
+        this.indexer.setIncremental(false);
+        this.indexer.setClassificationEndpoints(endpoints("1"));
+        this.indexer.setJournal(journal);
+        this.indexer.setCheckpointInterval(3);
+        try {
+            // the storage goes away after 7 files, after checkpoints at 3 and 6 files
+            this.indexer.index(failingAfter(LoadDriver.files(FILES), 7)).run();
+            long before = this.organs.getLatencies().count();
+
+            Task<Report> task = this.indexer.index(LoadDriver.files(FILES));
+            task.run();
+            assertEquals((FILES - 6) * 3 * 2, ((IndexReport) task.get()).getNIndexed());
+            assertEquals(before + FILES - 6, this.organs.getLatencies().count());
+            assertEquals(FILES * 3 * 2, this.db.stats().getNumDocs());
+
+            // the task is done, so the same files are indexed again from the start
+            task = this.indexer.index(LoadDriver.files(FILES));
+            task.run();
+            assertEquals(FILES * 3 * 2, ((IndexReport) task.get()).getNIndexed());
+        } finally {
+            Files.deleteIfExists(journalFile);
+        }
+    }
+
+    @Test
+    public void missingClassifierSkipsDependents() throws Exception {
+        Path logFile = this.fixture.dir.resolveSibling(this.fixture.dir.getFileName() + ".skipped");
+        CatchUpLog log = new CatchUpLog(logFile);
+        this.indexer.setCatchUpLog(log);
+        this.indexer.setClassificationEndpoints(Arrays.asList(
+                new ClassificationEndpointDescriptor("organs", "liver", Collections.emptyList(), false, "1"),
+                new ClassificationEndpointDescriptor("tumours", "mass", Collections.emptyList(), false, "1"),
+                new ClassificationEndpointDescriptor("lesions", "lesion", Collections.singletonList("mass"), false, "1")));
+        try {
+            assertEquals(FILES * 2, this.index());
+            assertEquals(FILES, this.organs.getLatencies().count());
+            // the lesions depend on the predictions of the missing classifier
+            assertEquals(0, this.lesions.getLatencies().count());
+            assertEquals(FILES, log.snapshot().getItems().size());
+        } finally {
+            Files.deleteIfExists(logFile);
+        }
+    }
+
+    private static Iterable<StorageInputStream> failingAfter(Iterable<StorageInputStream> files, int n) {
+        return () -> {
+            Iterator<StorageInputStream> it = files.iterator();
+            return new Iterator<StorageInputStream>() {
+                private int i = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return it.hasNext();
+                }
+
+                @Override
+                public StorageInputStream next() {
+                    if (this.i++ == n) {
+                        throw new IllegalStateException("Storage is gone");
+                    }
+                    return it.next();
+                }
+            };
+        };
+    }
+
+    @After
+    public void cleanUp() throws Exception {
+        this.fixture.close();
+    }
+}
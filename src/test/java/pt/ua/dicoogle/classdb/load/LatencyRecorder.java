@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.load;
+
+import java.util.Arrays;
+
+/** A thread safe recorder of latency samples, in nanoseconds.
+ *
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public class LatencyRecorder {
+    private long[] samples = new long[1024];
+    private int count = 0;
+
+    public synchronized void record(long nanos) {
+        if (this.count == this.samples.length) {
+            this.samples = Arrays.copyOf(this.samples, this.samples.length * 2);
+        }
+        this.samples[this.count++] = nanos;
+    }
+
+    public synchronized int count() {
+        return this.count;
+    }
+
+    /** Obtain a percentile of the recorded samples.
+     *
+     * @param p the percentile, between 0 and 100
+     * @return the latency at the given percentile, in milliseconds, or 0 if nothing was recorded
+     */
+    public synchronized double percentileMs(double p) {
+        if (this.count == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(this.samples, this.count);
+        Arrays.sort(sorted);
+        int i = (int) Math.ceil(p / 100 * this.count) - 1;
+        return sorted[Math.max(0, Math.min(i, this.count - 1))] / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("n=%d p50=%.2fms p90=%.2fms p99=%.2fms max=%.2fms",
+                this.count(), this.percentileMs(50), this.percentileMs(90), this.percentileMs(99), this.percentileMs(100));
+    }
+}
@@ -0,0 +1,351 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.load;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import pt.ua.dicoogle.classdb.ClassificationEndpointDescriptor;
+import pt.ua.dicoogle.classdb.ClassificationIndexer;
+import pt.ua.dicoogle.classdb.ProfiledIndexReport;
+import pt.ua.dicoogle.classdb.QueryProvider;
+import pt.ua.dicoogle.classdb.database.lucene.LuceneDatabase;
+import pt.ua.dicoogle.classdb.database.util.Pipeline;
+import pt.ua.dicoogle.sdk.QueryInterface;
+import pt.ua.dicoogle.sdk.StorageInputStream;
+import pt.ua.dicoogle.sdk.core.DicooglePlatformInterface;
+import pt.ua.dicoogle.sdk.datastructs.IndexReport;
+import pt.ua.dicoogle.sdk.datastructs.Report;
+import pt.ua.dicoogle.sdk.datastructs.SearchResult;
+import pt.ua.dicoogle.sdk.task.Task;
+
+/** A load driver for end-to-end indexing and querying. It indexes synthetic files with fake classifiers
+ * into a temporary Lucene database while other threads keep querying it, and reports throughput,
+ * latency percentiles and the resulting index size.
+ *
+ * Can be run directly, configured through system properties: load.files, load.classes, load.latency
+ * (median, in ms), load.sigma, load.failures (rate), load.queryThreads, load.classifyThreads
+ * and load.writeThreads.
+ *
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public class LoadDriver {
+
+    /** Load test parameters. */
+    public static class Config {
+        public int files = 1000;
+        public int classes = 2;
+        public double medianLatencyMs = 5;
+        public double latencySigma = 0.5;
+        public double failureRate = 0.01;
+        public int queryThreads = 2;
+        public int classifyThreads = 1;
+        public int writeThreads = 1;
+        public List<String> queries = Arrays.asList("liver:true", "fake/aorta:false", "lesion", "uri:\"file:/load/1.dcm\"");
+    }
+
+    /** Load test outcome. */
+    public static class Result {
+        public long elapsedMs;
+        public int filesIndexed;
+        public long predictionsIndexed;
+        public long indexErrors;
+        public long classifierFailures;
+        public LatencyRecorder classifierLatency;
+        public LatencyRecorder queryLatency;
+        public long queryResults;
+        public long indexBytes;
+        public List<Pipeline.StageStats> pipeline = Collections.emptyList();
+
+        public double filesPerSecond() {
+            return this.filesIndexed * 1000.0 / Math.max(1, this.elapsedMs);
+        }
+
+        public double predictionsPerSecond() {
+            return this.predictionsIndexed * 1000.0 / Math.max(1, this.elapsedMs);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Indexed %d files (%d predictions, %d errors) in %d ms: %.1f files/s, %.1f predictions/s%n"
+                            + "Classifier calls: %s, %d failures%n"
+                            + "Queries: %s, %d results%n"
+                            + "Index size: %d bytes%n"
+                            + "Pipeline: %s",
+                    this.filesIndexed, this.predictionsIndexed, this.indexErrors, this.elapsedMs,
+                    this.filesPerSecond(), this.predictionsPerSecond(),
+                    this.classifierLatency, this.classifierFailures,
+                    this.queryLatency, this.queryResults,
+                    this.indexBytes, this.pipeline);
+        }
+    }
+
+    public static Result run(Config config) throws Exception {
+        Path dir = Files.createTempDirectory("class-db-load");
+        try (LuceneDatabase db = new LuceneDatabase(dir)) {
+            FakeClassifier classifier = new FakeClassifier("fake", config.classes,
+                    config.medianLatencyMs, config.latencySigma, config.failureRate);
+            Map<String, QueryInterface> classifiers = new HashMap<>();
+            classifiers.put(classifier.getName(), classifier);
+
+            ClassificationIndexer indexer = new ClassificationIndexer();
+            indexer.setPlatformProxy(platform(classifiers::get));
+            indexer.setDatabase(db);
+            indexer.setPipeline(config.classifyThreads, 1, config.writeThreads, 16);
+            indexer.setClassificationEndpoints(Arrays.asList(
+                    new ClassificationEndpointDescriptor("fake", "liver", Collections.emptyList()),
+                    new ClassificationEndpointDescriptor("fake", "aorta", Collections.emptyList()),
+                    new ClassificationEndpointDescriptor("fake", "lesion", Collections.singletonList("liver"))
+            ));
+            QueryProvider queryProvider = new QueryProvider();
+            queryProvider.setDatabase(db);
+
+            // make sure that the index exists before queries start
+            db.createWriter().close();
+
+            AtomicBoolean indexing = new AtomicBoolean(true);
+            LatencyRecorder queryLatency = new LatencyRecorder();
+            AtomicLong queryResults = new AtomicLong();
+            ExecutorService queryExecutor = Executors.newFixedThreadPool(Math.max(1, config.queryThreads));
+            for (int t = 0; t < config.queryThreads; t++) {
+                final int offset = t;
+                queryExecutor.execute(() -> {
+                    int i = offset;
+                    while (indexing.get()) {
+                        String q = config.queries.get(i++ % config.queries.size());
+                        long start = System.nanoTime();
+                        long n = 0;
+                        for (SearchResult r : queryProvider.query(q)) {
+                            n++;
+                        }
+                        queryLatency.record(System.nanoTime() - start);
+                        queryResults.addAndGet(n);
+                    }
+                });
+            }
+
+            long start = System.currentTimeMillis();
+            Task<Report> task = indexer.index(files(config.files));
+            task.run();
+            Report report = task.get();
+            long elapsed = System.currentTimeMillis() - start;
+
+            indexing.set(false);
+            queryExecutor.shutdown();
+            queryExecutor.awaitTermination(1, TimeUnit.MINUTES);
+
+            Result result = new Result();
+            result.elapsedMs = elapsed;
+            result.filesIndexed = config.files;
+            if (report instanceof IndexReport) {
+                result.predictionsIndexed = ((IndexReport) report).getNIndexed();
+                result.indexErrors = ((IndexReport) report).getNErrors();
+            }
+            if (report instanceof ProfiledIndexReport) {
+                result.pipeline = ((ProfiledIndexReport) report).getProfile().getPipeline();
+            }
+            result.classifierFailures = classifier.getFailures();
+            result.classifierLatency = classifier.getLatencies();
+            result.queryLatency = queryLatency;
+            result.queryResults = queryResults.get();
+            result.indexBytes = size(dir);
+            return result;
+        } finally {
+            delete(dir);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Config config = new Config();
+        config.files = Integer.getInteger("load.files", config.files);
+        config.classes = Integer.getInteger("load.classes", config.classes);
+        config.medianLatencyMs = Double.parseDouble(System.getProperty("load.latency", String.valueOf(config.medianLatencyMs)));
+        config.latencySigma = Double.parseDouble(System.getProperty("load.sigma", String.valueOf(config.latencySigma)));
+        config.failureRate = Double.parseDouble(System.getProperty("load.failures", String.valueOf(config.failureRate)));
+        config.queryThreads = Integer.getInteger("load.queryThreads", config.queryThreads);
+        config.classifyThreads = Integer.getInteger("load.classifyThreads", config.classifyThreads);
+        config.writeThreads = Integer.getInteger("load.writeThreads", config.writeThreads);
+        System.out.println(run(config));
+    }
+
+    /** A temporary database and an indexer using it, with the classifiers "organs" and "lesions",
+     * shared by the indexing tests. Closing it deletes the database.
+     */
+    static class Fixture implements AutoCloseable {
+        /** the number of synthetic files indexed by {@link #index()} */
+        static final int FILES = 10;
+
+        final Path dir;
+        final LuceneDatabase db;
+        final FakeClassifier organs;
+        final FakeClassifier lesions;
+        final ClassificationIndexer indexer;
+
+        Fixture() throws IOException {
+            this(new FakeClassifier("organs", 2, 0, 0, 0), new FakeClassifier("lesions", 2, 0, 0, 0));
+        }
+
+        Fixture(FakeClassifier organs, FakeClassifier lesions) throws IOException {
+            this.dir = Files.createTempDirectory("dicoogle-classdb");
+            this.db = new LuceneDatabase(this.dir);
+            this.organs = organs;
+            this.lesions = lesions;
+            Map<String, QueryInterface> classifiers = new HashMap<>();
+            classifiers.put("organs", organs);
+            classifiers.put("lesions", lesions);
+
+            this.indexer = new ClassificationIndexer();
+            this.indexer.setPlatformProxy(platform(classifiers::get));
+            this.indexer.setDatabase(this.db);
+        }
+
+        /** Index {@link #FILES} synthetic files.
+         * @return the number of predictions indexed
+         */
+        long index() throws Exception {
+            return this.indexReport().getNIndexed();
+        }
+
+        /** Index {@link #FILES} synthetic files.
+         * @return the task's report
+         */
+        IndexReport indexReport() throws Exception {
+            Task<Report> task = this.indexer.index(files(FILES));
+            task.run();
+            return (IndexReport) task.get();
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.db.close();
+            delete(this.dir);
+        }
+    }
+
+    /** Create a platform proxy which only knows the given query providers. */
+    public static DicooglePlatformInterface platform(Function<String, QueryInterface> queryProviders) {
+        return (DicooglePlatformInterface) Proxy.newProxyInstance(LoadDriver.class.getClassLoader(),
+                new Class<?>[]{DicooglePlatformInterface.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getQueryProviderByName":
+                            return queryProviders.apply((String) args[0]);
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return "LoadDriverPlatform";
+                        default:
+                            return defaultValue(method.getReturnType());
+                    }
+                });
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type.isPrimitive() && type != void.class) {
+            return type == char.class ? (Object) '\0' : (Object) 0;
+        }
+        return null;
+    }
+
+    /** Obtain a lazy sequence of synthetic files. */
+    static Iterable<StorageInputStream> files(int n) {
+        return () -> new Iterator<StorageInputStream>() {
+            private int i = 0;
+
+            @Override
+            public boolean hasNext() {
+                return this.i < n;
+            }
+
+            @Override
+            public StorageInputStream next() {
+                final URI uri = URI.create("file:/load/" + (this.i++) + ".dcm");
+                return new StorageInputStream() {
+                    @Override
+                    public URI getURI() {
+                        return uri;
+                    }
+
+                    @Override
+                    public InputStream getInputStream() throws IOException {
+                        return new ByteArrayInputStream(new byte[0]);
+                    }
+
+                    @Override
+                    public long getSize() throws IOException {
+                        return 0;
+                    }
+                };
+            }
+        };
+    }
+
+    private static long size(Path dir) throws IOException {
+        final long[] total = {0};
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                total[0] += attrs.size();
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return total[0];
+    }
+
+    public static void delete(Path dir) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path d, IOException e) throws IOException {
+                Files.delete(d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.load;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import pt.ua.dicoogle.classdb.database.util.Pipeline;
+
+/**
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public class LoadDriverTest {
+
+    @Test
+    public void smoke() throws Exception {
+        LoadDriver.Config config = new LoadDriver.Config();
+        config.files = 50;
+        config.medianLatencyMs = 0;
+        config.failureRate = 0;
+        config.queryThreads = 1;
+
+        LoadDriver.Result result = LoadDriver.run(config);
+        // 3 criteria per file, 2 classes per criterion
+        assertEquals(300, result.predictionsIndexed);
+        assertEquals(0, result.indexErrors);
+        assertEquals(150, result.classifierLatency.count());
+        assertTrue(result.indexBytes > 0);
+    }
+
+    @Test
+    public void parallelPipeline() throws Exception {
+        LoadDriver.Config config = new LoadDriver.Config();
+        config.files = 50;
+        config.medianLatencyMs = 1;
+        config.failureRate = 0;
+        config.queryThreads = 1;
+        config.classifyThreads = 4;
+        config.writeThreads = 2;
+
+        LoadDriver.Result result = LoadDriver.run(config);
+        assertEquals(300, result.predictionsIndexed);
+        assertEquals(0, result.indexErrors);
+        assertEquals(Arrays.asList("classify", "build", "write"),
+                result.pipeline.stream().map(Pipeline.StageStats::getName).collect(Collectors.toList()));
+        assertEquals(4, result.pipeline.get(0).getThreads());
+    }
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.metrics;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public class LatencyStatsTest {
+
+    @Test
+    public void percentiles() {
+        LatencyStats stats = new LatencyStats();
+        assertEquals(0, stats.percentileMs(99), 0);
+        for (int i = 1; i <= 1000; i++) {
+            stats.record(i * 1000000L);
+        }
+        assertEquals(1000, stats.count());
+        assertEquals(500.5, stats.meanMs(), 1e-9);
+        assertEquals(1000, stats.maxMs(), 1e-9);
+        // within the precision of the buckets
+        assertEquals(500, stats.percentileMs(50), 500 * 0.125);
+        assertEquals(990, stats.percentileMs(99), 990 * 0.125);
+        assertEquals(1000, stats.percentileMs(100), 1e-9);
+    }
+}
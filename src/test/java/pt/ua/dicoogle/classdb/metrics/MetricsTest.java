@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public class MetricsTest {
+
+    @Test
+    public void counters() throws IOException {
+        Metrics metrics = new Metrics();
+        Counter c = metrics.counter("test_total", "A test counter", "kind", "a");
+        assertSame(c, metrics.counter("test_total", "A test counter", "kind", "a"));
+        c.inc();
+        c.inc(2);
+        metrics.counter("test_total", "A test counter", "kind", "b\"").inc();
+
+        StringWriter out = new StringWriter();
+        metrics.writeTo(out);
+        assertEquals("# HELP test_total A test counter\n"
+                + "# TYPE test_total counter\n"
+                + "test_total{kind=\"a\"} 3\n"
+                + "test_total{kind=\"b\\\"\"} 1\n", out.toString());
+    }
+
+    @Test
+    public void histograms() throws IOException {
+        Metrics metrics = new Metrics();
+        Histogram h = metrics.histogram("test_seconds", "A test histogram");
+        h.observe(2, TimeUnit.MILLISECONDS);
+        h.observe(20, TimeUnit.SECONDS);
+        h.observe(1, TimeUnit.MINUTES);
+        assertEquals(3, h.count());
+        assertEquals(80.002, h.sum(), 1e-9);
+
+        StringWriter out = new StringWriter();
+        metrics.writeTo(out);
+        String text = out.toString();
+        assertTrue(text.contains("# TYPE test_seconds histogram\n"));
+        assertTrue(text.contains("test_seconds_bucket{le=\"0.001\"} 0\n"));
+        assertTrue(text.contains("test_seconds_bucket{le=\"0.0025\"} 1\n"));
+        assertTrue(text.contains("test_seconds_bucket{le=\"30\"} 2\n"));
+        assertTrue(text.contains("test_seconds_bucket{le=\"+Inf\"} 3\n"));
+        assertTrue(text.contains("test_seconds_count 3\n"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void conflictingTypes() {
+        Metrics metrics = new Metrics();
+        metrics.counter("test", "");
+        metrics.histogram("test", "");
+    }
+}
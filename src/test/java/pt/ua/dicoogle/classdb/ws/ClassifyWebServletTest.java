@@ -0,0 +1,220 @@
+/**
+ * Copyright (C) 2017 UA.PT Bioinformatics - http://bioinformatics.ua.pt
+ *
+ * This file is part of Dicoogle Classification Database (dicoogle-class-db).
+ *
+ * dicoogle-class-db is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * dicoogle-class-db is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pt.ua.dicoogle.classdb.ws;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import pt.ua.dicoogle.classdb.database.Database;
+import pt.ua.dicoogle.classdb.database.DatabaseWriter;
+import pt.ua.dicoogle.classdb.database.lucene.LuceneDatabase;
+import pt.ua.dicoogle.classdb.database.struct.DatabaseItem;
+import pt.ua.dicoogle.classdb.load.FakeClassifier;
+import pt.ua.dicoogle.classdb.load.LoadDriver;
+
+/**
+ * @author Eduardo Pinho <eduardopinho@ua.pt>
+ */
+public class ClassifyWebServletTest {
+
+    private static final String BATCH = "/classification/classify/organs/liver";
+    private static final String URIS = "[\"file:/batch/0.dcm\", \"file:/batch/1.dcm\", \"file:/batch/2.dcm\"]";
+
+    private Path dir;
+    private LuceneDatabase db;
+    private ClassifyWebServlet servlet;
+
+    @Before
+    public void init() throws Exception {
+        this.dir = Files.createTempDirectory("dicoogle-classdb");
+        this.db = new LuceneDatabase(this.dir);
+        FakeClassifier organs = new FakeClassifier("organs", 2, 0, 0, 0);
+        this.servlet = new ClassifyWebServlet();
+        this.servlet.setPlatformProxy(LoadDriver.platform(Collections.singletonMap("organs", organs)::get));
+    }
+
+    @Test
+    public void batch() throws Exception {
+        this.servlet.setDatabase(this.db);
+        StringWriter body = new StringWriter();
+        assertEquals(200, this.post(BATCH, Collections.singletonMap("persist", "true"), body));
+
+        List<JSONObject> lines = lines(body);
+        assertEquals(4, lines.size());
+        for (JSONObject line : lines.subList(0, 3)) {
+            assertFalse(line.has("error"));
+            assertFalse(line.getBoolean("cached"));
+            assertEquals(2, line.getJSONObject("results").length());
+        }
+        JSONObject summary = lines.get(3);
+        assertTrue(summary.getBoolean("done"));
+        assertEquals(3, summary.getInt("count"));
+        assertEquals(0, summary.getInt("errors"));
+        assertEquals(6, summary.getInt("stored"));
+        assertEquals(6, this.db.stats().getNumDocs());
+
+        // now served from the database
+        body = new StringWriter();
+        assertEquals(200, this.post(BATCH, Collections.emptyMap(), body));
+        for (JSONObject line : lines(body).subList(0, 3)) {
+            assertTrue(line.getBoolean("cached"));
+        }
+    }
+
+    @Test
+    public void batchStoreFailure() throws Exception {
+        this.servlet.setDatabase(failingWrites(this.db));
+        StringWriter body = new StringWriter();
+        assertEquals(200, this.post(BATCH, Collections.singletonMap("persist", "true"), body));
+
+        // the response has already started, so failures are reported in the stream
+        List<JSONObject> lines = lines(body);
+        assertEquals(4, lines.size());
+        for (JSONObject line : lines.subList(0, 3)) {
+            assertEquals("Failed to store predictions", line.getString("error"));
+        }
+        JSONObject summary = lines.get(3);
+        assertTrue(summary.getBoolean("done"));
+        assertEquals(3, summary.getInt("errors"));
+        assertEquals(0, summary.getInt("stored"));
+    }
+
+    @After
+    public void cleanUp() throws Exception {
+        this.db.close();
+        LoadDriver.delete(this.dir);
+    }
+
+    private int post(String uri, Map<String, String> params, StringWriter body) throws Exception {
+        HttpServletRequest req = proxy(HttpServletRequest.class, (name, args) -> {
+            switch (name) {
+                case "getRequestURI":
+                    return uri;
+                case "getParameter":
+                    return params.get((String) args[0]);
+                case "getReader":
+                    return new BufferedReader(new StringReader(URIS));
+                default:
+                    return null;
+            }
+        });
+        Map<String, Object> state = new HashMap<>();
+        PrintWriter out = new PrintWriter(body);
+        HttpServletResponse resp = proxy(HttpServletResponse.class, (name, args) -> {
+            switch (name) {
+                case "setStatus":
+                    state.put("status", args[0]);
+                    return null;
+                case "getWriter":
+                    state.put("committed", true);
+                    return out;
+                case "isCommitted":
+                    return state.containsKey("committed");
+                default:
+                    return null;
+            }
+        });
+        this.servlet.doPost(req, resp);
+        out.flush();
+        return (Integer) state.get("status");
+    }
+
+    private static List<JSONObject> lines(StringWriter body) throws Exception {
+        List<JSONObject> lines = new ArrayList<>();
+        for (String line : body.toString().split("\n")) {
+            lines.add(new JSONObject(line));
+        }
+        return lines;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, BiFunction<String, Object[], Object> handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> handler.apply(method.getName(), args));
+    }
+
+    /** Wrap a database so that its writers fail to add anything. */
+    private static Database failingWrites(Database db) {
+        return (Database) Proxy.newProxyInstance(Database.class.getClassLoader(), new Class<?>[]{Database.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("createWriter")) {
+                        return new FailingWriter(db.createWriter());
+                    }
+                    try {
+                        return method.invoke(db, args);
+                    } catch (InvocationTargetException ex) {
+                        throw ex.getCause();
+                    }
+                });
+    }
+
+    private static final class FailingWriter implements DatabaseWriter {
+        private final DatabaseWriter writer;
+
+        FailingWriter(DatabaseWriter writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public DatabaseWriter add(DatabaseItem item) throws IOException {
+            throw new IOException("Simulated write failure");
+        }
+
+        @Override
+        public boolean remove(URI item) throws IOException {
+            return this.writer.remove(item);
+        }
+
+        @Override
+        public void removePredictions(URI item, String classifierName, String criterion) throws IOException {
+            this.writer.removePredictions(item, classifierName, criterion);
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.writer.close();
+        }
+    }
+}